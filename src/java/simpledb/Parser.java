@@ -593,6 +593,8 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
+        // reload the pages that were hot at the last checkpoint
+        Database.getBufferPool().warmUp(Database.getLogFile().getHotPagesFile());
         TableStats.computeStatistics();
 
         String queryFile = null;
@@ -187,14 +187,26 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                // an optional "pagesize N" after the fields gives the table its own page size
+                String[] options = line.substring(line.indexOf(")") + 1).trim().split("\\s+");
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf;
+                if (options.length == 2 && options[0].equalsIgnoreCase("pagesize"))
+                    tabHf = new HeapFile(tabFile, t, Integer.parseInt(options[1]));
+                else if (options.length == 1 && options[0].isEmpty())
+                    tabHf = new HeapFile(tabFile, t);
+                else {
+                    System.out.println("Unknown table option " + String.join(" ", options));
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
-        } catch (IndexOutOfBoundsException e) {
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
         }
@@ -2,8 +2,13 @@ package simpledb.common;
 
 import simpledb.storage.BufferPool;
 import simpledb.storage.LogFile;
+import simpledb.storage.ReplacementPolicy;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -17,6 +22,9 @@ import java.util.concurrent.atomic.AtomicReference;
  * @Threadsafe
  */
 public class Database {
+    /** JMX name of the buffer pool of the static Database instance. */
+    public static final String BUFFER_POOL_MBEAN_NAME = "simpledb:type=BufferPool";
+
     private static final AtomicReference<Database> _instance = new AtomicReference<>(new Database());
     private final Catalog _catalog;
     private final BufferPool _bufferpool;
@@ -35,9 +43,27 @@ public class Database {
             System.exit(1);
         }
         _logfile = tmp;
+        registerBufferPool(_bufferpool);
         // startControllerThread();
     }
 
+    /**
+     * Register the JMX view of bufferPool as {@link #BUFFER_POOL_MBEAN_NAME},
+     * replacing the view of the previous buffer pool
+     */
+    private static synchronized void registerBufferPool(BufferPool bufferPool) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(BUFFER_POOL_MBEAN_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(bufferPool.getMXBean(), name);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
     /** Return the log file of the static Database instance */
     public static LogFile getLogFile() {
         return _instance.get()._logfile;
@@ -55,14 +81,37 @@ public class Database {
 
     /**
      * Method used for testing -- create a new instance of the buffer pool and
-     * return it
+     * return it. To change the size of the current pool without dropping its
+     * pages and locks, use {@link BufferPool#resize} instead.
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * that evicts with the given replacement policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy policy) {
+        return resetBufferPool(new BufferPool(pages, policy));
+    }
+
+    /**
+     * Method used for testing -- make bufferPool the buffer pool of the
+     * static Database instance and return it. The previous pool is closed,
+     * see {@link BufferPool#close}.
+     */
+    public static BufferPool resetBufferPool(BufferPool bufferPool) {
         java.lang.reflect.Field bufferPoolF=null;
+        BufferPool previous = _instance.get()._bufferpool;
+        if (previous != bufferPool) {
+            previous.close();
+        }
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), bufferPool);
+            registerBufferPool(bufferPool);
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
@@ -72,6 +121,7 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
+        _instance.get()._bufferpool.close();
         _instance.set(new Database());
     }
 
@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Permissions;
 import simpledb.common.Type;
 import simpledb.storage.BufferPool;
 import simpledb.storage.IntField;
@@ -50,6 +51,8 @@ public class Delete extends Operator {
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
         super.open();
+        // the scans lock only the records deleted, not their whole tables
+        SeqScan.setIntentionLocks(child, Permissions.READ_WRITE);
         child.open();
         hasDeleted = false;
     }
@@ -4,6 +4,7 @@ import java.io.IOException;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Permissions;
 import simpledb.storage.BufferPool;
 import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
@@ -59,6 +60,9 @@ public class Insert extends Operator {
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
         super.open();
+        // the scans read pages under page locks, so other writers of their
+        // tables are not kept out
+        SeqScan.setIntentionLocks(child, Permissions.READ_ONLY);
         child.open();
         hasInserted = false;
     }
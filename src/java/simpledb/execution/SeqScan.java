@@ -1,12 +1,15 @@
 package simpledb.execution;
 
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
 import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -25,6 +28,7 @@ public class SeqScan implements OpIterator {
     private int tableid;
     private String tableAlias;
     private DbFileIterator dbFileIterator;
+    private Permissions intention; // null for a shared table lock
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -92,10 +96,56 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Lock the table with an intention lock instead of a shared one when
+     * the scan is opened, INTENTION_SHARED for READ_ONLY and
+     * INTENTION_EXCLUSIVE for READ_WRITE, so that other writers of the
+     * table are not kept out. Pages are then locked as they are read. With
+     * record locking on, a READ_WRITE scan of a heap file only takes
+     * intention locks on the pages, and locks each record exclusively
+     * before it is read, see {@link HeapFile#recordIterator}.
+     *
+     * @see Delete
+     * @see Insert
+     */
+    public void setIntentionLock(Permissions perm) {
+        this.intention = perm;
+    }
+
+    /**
+     * Have every SeqScan in plan, e.g. the child of an Insert or Delete,
+     * take an intention lock on its table, see {@link #setIntentionLock}.
+     */
+    static void setIntentionLocks(OpIterator plan, Permissions perm) {
+        if (plan instanceof SeqScan) {
+            ((SeqScan) plan).setIntentionLock(perm);
+        } else if (plan instanceof Operator) {
+            OpIterator[] children = ((Operator) plan).getChildren();
+            if (children != null) {
+                for (OpIterator child : children) {
+                    setIntentionLocks(child, perm);
+                }
+            }
+        }
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
         DbFile dbFile = Database.getCatalog().getDatabaseFile(tableid);
-        dbFileIterator = dbFile.iterator(tid);
+        BufferPool bufferPool = Database.getBufferPool();
+        if (intention == null) {
+            // one shared lock on the table instead of one per page
+            bufferPool.lockTable(tid, tableid, Permissions.READ_ONLY);
+            dbFileIterator = dbFile.iterator(tid);
+        } else {
+            bufferPool.lockTableIntention(tid, tableid, intention);
+            if (intention == Permissions.READ_WRITE && bufferPool.isRecordLocking()
+                    && dbFile instanceof HeapFile) {
+                dbFileIterator = ((HeapFile) dbFile).recordIterator(tid, intention);
+            } else {
+                dbFileIterator = dbFile.iterator(tid);
+            }
+        }
         dbFileIterator.open();
     }
 
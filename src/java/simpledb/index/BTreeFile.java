@@ -36,6 +36,7 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid;
 	private final int keyField;
+	private final int pageSize; // 0: BufferPool.getPageSize()
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -50,6 +51,47 @@ public class BTreeFile implements DbFile {
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.pageSize = 0;
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file, with pages of
+	 * pageSize bytes instead of the BufferPool's default page size. The root
+	 * pointer page keeps its own fixed size.
+	 * 
+	 * @param f        - the file that stores the on-disk backing store for this
+	 *                 B+ tree file.
+	 * @param key      - the field which index is keyed on
+	 * @param td       - the tuple descriptor of tuples in the file
+	 * @param pageSize - the size of each page of the file in bytes
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, int pageSize) {
+		if (pageSize < td.getSize() + 3 * BTreeLeafPage.INDEX_SIZE + 1) {
+			throw new IllegalArgumentException("page size " + pageSize + " does not fit a tuple");
+		}
+		this.f = f;
+		this.tableid = f.getAbsoluteFile().hashCode();
+		this.keyField = key;
+		this.td = td;
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Returns the size of the pages of this file other than the root pointer
+	 * page in bytes: the size given to the constructor, or else
+	 * {@link BufferPool#getPageSize}.
+	 */
+	public int getPageSize() {
+		return pageSize > 0 ? pageSize : BufferPool.getPageSize();
+	}
+
+	/**
+	 * Returns the page size of the table in the catalog with the given id, or
+	 * the default page size if it is not a BTreeFile.
+	 */
+	static int pageSizeOf(int tableId) {
+		DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+		return file instanceof BTreeFile ? ((BTreeFile) file).getPageSize() : BufferPool.getPageSize();
 	}
 
 	/**
@@ -89,6 +131,18 @@ public class BTreeFile implements DbFile {
 	 * @return the page constructed from the contents on disk
 	 */
 	public Page readPage(PageId pid) {
+		return decodePage(pid, readPageData(pid));
+	}
+
+	/**
+	 * Read the bytes of a page from disk without decoding them. The root
+	 * pointer page is BTreeRootPtrPage.getPageSize() bytes long, all other
+	 * pages getPageSize().
+	 * 
+	 * @param pid - the id of the page to read from disk
+	 * @return the bytes of the page
+	 */
+	public byte[] readPageData(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
 
 		try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
@@ -103,31 +157,24 @@ public class BTreeFile implements DbFile {
 							+ BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
 				}
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-				return new BTreeRootPtrPage(id, pageBuf);
+				return pageBuf;
 			} else {
-				byte[] pageBuf = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize()
-						+ (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) != BTreeRootPtrPage.getPageSize()
-								+ (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
+				int pageSize = getPageSize();
+				byte[] pageBuf = new byte[pageSize];
+				if (bis.skip(pageOffset(id)) != pageOffset(id)) {
 					throw new IllegalArgumentException(
 							"Unable to seek to correct place in BTreeFile");
 				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
+				int retval = bis.read(pageBuf, 0, pageSize);
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
-				if (retval < BufferPool.getPageSize()) {
+				if (retval < pageSize) {
 					throw new IllegalArgumentException("Unable to read "
-							+ BufferPool.getPageSize() + " bytes from BTreeFile");
+							+ pageSize + " bytes from BTreeFile");
 				}
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-				if (id.pgcateg() == BTreePageId.INTERNAL) {
-					return new BTreeInternalPage(id, pageBuf, keyField);
-				} else if (id.pgcateg() == BTreePageId.LEAF) {
-					return new BTreeLeafPage(id, pageBuf, keyField);
-				} else { // id.pgcateg() == BTreePageId.HEADER
-					return new BTreeHeaderPage(id, pageBuf);
-				}
+				return pageBuf;
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
@@ -136,6 +183,30 @@ public class BTreeFile implements DbFile {
 		// Ignore failures closing the file
 	}
 
+	/**
+	 * Construct a page from bytes returned by readPageData.
+	 * 
+	 * @param pid - the id of the page
+	 * @param data - the bytes of the page
+	 * @return the decoded page
+	 */
+	public Page decodePage(PageId pid, byte[] data) {
+		BTreePageId id = (BTreePageId) pid;
+		try {
+			if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+				return new BTreeRootPtrPage(id, data);
+			} else if (id.pgcateg() == BTreePageId.INTERNAL) {
+				return new BTreeInternalPage(id, data, keyField);
+			} else if (id.pgcateg() == BTreePageId.LEAF) {
+				return new BTreeLeafPage(id, data, keyField);
+			} else { // id.pgcateg() == BTreePageId.HEADER
+				return new BTreeHeaderPage(id, data);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	/**
 	 * Write a page to disk. This should not be called directly but should
 	 * be called from the BufferPool when pages are flushed to disk
@@ -147,15 +218,31 @@ public class BTreeFile implements DbFile {
 
 		byte[] data = page.getPageData();
 		RandomAccessFile rf = new RandomAccessFile(f, "rw");
+		rf.seek(pageOffset(id));
+		rf.write(data);
+		rf.close();
+	}
+
+	/**
+	 * Write several pages to disk, merging neighbouring pages into single
+	 * writes, and force them to the device.
+	 * 
+	 * @param pages - the pages to write to disk
+	 */
+	public void writePages(List<Page> pages) throws IOException {
+		BatchWriter.write(f, pages, pid -> pageOffset((BTreePageId) pid));
+	}
+
+	/**
+	 * Return the offset of a page in the file: the root pointer page comes
+	 * first, followed by the numbered pages
+	 */
+	private long pageOffset(BTreePageId id) {
 		if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
-		} else {
-			rf.seek(BTreeRootPtrPage.getPageSize()
-					+ (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			return 0;
 		}
+		return BTreeRootPtrPage.getPageSize()
+				+ (long) (id.getPageNumber() - 1) * getPageSize();
 	}
 
 	/**
@@ -163,7 +250,7 @@ public class BTreeFile implements DbFile {
 	 */
 	public int numPages() {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize()) / BufferPool.getPageSize());
+		return (int) ((f.length() - BTreeRootPtrPage.getPageSize()) / getPageSize());
 	}
 
 	/**
@@ -1220,7 +1307,7 @@ public class BTreeFile implements DbFile {
 				BufferedOutputStream bw = new BufferedOutputStream(
 						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
+				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData(getPageSize());
 				bw.write(emptyRootPtrData);
 				bw.write(emptyLeafData);
 				bw.close();
@@ -1271,7 +1358,7 @@ public class BTreeFile implements DbFile {
 				headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
 				int emptySlot = headerPage.getEmptySlot();
 				headerPage.markSlotUsed(emptySlot, true);
-				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots() + emptySlot;
+				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots(getPageSize()) + emptySlot;
 			}
 		}
 
@@ -1282,7 +1369,7 @@ public class BTreeFile implements DbFile {
 				// create the new page
 				BufferedOutputStream bw = new BufferedOutputStream(
 						new FileOutputStream(f, true));
-				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
+				byte[] emptyData = BTreeInternalPage.createEmptyPageData(getPageSize());
 				bw.write(emptyData);
 				bw.close();
 				emptyPageNo = numPages();
@@ -1320,8 +1407,8 @@ public class BTreeFile implements DbFile {
 
 		// write empty page to disk
 		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
+		rf.seek(pageOffset(newPageId));
+		rf.write(BTreePage.createEmptyPageData(getPageSize()));
 		rf.close();
 
 		// make sure the page is not in the buffer pool or in the local cache
@@ -1392,7 +1479,7 @@ public class BTreeFile implements DbFile {
 		// iterate through all the existing header pages to find the one containing the
 		// slot
 		// corresponding to emptyPageNo
-		while (headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
+		while (headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots(getPageSize()) < emptyPageNo) {
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
 			prevId = headerId;
 			headerId = headerPage.getNextPageId();
@@ -1402,7 +1489,7 @@ public class BTreeFile implements DbFile {
 		// at this point headerId should either be null or set with
 		// the headerPage containing the slot corresponding to emptyPageNo.
 		// Add header pages until we have one with a slot corresponding to emptyPageNo
-		while ((headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
+		while ((headerPageCount + 1) * BTreeHeaderPage.getNumSlots(getPageSize()) < emptyPageNo) {
 			BTreeHeaderPage prevPage = (BTreeHeaderPage) getPage(tid, dirtypages, prevId, Permissions.READ_WRITE);
 
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getEmptyPage(tid, dirtypages, BTreePageId.HEADER);
@@ -1419,7 +1506,7 @@ public class BTreeFile implements DbFile {
 		// corresponding to
 		// emptyPageNo
 		BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
-		int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots();
+		int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots(getPageSize());
 		headerPage.markSlotUsed(emptySlot, false);
 	}
 
@@ -1454,9 +1541,10 @@ public class BTreeFile implements DbFile {
 }
 
 /**
- * Helper class that implements the Java Iterator for tuples on a BTreeFile
+ * Helper class for the iterators over the leaves of a BTreeFile. Keeps the
+ * leaf the iterator is on pinned, so that it stays in the buffer pool.
  */
-class BTreeFileIterator extends AbstractDbFileIterator {
+abstract class BTreeLeafIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
@@ -1464,6 +1552,63 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	final TransactionId tid;
 	final BTreeFile f;
 
+	BTreeLeafIterator(BTreeFile f, TransactionId tid) {
+		this.f = f;
+		this.tid = tid;
+	}
+
+	/**
+	 * Pin the leaf page with the given id and unpin the current leaf, so that
+	 * the leaf the iterator is on stays in the buffer pool
+	 */
+	BTreeLeafPage pinLeaf(BTreePageId pid) throws DbException, TransactionAbortedException {
+		// unpin first, so that moving on never needs a free frame more
+		unpinLeaf();
+		return (BTreeLeafPage) Database.getBufferPool().getPinnedPage(tid, pid, Permissions.READ_ONLY);
+	}
+
+	void unpinLeaf() {
+		if (curp != null) {
+			Database.getBufferPool().unpinPage(tid, curp.getId());
+			curp = null;
+		}
+	}
+
+	/**
+	 * End the iteration: unpin the current leaf and forget its tuples
+	 * 
+	 * @return null, for readNext to return
+	 */
+	Tuple end() {
+		unpinLeaf();
+		it = null;
+		return null;
+	}
+
+	/**
+	 * rewind this iterator back to the beginning of the tuples
+	 */
+	public void rewind() throws DbException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	/**
+	 * close the iterator
+	 */
+	public void close() {
+		super.close();
+		end();
+	}
+}
+
+/**
+ * Helper class that implements the Java Iterator for tuples on a BTreeFile
+ */
+class BTreeFileIterator extends BTreeLeafIterator {
+
+	final ReadAhead readAhead = new ReadAhead();
+
 	/**
 	 * Constructor for this iterator
 	 * 
@@ -1471,8 +1616,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 * @param tid - the transaction id
 	 */
 	public BTreeFileIterator(BTreeFile f, TransactionId tid) {
-		this.f = f;
-		this.tid = tid;
+		super(f, tid);
 	}
 
 	/**
@@ -1482,7 +1626,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, null);
+		curp = pinLeaf(f.findLeafPage(tid, root, null).getId());
+		readAhead.advance(false);
 		it = curp.iterator();
 	}
 
@@ -1500,10 +1645,15 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		while (it == null && curp != null) {
 			BTreePageId nextp = curp.getRightSiblingId();
 			if (nextp == null) {
-				curp = null;
+				unpinLeaf();
 			} else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				curp = pinLeaf(nextp);
+				// leaves reached through sibling pointers are always sequential
+				int ahead = readAhead.advance(true);
+				if (ahead > 0) {
+					Database.getBufferPool().readAhead(curp.getRightSiblingId(), ahead,
+							page -> ((BTreeLeafPage) page).getRightSiblingId());
+				}
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1514,36 +1664,14 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 			return null;
 		return it.next();
 	}
-
-	/**
-	 * rewind this iterator back to the beginning of the tuples
-	 */
-	public void rewind() throws DbException, TransactionAbortedException {
-		close();
-		open();
-	}
-
-	/**
-	 * close the iterator
-	 */
-	public void close() {
-		super.close();
-		it = null;
-		curp = null;
-	}
 }
 
 /**
  * Helper class that implements the DbFileIterator for search tuples on a
  * B+ Tree File
  */
-class BTreeSearchIterator extends AbstractDbFileIterator {
-
-	Iterator<Tuple> it = null;
-	BTreeLeafPage curp = null;
+class BTreeSearchIterator extends BTreeLeafIterator {
 
-	final TransactionId tid;
-	final BTreeFile f;
 	final IndexPredicate ipred;
 
 	/**
@@ -1554,8 +1682,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * @param ipred - the predicate to filter on
 	 */
 	public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
-		this.f = f;
-		this.tid = tid;
+		super(f, tid);
 		this.ipred = ipred;
 	}
 
@@ -1567,12 +1694,14 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
+		BTreeLeafPage leaf;
 		if (ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, ipred.getField());
+			leaf = f.findLeafPage(tid, root, ipred.getField());
 		} else {
-			curp = f.findLeafPage(tid, root, null);
+			leaf = f.findLeafPage(tid, root, null);
 		}
+		curp = pinLeaf(leaf.getId());
 		it = curp.iterator();
 	}
 
@@ -1580,6 +1709,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * Read the next tuple either from the current page if it has more tuples
 	 * matching
 	 * the predicate or from the next page by following the right sibling pointer.
+	 * The leaf is unpinned as soon as the end of the range is reached.
 	 * 
 	 * @return the next tuple matching the predicate, or null if none exists
 	 */
@@ -1595,42 +1725,25 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 				} else if (ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
 					// if the predicate was not satisfied and the operation is less than, we have
 					// hit the end
-					return null;
+					return end();
 				} else if (ipred.getOp() == Op.EQUALS &&
 						t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
 					// if the tuple is now greater than the field passed in and the operation
 					// is equals, we have reached the end
-					return null;
+					return end();
 				}
 			}
 
 			BTreePageId nextp = curp.getRightSiblingId();
 			// if there are no more pages to the right, end the iteration
 			if (nextp == null) {
-				return null;
+				return end();
 			} else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				curp = pinLeaf(nextp);
 				it = curp.iterator();
 			}
 		}
 
 		return null;
 	}
-
-	/**
-	 * rewind this iterator back to the beginning of the tuples
-	 */
-	public void rewind() throws DbException, TransactionAbortedException {
-		close();
-		open();
-	}
-
-	/**
-	 * close the iterator
-	 */
-	public void close() {
-		super.close();
-		it = null;
-	}
 }
@@ -26,6 +26,7 @@ public abstract class BTreePage implements Page {
 	protected final BTreePageId pid;
 	protected final TupleDesc td;
 	protected final int keyField;
+	protected final int pageSize;
 
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
@@ -39,7 +40,7 @@ public abstract class BTreePage implements Page {
 	 * has m+1 pointers to children), and the category of all child pages (either 
 	 * leaf or internal).
 	 *  Specifically, the number of entries is equal to: <p>
-	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (entry size * 8 + 1))
+	 *          floor((page size*8 - extra bytes*8) / (entry size * 8 + 1))
 	 * <p> where entry size is the size of entries in this index node
 	 * (key + child pointer), which can be determined via the key field and 
 	 * {@link Catalog#getTupleDesc}.
@@ -49,7 +50,7 @@ public abstract class BTreePage implements Page {
 	 * <p>
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
-	 * @see BufferPool#getPageSize()
+	 * @see BTreeFile#getPageSize()
 	 * 
 	 * @param id - the id of this page
 	 * @param key - the field which the index is keyed on
@@ -57,9 +58,17 @@ public abstract class BTreePage implements Page {
 	public BTreePage(BTreePageId id, int key) {
 		this.pid = id;
 		this.keyField = key;
+		this.pageSize = BTreeFile.pageSizeOf(id.getTableId());
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
 	}
 
+	/**
+	 * @return the size of this page in bytes
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+
 	/**
 	 * @return the PageId associated with this page.
 	 */
@@ -77,8 +86,18 @@ public abstract class BTreePage implements Page {
 	 * @return The returned ByteArray.
 	 */
 	public static byte[] createEmptyPageData() {
-		int len = BufferPool.getPageSize();
-		return new byte[len]; //all 0
+		return createEmptyPageData(BufferPool.getPageSize());
+	}
+
+	/**
+	 * Static method to generate a byte array corresponding to an empty
+	 * BTreePage of pageSize bytes, for a file with its own page size.
+	 *
+	 * @see BTreeFile#getPageSize
+	 * @return The returned ByteArray.
+	 */
+	public static byte[] createEmptyPageData(int pageSize) {
+		return new byte[pageSize]; //all 0
 	}
 
 	/**
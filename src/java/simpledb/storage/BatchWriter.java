@@ -0,0 +1,68 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * BatchWriter writes a batch of pages to one file with as few system calls
+ * as it can: the pages are sorted by their offset in the file, runs of
+ * neighbouring pages are written with one gathering write, and the file is
+ * forced to the device once at the end.
+ *
+ * @see DbFile#writePages
+ */
+public final class BatchWriter {
+
+    /** Most pages merged into one write. */
+    static final int MAX_RUN = 64;
+
+    private BatchWriter() {
+    }
+
+    /**
+     * Write pages to f and force f to the device.
+     *
+     * @param f        the file to write
+     * @param pages    the pages to write
+     * @param offsetOf maps a page id to the offset of the page in f
+     */
+    public static void write(File f, List<Page> pages, ToLongFunction<PageId> offsetOf)
+            throws IOException {
+        List<Page> sorted = new ArrayList<>(pages);
+        sorted.sort(Comparator.comparingLong(page -> offsetOf.applyAsLong(page.getId())));
+
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.WRITE)) {
+            int i = 0;
+            while (i < sorted.size()) {
+                long start = offsetOf.applyAsLong(sorted.get(i).getId());
+                long end = start;
+                List<ByteBuffer> run = new ArrayList<>();
+                while (i < sorted.size() && run.size() < MAX_RUN
+                        && offsetOf.applyAsLong(sorted.get(i).getId()) == end) {
+                    byte[] data = sorted.get(i).getPageData();
+                    run.add(ByteBuffer.wrap(data));
+                    end += data.length;
+                    i++;
+                }
+                writeFully(channel, run.toArray(new ByteBuffer[0]), start, end - start);
+            }
+            channel.force(false);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer[] buffers, long position,
+            long length) throws IOException {
+        channel.position(position);
+        long written = 0;
+        while (written < length) {
+            written += channel.write(buffers);
+        }
+    }
+}
@@ -10,8 +10,14 @@ import simpledb.transaction.TransactionId;
 
 import java.io.*;
 
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -22,7 +28,7 @@ import java.util.*;
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
  * 
- * @Threadsafe, all fields are final
+ * @Threadsafe, all fields are final except numPages, which resize changes
  */
 public class BufferPool {
     /** Bytes per page, including header. */
@@ -37,11 +43,59 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
-    private int numPages;
-    private LinkedHashMap<PageId, Page> pages;
+    /** Default number of shards the page table is striped into. */
+    public static final int DEFAULT_SHARDS = 16;
+
+    /** Default interval between write-behind flusher rounds. */
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 50;
+
+    /** Number of threads that load pages for read-ahead. */
+    public static final int READ_AHEAD_THREADS = 4;
+
+    /** Order in which committed pages are written: by table, then page number. */
+    private static final Comparator<PageId> PAGE_ORDER =
+            Comparator.comparingInt(PageId::getTableId).thenComparingInt(PageId::getPageNumber);
+
+    private volatile int numPages;
+    private final PageTable pages;
+    private final FrameArena arena; // null unless enabled
+    private volatile CompressedPageCache compressedCache; // null unless enabled
 
     private final LockManager lockManager = new LockManager();
-    private LockManager.LockType lockType;
+    private final BufferPoolStats stats = new BufferPoolStats();
+
+    // write-behind: pages holding committed but unflushed changes, mapped to
+    // the transaction that last committed them
+    private final Map<PageId, TransactionId> committedDirty = new ConcurrentHashMap<>();
+    private volatile PageFlusher flusher; // null unless write-behind is on
+
+    private volatile boolean readAheadEnabled = true;
+    private volatile boolean recordLocking = false;
+    private volatile VersionStore versions; // null unless multi-version reads are on
+    private final OptimisticValidator validator = new OptimisticValidator();
+    private final ThreadPoolExecutor readAheadExecutor;
+    // pages read-ahead is loading right now; a miss on one waits for the load
+    private final Map<PageId, CountDownLatch> loadingAhead = new ConcurrentHashMap<>();
+
+    // pages each running transaction fetched READ_WRITE or changed through
+    // insertTuple/deleteTuple; completing a transaction only visits these
+    private final Map<TransactionId, Set<PageId>> txnPages = new ConcurrentHashMap<>();
+
+    // pins each running transaction took with getPinnedPage, by page
+    private final Map<TransactionId, Map<PageId, Integer>> txnPins = new ConcurrentHashMap<>();
+
+    // frame shares set with setTableQuota, by table id
+    private final Map<Integer, TableQuota> quotas = new ConcurrentHashMap<>();
+
+    private static class TableQuota {
+        final int minPages;
+        final int maxPages;
+
+        TableQuota(int minPages, int maxPages) {
+            this.minPages = minPages;
+            this.maxPages = maxPages;
+        }
+    }
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -49,8 +103,162 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, DEFAULT_SHARDS);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in a page table
+     * striped into numShards shards.
+     *
+     * @param numPages  maximum number of pages in this buffer pool.
+     * @param numShards number of page table shards, rounded up to a power of two
+     */
+    public BufferPool(int numPages, int numShards) {
+        this(numPages, numShards, new TwoQueueReplacer(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and chooses
+     * eviction victims with the given policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy   the replacement policy, not shared with any other pool
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+        this(numPages, DEFAULT_SHARDS, policy);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in a page table
+     * striped into numShards shards, and chooses eviction victims with the
+     * given policy.
+     *
+     * @param numPages  maximum number of pages in this buffer pool.
+     * @param numShards number of page table shards, rounded up to a power of two
+     * @param policy    the replacement policy, not shared with any other pool
+     */
+    public BufferPool(int numPages, int numShards, ReplacementPolicy policy) {
+        this(numPages, numShards, policy, null);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages decoded pages on the
+     * heap, backed by an off-heap arena of page images. A page missing from
+     * the pool is decoded from the arena if it has a frame there, and only
+     * read from its file otherwise. numPages can then be kept small while the
+     * arena holds the working set.
+     *
+     * @param numPages  maximum number of decoded pages in this buffer pool.
+     * @param numShards number of page table shards, rounded up to a power of two
+     * @param policy    the replacement policy, not shared with any other pool
+     * @param arena     the arena of page images, or null for none; not shared
+     *                  with any other pool
+     */
+    public BufferPool(int numPages, int numShards, ReplacementPolicy policy, FrameArena arena) {
         this.numPages = numPages;
-        this.pages = new LinkedHashMap<PageId, Page>(numPages, 0.75f, true);
+        this.pages = new PageTable(numShards, policy);
+        this.arena = arena;
+        // read-ahead is advisory: when the loaders fall behind, requests are dropped
+        this.readAheadExecutor = new ThreadPoolExecutor(READ_AHEAD_THREADS, READ_AHEAD_THREADS,
+                1, TimeUnit.SECONDS, new ArrayBlockingQueue<>(256), r -> {
+                    Thread t = new Thread(r, "simpledb-read-ahead");
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.DiscardPolicy());
+        this.readAheadExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /** Return the replacement policy of this pool, e.g. to read its counters. */
+    public ReplacementPolicy getReplacementPolicy() {
+        return pages.policy();
+    }
+
+    /** Return the live counters of this pool. */
+    public BufferPoolStats getStats() {
+        return stats;
+    }
+
+    /** Return a JMX view of this pool; see {@link simpledb.common.Database}. */
+    public BufferPoolMXBean getMXBean() {
+        return new MXBean();
+    }
+
+    private class MXBean implements BufferPoolMXBean {
+        public int getCapacity() {
+            return numPages;
+        }
+
+        public void setCapacity(int capacity) {
+            try {
+                resize(capacity);
+            } catch (DbException e) {
+                // the new capacity holds; the pool shrinks as pages become clean
+            }
+        }
+
+        public int getResidentPages() {
+            return pages.size();
+        }
+
+        public long getHits() {
+            return stats.getTotal().getHits();
+        }
+
+        public long getMisses() {
+            return stats.getTotal().getMisses();
+        }
+
+        public double getHitRatio() {
+            return stats.getTotal().getHitRatio();
+        }
+
+        public long getPagesRead() {
+            return stats.getTotal().getPagesRead();
+        }
+
+        public long getPagesWritten() {
+            return stats.getTotal().getPagesWritten();
+        }
+
+        public long getEvictions() {
+            return stats.getTotal().getEvictions();
+        }
+
+        public long getDiscards() {
+            return stats.getTotal().getDiscards();
+        }
+
+        public long getAllDirtyFailures() {
+            return stats.getAllDirtyFailures();
+        }
+
+        public double getReadLatencyMeanMicros() {
+            return stats.getReadLatency().getMeanNanos() / 1000;
+        }
+
+        public long getReadLatencyP99Micros() {
+            return stats.getReadLatency().getPercentileNanos(0.99) / 1000;
+        }
+
+        public double getWriteLatencyMeanMicros() {
+            return stats.getWriteLatency().getMeanNanos() / 1000;
+        }
+
+        public long getWriteLatencyP99Micros() {
+            return stats.getWriteLatency().getPercentileNanos(0.99) / 1000;
+        }
+
+        public double getCommittedDirtyRatio() {
+            return committedDirtyRatio();
+        }
+
+        public Map<Integer, BufferPoolStats.PageCounters> getTables() {
+            return new HashMap<>(stats.getTables());
+        }
+
+        public void resetStats() {
+            stats.reset();
+        }
     }
 
     public static int getPageSize() {
@@ -84,7 +292,15 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
+        VersionStore mv = versions;
+        if (mv != null && mv.isSnapshot(tid)) {
+            return readSnapshot(mv, tid, pid, perm);
+        }
+        if (validator.isOptimistic(tid)) {
+            return readOptimistic(tid, pid, perm);
+        }
 
+        LockManager.LockType lockType;
         if (perm == Permissions.READ_ONLY) {
             lockType = LockManager.LockType.SHARED;
         } else {
@@ -92,28 +308,670 @@ public class BufferPool {
         }
 
         lockManager.acquireLock(tid, pid, lockType);
+        if (perm == Permissions.READ_WRITE) {
+            recordWrite(tid, pid);
+        }
+        return fetchPage(pid);
+    }
+
+    /**
+     * Retrieve the specified page for changes to single records, with record
+     * locking on. Only an intention lock is taken on the page, so that
+     * transactions working on different records of the page share it; each
+     * record must be locked with {@link #lockRecord} before it is used, and
+     * changes to the page made under its latch.
+     *
+     * @param tid  the ID of the transaction requesting the page
+     * @param pid  the ID of the requested page
+     * @param perm the permissions the transaction will request on records
+     */
+    public Page getRecordPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        VersionStore mv = versions;
+        if (mv != null && mv.isSnapshot(tid)) {
+            return readSnapshot(mv, tid, pid, perm);
+        }
+        if (validator.isOptimistic(tid)) {
+            return readOptimistic(tid, pid, perm);
+        }
+        if (perm == Permissions.READ_ONLY) {
+            lockManager.acquireLock(tid, pid, LockManager.LockType.INTENTION_SHARED);
+        } else {
+            lockManager.acquireLock(tid, pid, LockManager.LockType.INTENTION_EXCLUSIVE);
+            recordWrite(tid, pid);
+        }
+        return fetchPage(pid);
+    }
+
+    /**
+     * Lock a single record for tid, shared for READ_ONLY and exclusive for
+     * READ_WRITE, under intention locks on its page and table. May block
+     * like {@link #getPage}.
+     */
+    public void lockRecord(TransactionId tid, RecordId rid, Permissions perm)
+            throws TransactionAbortedException {
+        lockManager.acquireRecordLock(tid, rid,
+                perm == Permissions.READ_ONLY ? LockManager.LockType.SHARED : LockManager.LockType.EXCLUSIVE);
+    }
+
+    /**
+     * Lock a single record exclusively for tid if that is possible without
+     * waiting, e.g. to choose a free slot for an insert.
+     *
+     * @return true if tid now holds the lock
+     */
+    public boolean tryLockRecord(TransactionId tid, RecordId rid) {
+        return lockManager.tryAcquireRecordLock(tid, rid, LockManager.LockType.EXCLUSIVE);
+    }
+
+    /*
+     * Return the version of pid the snapshot of tid sees, without taking any
+     * lock. The page is fetched like any other, so that its before image is
+     * at hand; nothing changes the before image but a commit, which keeps
+     * the version it replaces first.
+     */
+    private Page readSnapshot(VersionStore mv, TransactionId tid, PageId pid, Permissions perm)
+            throws DbException {
+        if (perm == Permissions.READ_WRITE) {
+            throw new DbException("transaction " + tid + " reads a snapshot and cannot write " + pid);
+        }
+        return mv.read(tid, committedImage(fetchPage(pid)));
+    }
+
+    /*
+     * Return pid for an optimistic transaction, without taking any lock:
+     * its private copy if it wrote the page, otherwise the last committed
+     * version, which for READ_WRITE is copied to a private copy first.
+     * Only heap files are supported: B+ tree files write and discard pages
+     * directly, around the private copies.
+     */
+    private Page readOptimistic(TransactionId tid, PageId pid, Permissions perm) throws DbException {
+        if (!(Database.getCatalog().getDatabaseFile(pid.getTableId()) instanceof HeapFile)) {
+            throw new DbException("optimistic transaction " + tid + " cannot use " + pid
+                    + ": only heap files support optimistic transactions");
+        }
+        Page written = validator.written(tid, pid);
+        if (written != null) {
+            return written;
+        }
+        validator.read(tid, pid);
+        Page page = fetchPage(pid);
+        if (perm == Permissions.READ_ONLY) {
+            return committedImage(page);
+        }
+        Page image = committedImage(page);
+        Page copy = image instanceof HeapPage ? ((HeapPage) image).copy() : image;
+        validator.write(tid, copy);
+        return copy;
+    }
 
+    /* Whether page may differ from its before image */
+    private static boolean maybeChanged(Page page) {
+        return !(page instanceof HeapPage) || ((HeapPage) page).isChanged();
+    }
+
+    /* The before image of page, shared and not to be changed */
+    private static Page committedImage(Page page) {
+        if (page instanceof HeapPage) {
+            return ((HeapPage) page).getCommittedImage();
+        }
+        return page.getBeforeImage();
+    }
+
+    /* Return pid from the pool, reading it in if needed; the caller holds a lock on it */
+    private Page fetchPage(PageId pid) throws DbException {
         // Check if page is cached in buffer pool
-        if (pages.containsKey(pid)) {
-            return pages.get(pid);
+        Page cached = pages.get(pid);
+        if (cached != null) {
+            stats.recordHit(pid);
+            return cached;
+        }
+        stats.recordMiss(pid);
+
+        // Read-ahead may be loading it already
+        CountDownLatch loading = loadingAhead.get(pid);
+        if (loading != null) {
+            awaitLoad(loading);
+            cached = pages.get(pid);
+            if (cached != null) {
+                return cached;
+            }
         }
 
         DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
 
-        // Get Page
-        Page retrievedPage = dbFile.readPage(pid);
+        // Get Page; the disk read happens outside of any page table lock
+        Page retrievedPage = readPage(dbFile, pid);
+
+        // Another transaction may have loaded the page while we were
+        // reading; then there is nothing to make room for
+        Page resident = pages.get(pid);
+        if (resident != null) {
+            return resident;
+        }
+
+        // Make room first. Concurrent misses may each pass this check, so
+        // the pool can briefly hold a few pages over numPages.
+        makeRoom(pid);
+        resident = pages.putIfAbsent(retrievedPage);
+        return resident != null ? resident : retrievedPage;
+    }
+
+    /**
+     * Retrieve the specified page as {@link #getPage} does, and pin it: the
+     * page is not evicted until it is unpinned with {@link #unpinPage}, so
+     * that a caller working on it, e.g. an iterator positioned on it, can
+     * keep using it. Pins are counted, and every pin a transaction still
+     * holds is released when it completes. Pins follow the page id, not the
+     * Page object, and end if the page is discarded. Snapshot reads return
+     * versions that are not in the pool, and are not pinned; so do reads of
+     * optimistic transactions.
+     *
+     * @param tid  the ID of the transaction requesting the page
+     * @param pid  the ID of the requested page
+     * @param perm the requested permissions on the page
+     */
+    public Page getPinnedPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return pinned(tid, pid, perm, false);
+    }
+
+    /**
+     * Retrieve the specified page as {@link #getRecordPage} does, and pin it
+     * as {@link #getPinnedPage} does, e.g. for a scan that reads the records
+     * a statement changes.
+     *
+     * @param tid  the ID of the transaction requesting the page
+     * @param pid  the ID of the requested page
+     * @param perm the permissions the transaction will request on records
+     */
+    public Page getPinnedRecordPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return pinned(tid, pid, perm, true);
+    }
 
-        if (pages.size() < numPages) {
-            pages.put(pid, retrievedPage);
-            return retrievedPage;
+    /* Fetch pid with getRecordPage if records is true, otherwise getPage, and pin it */
+    private Page pinned(TransactionId tid, PageId pid, Permissions perm, boolean records)
+            throws TransactionAbortedException, DbException {
+        VersionStore mv = versions;
+        if (mv != null && mv.isSnapshot(tid)) {
+            return readSnapshot(mv, tid, pid, perm);
+        }
+        if (validator.isOptimistic(tid)) {
+            return readOptimistic(tid, pid, perm);
+        }
+        while (true) {
+            Page page = records ? getRecordPage(tid, pid, perm) : getPage(tid, pid, perm);
+            // counted before the page is pinned, so that a discardPage in
+            // between cannot leave a count for a pin it already removed
+            Map<PageId, Integer> pins = txnPins.computeIfAbsent(tid, k -> new ConcurrentHashMap<>());
+            pins.merge(pid, 1, Integer::sum);
+            if (pages.pin(page)) {
+                return page;
+            }
+            pins.computeIfPresent(pid, (k, n) -> n > 1 ? n - 1 : null);
+            // evicted before it could be pinned; fetch it again
+        }
+    }
+
+    /**
+     * Release one pin tid took on pid with {@link #getPinnedPage}. Does
+     * nothing if tid holds no pin on pid.
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        Map<PageId, Integer> pins = txnPins.get(tid);
+        if (pins == null) {
+            return;
+        }
+        Integer left = pins.computeIfPresent(pid, (k, n) -> n - 1);
+        if (left == null) {
+            return;
+        }
+        if (left == 0) {
+            pins.remove(pid);
+        }
+        pages.unpin(pid);
+    }
+
+    /** Return the number of pins on pid, over all transactions. */
+    public int getPinCount(PageId pid) {
+        return pages.pinCount(pid);
+    }
+
+    /**
+     * Read pid from the arena if it has a frame there, or from the
+     * compressed cache if it has an image there, and from dbFile otherwise.
+     * Pages read from the file are added to the arena, unless they belong to
+     * a file whose pages are larger than its frames.
+     */
+    private Page readPage(DbFile dbFile, PageId pid) {
+        if (arena != null) {
+            byte[] data = arena.read(pid);
+            if (data != null) {
+                return dbFile.decodePage(pid, data);
+            }
+        }
+        CompressedPageCache cache = compressedCache;
+        if (cache != null) {
+            byte[] data = cache.take(pid);
+            if (data != null) {
+                return dbFile.decodePage(pid, data);
+            }
+        }
+        long start = System.nanoTime();
+        Page page;
+        byte[] data = arena != null ? dbFile.readPageData(pid) : null;
+        if (data != null) {
+            page = dbFile.decodePage(pid, data);
         } else {
-            // Buffer pool full, evict or throw (not implemented yet)
-            // throw new DbException("buffer pool full");
-            evictPage();
-            pages.put(pid, retrievedPage);
-            return retrievedPage;
+            page = dbFile.readPage(pid);
+        }
+        stats.recordRead(pid, System.nanoTime() - start);
+        if (data != null && data.length <= arena.frameSize()) {
+            arena.write(pid, data);
+        }
+        return page;
+    }
+
+    /**
+     * Enable or disable read-ahead. When disabled, {@link #readAhead} does
+     * nothing.
+     */
+    public void setReadAhead(boolean enabled) {
+        readAheadEnabled = enabled;
+    }
+
+    /**
+     * Enable or disable record locking. When enabled, heap files insert and
+     * delete tuples under exclusive locks on their records and intention
+     * locks on their pages, so that transactions changing different tuples
+     * of a page do not wait for each other. Change it only while no
+     * transaction runs.
+     */
+    public void setRecordLocking(boolean enabled) {
+        recordLocking = enabled;
+    }
+
+    public boolean isRecordLocking() {
+        return recordLocking;
+    }
+
+    /**
+     * Enable or disable multi-version reads. When enabled, every commit
+     * keeps the versions of the pages it changes as they were before, for
+     * as long as a snapshot started before the commit runs, so that
+     * read-only transactions started with {@link #beginSnapshot} can read
+     * without locks. Change it only while no transaction runs.
+     */
+    public void setMultiVersion(boolean enabled) {
+        versions = enabled ? new VersionStore() : null;
+    }
+
+    public boolean isMultiVersion() {
+        return versions != null;
+    }
+
+    /**
+     * Start a read-only transaction that reads a snapshot of the database:
+     * every page it fetches is the version committed as of now, and no lock
+     * is taken or waited for. Its READ_WRITE requests fail with a
+     * DbException. The snapshot ends when the transaction completes.
+     *
+     * @throws IllegalStateException if multi-version reads are off
+     */
+    public void beginSnapshot(TransactionId tid) {
+        VersionStore mv = versions;
+        if (mv == null) {
+            throw new IllegalStateException("multi-version reads are off");
         }
+        mv.beginSnapshot(tid);
+    }
+
+    /** Return the number of page versions kept for snapshots, 0 if multi-version reads are off */
+    public int getVersionCount() {
+        VersionStore mv = versions;
+        return mv != null ? mv.size() : 0;
+    }
+
+    /**
+     * Start an optimistic transaction, which takes no locks: its reads
+     * record the versions of the pages they use, and its writes go to
+     * private copies of the pages, which only it sees. It must finish with
+     * {@link #commitOptimistic}, which validates it, or abort with
+     * transactionComplete. Suits workloads where transactions rarely use
+     * the same pages; under contention they abort often. Only heap files
+     * can be used: a page of any other file throws a DbException.
+     */
+    public void beginOptimistic(TransactionId tid) {
+        validator.begin(tid);
+    }
 
+    public boolean isOptimistic(TransactionId tid) {
+        return validator.isOptimistic(tid);
+    }
+
+    /**
+     * Validate and commit an optimistic transaction. Validation fails if
+     * another transaction committed a page tid read since tid read it, or
+     * holds a lock on a page tid wrote. Otherwise the private copies tid
+     * changed replace the pages in the pool, under exclusive locks, and are
+     * committed as {@link #transactionComplete} commits a locking
+     * transaction. Validation and commit are serialized with those of other
+     * optimistic transactions.
+     *
+     * @throws TransactionAbortedException if validation failed; tid has
+     *                                     been aborted
+     */
+    public void commitOptimistic(TransactionId tid) throws TransactionAbortedException {
+        synchronized (validator) {
+            List<Page> changed = new ArrayList<>();
+            boolean valid = true;
+            for (Page page : validator.writes(tid)) {
+                if (page.isDirty() == null) {
+                    continue; // fetched READ_WRITE but not changed
+                }
+                // lock first, so that no other commit of the page slips in after validation
+                if (!lockManager.tryAcquireLock(tid, page.getId(), LockManager.LockType.EXCLUSIVE)) {
+                    valid = false;
+                    break;
+                }
+                changed.add(page);
+            }
+            valid = valid && validator.validate(tid);
+            validator.end(tid);
+            if (!valid) {
+                lockManager.releaseAllLocks(tid);
+                throw new TransactionAbortedException();
+            }
+            for (Page page : changed) {
+                recordWrite(tid, page.getId());
+                pages.put(page);
+                pages.hold(page.getId()); // NO STEAL
+            }
+            transactionComplete(tid, true);
+        }
+    }
+
+    /**
+     * Choose how getPage avoids or resolves deadlocks between transactions,
+     * see {@link LockManager.DeadlockPolicy}. The default detects them.
+     * Change it only while no transaction waits for a lock.
+     */
+    public void setDeadlockPolicy(LockManager.DeadlockPolicy policy) {
+        lockManager.setDeadlockPolicy(policy);
+    }
+
+    public LockManager.DeadlockPolicy getDeadlockPolicy() {
+        return lockManager.getDeadlockPolicy();
+    }
+
+    /**
+     * Set how many page locks a transaction may hold on one table before
+     * they are escalated to a single table lock, see {@link LockManager}.
+     * 0 disables escalation.
+     */
+    public void setLockEscalationThreshold(int threshold) {
+        lockManager.setEscalationThreshold(threshold);
+    }
+
+    public int getLockEscalationThreshold() {
+        return lockManager.getEscalationThreshold();
+    }
+
+    /**
+     * Lock a whole table for tid, shared for READ_ONLY and exclusive for
+     * READ_WRITE, e.g. before scanning it. Pages of the table are then
+     * fetched without page locks. May block like {@link #getPage}. Does
+     * nothing for a transaction that reads a snapshot or is optimistic.
+     *
+     * @param tid     the ID of the transaction requesting the lock
+     * @param tableId the ID of the table to lock
+     * @param perm    the requested permissions on the table
+     */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm)
+            throws TransactionAbortedException {
+        VersionStore mv = versions;
+        if ((mv != null && mv.isSnapshot(tid)) || validator.isOptimistic(tid)) {
+            return; // snapshot and optimistic reads need no locks
+        }
+        lockManager.acquireTableLock(tid, tableId,
+                perm == Permissions.READ_ONLY ? LockManager.LockType.SHARED : LockManager.LockType.EXCLUSIVE);
+    }
+
+    /**
+     * Take an intention lock on a whole table for tid, INTENTION_SHARED for
+     * READ_ONLY and INTENTION_EXCLUSIVE for READ_WRITE, e.g. before a scan
+     * whose tuples a statement changes. Unlike {@link #lockTable} this keeps
+     * no other writer of the table out; pages and records are locked as
+     * they are used. May block like {@link #getPage}. Does nothing for a
+     * transaction that reads a snapshot or is optimistic.
+     *
+     * @param tid     the ID of the transaction requesting the lock
+     * @param tableId the ID of the table to lock
+     * @param perm    the permissions tid will request on parts of the table
+     */
+    public void lockTableIntention(TransactionId tid, int tableId, Permissions perm)
+            throws TransactionAbortedException {
+        VersionStore mv = versions;
+        if ((mv != null && mv.isSnapshot(tid)) || validator.isOptimistic(tid)) {
+            return;
+        }
+        lockManager.acquireTableLock(tid, tableId, perm == Permissions.READ_ONLY
+                ? LockManager.LockType.INTENTION_SHARED : LockManager.LockType.INTENTION_EXCLUSIVE);
+    }
+
+    /**
+     * Load pids into the pool in the background, for a scan that is about
+     * to read them. The pages are loaded in parallel. Only as many pages as
+     * fit in a quarter of the pool are loaded, so that read-ahead cannot
+     * flush the pages the scan is still using.
+     * <p>
+     * Pages are loaded without holding a lock for any transaction. Each page
+     * is locked shared while it is read, with a lock that never waits: pages
+     * that are locked exclusively are skipped, as are all pages once the
+     * pool is too dirty to make room.
+     *
+     * @param pids the pages to load, in the order the scan will read them
+     */
+    public void readAhead(List<PageId> pids) {
+        int n = Math.min(pids.size(), numPages / 4);
+        if (!readAheadEnabled) {
+            return;
+        }
+        for (PageId pid : pids.subList(0, n)) {
+            readAheadExecutor.execute(() -> loadAhead(pid, 1, page -> null));
+        }
+    }
+
+    /**
+     * Load a chain of pages into the pool in the background, for a scan
+     * that is about to read them, e.g. the leaves of a B+ tree. Starting with
+     * first, up to count pages are loaded one after the other; next maps
+     * each page to the id of the page after it, or null at the end of the
+     * chain. Limits and locking are as for {@link #readAhead(List)}; a page
+     * that cannot be loaded ends the chain.
+     *
+     * @param first the first page to load
+     * @param count the number of pages to load
+     * @param next  maps a page to the page after it, or null
+     */
+    public void readAhead(PageId first, int count, Function<Page, PageId> next) {
+        int n = Math.min(count, numPages / 4);
+        if (!readAheadEnabled || first == null || n <= 0) {
+            return;
+        }
+        readAheadExecutor.execute(() -> loadAhead(first, n, next));
+    }
+
+    private void loadAhead(PageId first, int count, Function<Page, PageId> next) {
+        TransactionId tid = new TransactionId();
+        PageId pid = first;
+        try {
+            for (int i = 0; i < count && pid != null; i++) {
+                PageId locked = pid;
+                if (!lockManager.tryAcquireLock(tid, locked, LockManager.LockType.SHARED)) {
+                    return;
+                }
+                try {
+                    Page page = pages.peek(pid);
+                    if (page == null) {
+                        page = loadAheadPage(pid);
+                        if (page == null) {
+                            return;
+                        }
+                    }
+                    // follow the link while the page is still locked
+                    pid = next.apply(page);
+                } finally {
+                    lockManager.releaseAllLocks(tid); // and the intention lock on the table
+                }
+            }
+        } catch (DbException | RuntimeException e) {
+            // nothing to do: the scan will read the page itself
+        }
+    }
+
+    /**
+     * Read pid, which the caller has locked, into the pool. Returns null if
+     * another read-ahead is already loading it.
+     */
+    private Page loadAheadPage(PageId pid) throws DbException {
+        CountDownLatch loaded = new CountDownLatch(1);
+        if (loadingAhead.putIfAbsent(pid, loaded) != null) {
+            return null;
+        }
+        try {
+            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            Page page = readPage(dbFile, pid);
+            Page resident = pages.peek(pid);
+            if (resident != null) {
+                return resident;
+            }
+            makeRoom(pid);
+            resident = pages.putIfAbsent(page);
+            return resident != null ? resident : page;
+        } finally {
+            loadingAhead.remove(pid);
+            loaded.countDown();
+        }
+    }
+
+    /**
+     * Write the ids of the pages in this pool to file, hottest first as
+     * ordered by the replacement policy, so that {@link #warmUp} can load
+     * them again after a restart. The file is replaced atomically.
+     *
+     * @return the number of page ids written
+     */
+    public int saveHotPages(File file) throws IOException {
+        Set<PageId> hot = new LinkedHashSet<>();
+        for (PageId pid : pages.policy().hotPages()) {
+            if (pages.peek(pid) != null) {
+                hot.add(pid);
+            }
+        }
+        for (Page page : pages.snapshot()) {
+            hot.add(page.getId());
+        }
+
+        // same layout as page ids in the log: id class name, then serialize()
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(hot.size());
+            for (PageId pid : hot) {
+                int[] idInfo = pid.serialize();
+                out.writeUTF(pid.getClass().getName());
+                out.writeInt(idInfo.length);
+                for (int i : idInfo) {
+                    out.writeInt(i);
+                }
+            }
+        }
+        java.nio.file.Files.move(tmp.toPath(), file.toPath(),
+                java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+                java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+        return hot.size();
+    }
+
+    /**
+     * Load the pages listed by {@link #saveHotPages} in the background, so
+     * that the pool is warm before queries need the pages. Call this once the
+     * catalog is loaded. The hottest pages that fit into the pool are read in
+     * file order, by table and page number; pages of unknown tables, pages
+     * past the end of their file and pages locked by a transaction are
+     * skipped, and loading stops once the pool is full. A missing or
+     * unreadable file loads nothing.
+     *
+     * @return the loader thread, e.g. to wait for it to finish
+     */
+    public Thread warmUp(File file) {
+        List<PageId> toLoad = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            int count = in.readInt();
+            for (int n = 0; n < count && toLoad.size() < numPages; n++) {
+                String idClassName = in.readUTF();
+                Object[] idArgs = new Object[in.readInt()];
+                for (int i = 0; i < idArgs.length; i++) {
+                    idArgs[i] = in.readInt();
+                }
+                PageId pid = (PageId) Class.forName(idClassName).getDeclaredConstructors()[0]
+                        .newInstance(idArgs);
+                if (isKnownPage(pid)) {
+                    toLoad.add(pid);
+                }
+            }
+        } catch (IOException | ReflectiveOperationException | RuntimeException e) {
+            // start with what was read, possibly nothing
+        }
+        toLoad.sort(PAGE_ORDER);
+
+        Thread loader = new Thread(() -> {
+            TransactionId tid = new TransactionId();
+            for (PageId pid : toLoad) {
+                if (pages.size() >= numPages) {
+                    return;
+                }
+                if (!lockManager.tryAcquireLock(tid, pid, LockManager.LockType.SHARED)) {
+                    continue;
+                }
+                try {
+                    if (pages.peek(pid) == null) {
+                        loadAheadPage(pid);
+                    }
+                } catch (DbException | RuntimeException e) {
+                    // e.g. past the end of its file now; a query reads it if needed
+                } finally {
+                    lockManager.releaseAllLocks(tid);
+                }
+            }
+        }, "simpledb-warm-up");
+        loader.setDaemon(true);
+        loader.start();
+        return loader;
+    }
+
+    private static boolean isKnownPage(PageId pid) {
+        try {
+            Database.getCatalog().getDatabaseFile(pid.getTableId());
+            return true;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    /** Remember that tid may have changed pid. */
+    private void recordWrite(TransactionId tid, PageId pid) {
+        txnPages.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+    }
+
+    private static void awaitLoad(CountDownLatch loading) {
+        try {
+            loading.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -152,6 +1010,17 @@ public class BufferPool {
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * Only the pages the transaction fetched READ_WRITE or changed through
+     * {@link #insertTuple}/{@link #deleteTuple} are visited, so the cost does
+     * not depend on the size of the pool. A transaction must not change a
+     * page it fetched READ_ONLY.
+     * <p>
+     * With multi-version reads on, a commit keeps the last committed version
+     * of each page before its before image is set to the new one.
+     * <p>
+     * Optimistic transactions commit with {@link #commitOptimistic}; here
+     * they can only abort, which drops their private copies.
      *
      * @param tid    the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
@@ -159,35 +1028,196 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
-        LinkedHashMap<PageId, Page> toAdd = new LinkedHashMap<>();
-
-        Set<Map.Entry<PageId, Page>> entrySet = new HashSet<>(pages.entrySet()); // Make a copy first to prevent ConcurrentModificationException
-        for (Map.Entry<PageId, Page> eachEntry : entrySet) {
-
-            PageId pid = eachEntry.getKey();
-            Page page = eachEntry.getValue();
-
-            if (holdsLock(tid, pid) && page.isDirty() != null) {
-                if (commit) {
-                    try {
-                        flushPage(pid);
-                    } catch (IOException err) {
-                        err.printStackTrace();
+        if (validator.isOptimistic(tid)) {
+            if (commit) {
+                throw new IllegalStateException("optimistic transaction " + tid + " commits with commitOptimistic");
+            }
+            validator.end(tid);
+            return;
+        }
+        PageFlusher writeBehind = flusher;
+        Map<PageId, Integer> pins = txnPins.remove(tid);
+        if (pins != null) {
+            for (Map.Entry<PageId, Integer> entry : pins.entrySet()) {
+                for (int i = 0; i < entry.getValue(); i++) {
+                    pages.unpin(entry.getKey());
+                }
+            }
+        }
+        Set<PageId> touched = txnPages.remove(tid);
+        List<Page> toFlush = new ArrayList<>();
+        VersionStore mv = versions;
+        if (mv != null) {
+            mv.endSnapshot(tid);
+            if (!commit || touched == null) {
+                mv = null;
+            }
+        }
+        long ts = mv != null ? mv.beginCommit() : 0;
+        List<Page> versioned = new ArrayList<>();
+        List<PageId> committed = new ArrayList<>(); // pages whose committed version changes
+        if (touched != null) {
+            for (PageId pid : touched) {
+                // a page that was evicted was clean, so there is nothing to do
+                Page page = pages.peek(pid);
+                if (page == null) {
+                    continue;
+                }
+                // record writers change heap pages under the page latch, so
+                // checking for their changes and restoring the page or
+                // setting its before image must happen under it as well
+                synchronized (page) {
+                    if (page instanceof HeapPage) {
+                        HeapPage heapPage = (HeapPage) page;
+                        if (heapPage.hasRecordChanges(tid)) {
+                            completeRecords(tid, heapPage, commit, mv, ts);
+                            if (commit) {
+                                committed.add(pid);
+                            }
+                            continue;
+                        }
+                        if (heapPage.recordWriter() != null) {
+                            continue; // only other running transactions changed it
+                        }
+                    }
+                    TransactionId dirtier = page.isDirty();
+                    if (commit) {
+                        if (tid.equals(dirtier)) {
+                            committed.add(pid);
+                            if (mv != null) {
+                                mv.keep(committedImage(page));
+                                versioned.add(page);
+                            }
+                            if (writeBehind != null) {
+                                try {
+                                    retainCommittedPage(tid, page);
+                                } catch (IOException err) {
+                                    err.printStackTrace();
+                                }
+                            } else {
+                                toFlush.add(page);
+                            }
+                        } else if (dirtier == null) {
+                            // changed in place without being marked dirty, or
+                            // flushed early by flushPages
+                            if (maybeChanged(page)) {
+                                committed.add(pid);
+                                if (mv != null) {
+                                    mv.keep(committedImage(page));
+                                    versioned.add(page);
+                                }
+                            }
+                            page.setBeforeImage();
+                        }
+                    } else if (dirtier == null || tid.equals(dirtier)
+                            || committedDirty.containsKey(pid)) {
+                        // a clean page may have been changed in place before it
+                        // was marked dirty, so it is restored too
+                        restorePage(page);
                     }
-                } else {
-                    DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-                    Page retrievedPage = dbFile.readPage(pid);
-
-                    toAdd.put(pid, retrievedPage);
                 }
             }
+        }
+        if (!toFlush.isEmpty()) {
+            try {
+                flushPages(toFlush);
+            } catch (IOException err) {
+                err.printStackTrace();
+            }
+            for (Page page : toFlush) {
+                page.setBeforeImage();
+            }
+        }
+        if (mv != null) {
+            for (Page page : versioned) {
+                mv.add(ts, committedImage(page));
+            }
+            mv.endCommit(ts, touched);
+        }
+        validator.committed(committed);
+
+        lockManager.releaseAllLocks(tid);
+        if (writeBehind != null && commit) {
+            writeBehind.poke(committedDirtyRatio());
+        }
+    }
 
+    /**
+     * Commit or roll back the record changes tid made to page, which other
+     * running transactions may have changed too. A commit writes the page
+     * without their changes, so nothing uncommitted reaches disk; the page
+     * stays dirty while any of them runs. The write happens under the page
+     * latch, so that commits of the page reach disk in order.
+     */
+    private void completeRecords(TransactionId tid, HeapPage page, boolean commit, VersionStore mv, long ts) {
+        PageId pid = page.getId();
+        TransactionId writer;
+        synchronized (page) {
+            if (commit) {
+                if (mv != null) {
+                    mv.keep(page.getCommittedImage());
+                }
+                HeapPage committed = page.commitRecords(tid);
+                if (mv != null) {
+                    mv.add(ts, committed);
+                }
+                try {
+                    long start = System.nanoTime();
+                    Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(committed);
+                    stats.recordWrite(pid.getTableId(), 1, System.nanoTime() - start);
+                } catch (IOException err) {
+                    err.printStackTrace();
+                }
+                committedDirty.remove(pid);
+                if (arena != null) {
+                    arena.update(pid, committed.getPageData());
+                }
+            } else {
+                page.rollbackRecords(tid);
+            }
+            writer = page.recordWriter();
+            if (writer != null) {
+                page.markDirty(true, writer);
+            } else {
+                // write-behind: the disk image may be older than the last commit
+                TransactionId committer = committedDirty.get(pid);
+                page.markDirty(committer != null, committer);
+            }
         }
+        if (writer == null) {
+            pages.release(pid);
+        }
+    }
+
+    /**
+     * Log the changes tid made to page and keep it in the pool, dirty, for
+     * the flusher to write. The log records are not forced here: the log is
+     * forced by the commit record, and by the flusher before it writes.
+     */
+    private void retainCommittedPage(TransactionId tid, Page page) throws IOException {
+        Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
+        page.setBeforeImage();
+        committedDirty.put(page.getId(), tid);
+        pages.release(page.getId());
+    }
 
-        for (Map.Entry<PageId, Page> eachAdd : toAdd.entrySet()){
-            pages.put(eachAdd.getKey(), eachAdd.getValue());
+    /**
+     * Return page, which an aborting transaction changed, to its last
+     * committed version: the before image, which is set again at every
+     * commit. Pages that can undo their changes in place do so; other pages
+     * are rebuilt from the before image. Either way no I/O is needed.
+     */
+    private void restorePage(Page page) {
+        PageId pid = page.getId();
+        Page restored = page;
+        if (!page.rollback()) {
+            restored = page.getBeforeImage();
+            pages.put(restored);
         }
-        lockManager.releaseAllLocks(tid);
+        // write-behind: the disk image is older than the last commit
+        TransactionId committer = committedDirty.get(pid);
+        restored.markDirty(committer != null, committer);
+        pages.release(pid);
     }
 
     /**
@@ -214,9 +1244,16 @@ public class BufferPool {
         // Insert & get list of dirty pages
         List<Page> dirtyPages = dbFile.insertTuple(tid, t);
 
+        boolean optimistic = validator.isOptimistic(tid);
         for (Page eachPage : dirtyPages) {
             eachPage.markDirty(true, tid);
-            pages.put(eachPage.getId(), eachPage); // cache
+            if (optimistic) {
+                validator.write(tid, eachPage); // stays private until commitOptimistic
+                continue;
+            }
+            recordWrite(tid, eachPage.getId());
+            pages.put(eachPage); // cache
+            pages.hold(eachPage.getId()); // NO STEAL
         }
     }
 
@@ -242,9 +1279,16 @@ public class BufferPool {
         // Delete & get list of dirty pages
         List<Page> dirtyPages = dbFile.deleteTuple(tid, t);
 
+        boolean optimistic = validator.isOptimistic(tid);
         for (Page eachPage : dirtyPages) {
             eachPage.markDirty(true, tid);
-            pages.put(eachPage.getId(), eachPage); // cache
+            if (optimistic) {
+                validator.write(tid, eachPage); // stays private until commitOptimistic
+                continue;
+            }
+            recordWrite(tid, eachPage.getId());
+            pages.put(eachPage); // cache
+            pages.hold(eachPage.getId()); // NO STEAL
         }
     }
 
@@ -254,10 +1298,13 @@ public class BufferPool {
      * break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
-        List<PageId> pageIds = new ArrayList<>(pages.keySet());
-        for (PageId eachPid : pageIds) {
-            flushPage(eachPid);
+        List<Page> dirty = new ArrayList<>();
+        for (Page eachPage : pages.snapshot()) {
+            if (eachPage.isDirty() != null) {
+                dirty.add(eachPage);
+            }
         }
+        flushPages(dirty);
     }
 
     /**
@@ -270,20 +1317,49 @@ public class BufferPool {
      * are removed from the cache so they can be reused safely
      */
     public synchronized void discardPage(PageId pid) {
-        pages.remove(pid);
+        if (pages.remove(pid) != null) {
+            stats.recordDiscard(pid);
+        }
+        // the pins went with the page; unpinPage must not release pins
+        // taken on a copy read in later
+        for (Map<PageId, Integer> pins : txnPins.values()) {
+            pins.remove(pid);
+        }
+        committedDirty.remove(pid);
+        if (arena != null) {
+            arena.remove(pid);
+        }
+        CompressedPageCache cache = compressedCache;
+        if (cache != null) {
+            cache.remove(pid);
+        }
     }
 
     /**
-     * Flushes a certain page to disk
-     * 
-     * @param pid an ID indicating the page to flush
+     * Flushes dirty, resident pages to disk. The pages of each file are
+     * handed to it in one {@link DbFile#writePages} call, so that it can
+     * write neighbouring pages together.
+     *
+     * @param batch the pages to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
-        Page page = pages.get(pid);
-        if (page != null && page.isDirty() != null) {
-            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            file.writePage(page);
+    private synchronized void flushPages(List<Page> batch) throws IOException {
+        Map<Integer, List<Page>> byFile = new HashMap<>();
+        for (Page page : batch) {
+            byFile.computeIfAbsent(page.getId().getTableId(), k -> new ArrayList<>()).add(page);
+        }
+        for (Map.Entry<Integer, List<Page>> entry : byFile.entrySet()) {
+            long start = System.nanoTime();
+            Database.getCatalog().getDatabaseFile(entry.getKey()).writePages(entry.getValue());
+            stats.recordWrite(entry.getKey(), entry.getValue().size(), System.nanoTime() - start);
+        }
+        for (Page page : batch) {
+            PageId pid = page.getId();
             page.markDirty(false, null);
+            committedDirty.remove(pid);
+            if (arena != null) {
+                arena.update(pid, page.getPageData());
+            }
+            pages.release(pid);
         }
     }
 
@@ -293,38 +1369,330 @@ public class BufferPool {
     public synchronized void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        for (Map.Entry<PageId, Page> eachEntry : pages.entrySet()) {
-            PageId pid = eachEntry.getKey();
-            Page page = eachEntry.getValue();
+        Set<PageId> touched = txnPages.get(tid);
+        if (touched == null) {
+            return;
+        }
+        List<Page> dirty = new ArrayList<>();
+        for (PageId pid : touched) {
+            Page page = pages.peek(pid);
+            if (page != null && tid.equals(page.isDirty())) {
+                dirty.add(page);
+            }
+        }
+        flushPages(dirty);
+    }
 
-            if (page.isDirty() != null && page.isDirty().equals(tid)) {
-                flushPage(pid);
+    /**
+     * Make room for pid, which is about to be added: if its table is at its
+     * maximum share, evict one of the table's own pages if one is clean, and
+     * evict until the pool is below numPages.
+     */
+    private void makeRoom(PageId pid) throws DbException {
+        int tableId = pid.getTableId();
+        TableQuota quota = quotas.get(tableId);
+        if (quota != null && pages.size() < numPages && pages.tableSize(tableId) >= quota.maxPages) {
+            Page victim = pages.evict(page -> page.isDirty() == null
+                    && page.getId().getTableId() == tableId);
+            if (victim != null) {
+                evicted(victim);
             }
         }
+        while (pages.size() >= numPages) {
+            evictPage(pid);
+        }
+    }
+
+    private void evictPage() throws DbException {
+        evictPage(null);
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     *
+     * <p>
+     * Not synchronized on the pool, so that misses on different shards
+     * evict at once: the page table checks the victim again under its
+     * shard's lock, and flushCommittedPages allows concurrent callers.
+     *
+     * @param incoming the page the room is made for, or null
      */
-    private synchronized void evictPage() throws DbException {
-        Set<Map.Entry<PageId, Page>> entrySet = pages.entrySet();
-        for (Map.Entry<PageId, Page> eachEntry : entrySet) {
+    private void evictPage(PageId incoming) throws DbException {
+        // NO STEAL: only clean pages are candidates, so nothing needs flushing;
+        // the page table skips pinned pages
+        Page victim = evictClean(incoming);
+        if (victim == null && !committedDirty.isEmpty()) {
+            // write-behind has not kept up; write some committed pages now
+            try {
+                flushCommittedPages(PageFlusher.TRICKLE_PAGES);
+            } catch (IOException e) {
+                throw new DbException("Unable to flush committed pages: " + e.getMessage());
+            }
+            victim = evictClean(incoming);
+        }
+        if (victim == null) {
+            stats.recordAllDirty();
+            throw new DbException("All pages are dirty or pinned, unable to evict.");
+        }
+        evicted(victim);
+    }
 
-            PageId pid = eachEntry.getKey();
-            Page page = eachEntry.getValue();
+    /** Count the eviction of a clean page and keep its image in the compressed cache. */
+    private void evicted(Page victim) {
+        stats.recordEviction(victim.getId());
+        CompressedPageCache cache = compressedCache;
+        if (cache != null) {
+            cache.put(victim.getId(), victim.getPageData());
+        }
+    }
 
-            if (page.isDirty() == null) {
-                try {
-                    flushPage(pid);
-                } catch (IOException err) {
-                    throw new DbException("Unable to flush page:" + err.getMessage());
+    /**
+     * Keep the images of clean pages evicted from this pool in cache, and
+     * serve misses from there before reading the file; see
+     * {@link CompressedPageCache}. The cache must not be shared with another
+     * pool.
+     *
+     * @param cache the cache, or null to stop using one
+     */
+    public void setCompressedCache(CompressedPageCache cache) {
+        compressedCache = cache;
+    }
+
+    /** Return the compressed cache of this pool, or null if it has none. */
+    public CompressedPageCache getCompressedCache() {
+        return compressedCache;
+    }
+
+    /**
+     * Evict a clean page, within the table quotas if any clean page allows
+     * it. Quotas never fail a transaction: if they rule out every clean
+     * page, any clean page is evicted.
+     */
+    private Page evictClean(PageId incoming) {
+        Predicate<Page> clean = page -> page.isDirty() == null;
+        if (!quotas.isEmpty()) {
+            Page victim = pages.evict(clean.and(page -> quotaAllows(page.getId(), incoming)));
+            if (victim != null) {
+                return victim;
+            }
+        }
+        return pages.evict(clean);
+    }
+
+    /**
+     * Return true if the quotas let victim be evicted to make room for
+     * incoming: a table at its maximum share replaces its own pages only,
+     * and no table is taken below its minimum share for another table.
+     */
+    private boolean quotaAllows(PageId victim, PageId incoming) {
+        int tableId = victim.getTableId();
+        if (incoming != null) {
+            TableQuota quota = quotas.get(incoming.getTableId());
+            if (quota != null && pages.tableSize(incoming.getTableId()) >= quota.maxPages) {
+                return tableId == incoming.getTableId();
+            }
+            if (tableId == incoming.getTableId()) {
+                return true;
+            }
+        }
+        TableQuota quota = quotas.get(tableId);
+        return quota == null || pages.tableSize(tableId) > quota.minPages;
+    }
+
+    /**
+     * Give a table a share of this pool. Pages of other tables are evicted
+     * before the table holds fewer than minPages, and once it holds
+     * maxPages, new pages of the table replace its own. The minimums of all
+     * tables must fit into the pool. Lookups are unchanged, and quotas are
+     * kept as far as clean pages allow: when a quota would leave nothing to
+     * evict, e.g. because the table's pages are dirty, it is overridden
+     * rather than failing a transaction.
+     *
+     * @param tableId  the table
+     * @param minPages pages the table keeps under pressure from other tables
+     * @param maxPages pages the table may hold at most
+     */
+    public void setTableQuota(int tableId, int minPages, int maxPages) {
+        if (minPages < 0 || maxPages < Math.max(minPages, 1)) {
+            throw new IllegalArgumentException("invalid quota: min " + minPages + ", max " + maxPages);
+        }
+        synchronized (quotas) {
+            int reserved = minPages;
+            for (Map.Entry<Integer, TableQuota> entry : quotas.entrySet()) {
+                if (entry.getKey() != tableId) {
+                    reserved += entry.getValue().minPages;
+                }
+            }
+            if (reserved > numPages) {
+                throw new IllegalArgumentException("minimum shares of " + reserved
+                        + " pages do not fit into " + numPages + " pages");
+            }
+            quotas.put(tableId, new TableQuota(minPages, maxPages));
+        }
+    }
+
+    /** Remove the share given to a table with {@link #setTableQuota}. */
+    public void clearTableQuota(int tableId) {
+        quotas.remove(tableId);
+    }
+
+    /** Return the number of pages of the given table in this pool. */
+    public int getResidentPages(int tableId) {
+        return pages.tableSize(tableId);
+    }
+
+    /**
+     * Switch this pool to write-behind mode. Committing no longer forces a
+     * transaction's dirty pages to disk: their changes are written to the
+     * log, and a background thread writes the pages out in page-number order.
+     * The flusher works harder once more than highWater of the pool is dirty
+     * with committed data.
+     * <p>
+     * Durability of committed but unflushed pages then rests on the log.
+     *
+     * @param highWater share of the pool, between 0 and 1, above which the
+     *                  flusher writes until half that share is left
+     */
+    public void startWriteBehind(double highWater) {
+        startWriteBehind(highWater, DEFAULT_FLUSH_INTERVAL_MS);
+    }
+
+    /**
+     * Switch this pool to write-behind mode, with the flusher running every
+     * intervalMs milliseconds.
+     *
+     * @see #startWriteBehind(double)
+     */
+    public synchronized void startWriteBehind(double highWater, long intervalMs) {
+        if (flusher != null) {
+            throw new IllegalStateException("write-behind is already running");
+        }
+        flusher = new PageFlusher(this, highWater, intervalMs);
+        flusher.start();
+    }
+
+    /**
+     * Stop the flusher and return to forcing pages at commit. Committed pages
+     * still in the pool are written out, except those another transaction
+     * has dirtied since; they are written when that transaction commits.
+     */
+    public void stopWriteBehind() throws IOException {
+        PageFlusher stopping;
+        synchronized (this) {
+            stopping = flusher;
+            flusher = null;
+        }
+        if (stopping != null) {
+            stopping.stop();
+        }
+        while (flushCommittedPages(Integer.MAX_VALUE) > 0) {
+            // repeat until only locked pages are left
+        }
+    }
+
+    /**
+     * Stop the background threads of this pool before it is dropped, e.g.
+     * by {@link Database#resetBufferPool}: the flusher is stopped and the
+     * committed pages it had left are written out, and read-ahead is shut
+     * down. The pool can still be used, but write-behind is off and no page
+     * is read ahead.
+     */
+    public void close() {
+        try {
+            stopWriteBehind();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        readAheadExecutor.shutdownNow();
+    }
+
+    /** Return the maximum number of pages in this pool. */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Change the maximum number of pages in this pool, keeping the pages it
+     * holds. Growing takes effect at once. Shrinking evicts pages as the
+     * replacement policy chooses until the pool fits; cached pages, locks
+     * and running transactions are otherwise unaffected. If dirty or pinned
+     * pages keep the pool from fitting, the new capacity still holds: a
+     * DbException is thrown, and later calls to getPage keep evicting.
+     *
+     * @param numPages the new maximum number of pages, at least 1
+     * @throws DbException if the pool could not be shrunk to numPages
+     */
+    public synchronized void resize(int numPages) throws DbException {
+        if (numPages < 1) {
+            throw new IllegalArgumentException("buffer pool needs at least one page: " + numPages);
+        }
+        this.numPages = numPages;
+        pages.policy().setCapacity(numPages);
+        while (pages.size() > numPages) {
+            evictPage();
+        }
+    }
+
+    /** Return true if this pool is in write-behind mode. */
+    public boolean isWriteBehind() {
+        return flusher != null;
+    }
+
+    /** Return the share of the pool holding committed but unflushed pages. */
+    public double committedDirtyRatio() {
+        return (double) committedDirty.size() / numPages;
+    }
+
+    /**
+     * Write up to max committed pages to disk in page-number order. Pages
+     * that are locked by a transaction, or were dirtied again since their
+     * commit, are skipped. The log is forced first, so that no page reaches
+     * disk before the records describing it.
+     *
+     * @return the number of pages written
+     */
+    int flushCommittedPages(int max) throws IOException {
+        if (committedDirty.isEmpty()) {
+            return 0;
+        }
+        List<PageId> batch = new ArrayList<>(committedDirty.keySet());
+        batch.sort(PAGE_ORDER);
+        Database.getLogFile().force();
+
+        // the shared locks keep writers off the pages until they are written;
+        // callers may flush at once, so each call locks as its own transaction
+        TransactionId tid = new TransactionId();
+        List<Page> flushing = new ArrayList<>();
+        try {
+            for (PageId pid : batch) {
+                if (flushing.size() == max) {
+                    break;
+                }
+                // never waits, so the flusher cannot join a deadlock
+                if (!lockManager.tryAcquireLock(tid, pid, LockManager.LockType.SHARED)) {
+                    continue;
+                }
+                Page page = committedPage(pid);
+                if (page != null) {
+                    flushing.add(page);
                 }
-                discardPage(pid);
-                return;
             }
+            flushPages(flushing);
+        } finally {
+            lockManager.releaseAllLocks(tid);
+        }
+        return flushing.size();
+    }
+
+    /** Return pid if it is resident and still holds only committed changes. */
+    private synchronized Page committedPage(PageId pid) {
+        TransactionId committer = committedDirty.get(pid);
+        Page page = pages.peek(pid);
+        if (committer == null || page == null || !committer.equals(page.isDirty())) {
+            return null;
         }
-        throw new DbException("All pages are dirty, unable to evict.");
+        return page;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,57 @@
+package simpledb.storage;
+
+import java.util.Map;
+
+/**
+ * JMX view of a {@link BufferPool} and its {@link BufferPoolStats}.
+ * {@link simpledb.common.Database} registers the view of its buffer pool as
+ * {@value simpledb.common.Database#BUFFER_POOL_MBEAN_NAME}. Latencies are in
+ * microseconds; percentiles are upper bounds, see {@link LatencyHistogram}.
+ */
+public interface BufferPoolMXBean {
+
+    /** Maximum number of pages in the pool. */
+    int getCapacity();
+
+    /**
+     * Resize the pool, see {@link BufferPool#resize}. If dirty or pinned
+     * pages keep it from shrinking, it keeps evicting as it is used.
+     */
+    void setCapacity(int capacity);
+
+    /** Number of pages in the pool now. */
+    int getResidentPages();
+
+    long getHits();
+
+    long getMisses();
+
+    double getHitRatio();
+
+    long getPagesRead();
+
+    long getPagesWritten();
+
+    long getEvictions();
+
+    long getDiscards();
+
+    long getAllDirtyFailures();
+
+    double getReadLatencyMeanMicros();
+
+    long getReadLatencyP99Micros();
+
+    double getWriteLatencyMeanMicros();
+
+    long getWriteLatencyP99Micros();
+
+    /** Share of the pool dirty with committed, unflushed pages in write-behind mode. */
+    double getCommittedDirtyRatio();
+
+    /** Counters per table id. */
+    Map<Integer, BufferPoolStats.PageCounters> getTables();
+
+    /** Zero all counters. */
+    void resetStats();
+}
@@ -0,0 +1,210 @@
+package simpledb.storage;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters kept by a {@link BufferPool}, for the whole pool and per table:
+ * getPage hits and misses, pages read from and written to files, evictions
+ * and discards. The pool also counts evictions that failed because every
+ * page was dirty or pinned, and keeps histograms of the time taken to read
+ * a page from its file and to write a batch of pages to a file.
+ * <p>
+ * {@link BufferPool#getStats} returns live counters; {@link #snapshot}
+ * copies them, e.g. to compare two points in time. The counters are
+ * LongAdders, so that threads counting hits at once do not contend; a
+ * getter sums one counter at the time it is called.
+ *
+ * @Threadsafe
+ */
+public class BufferPoolStats {
+
+    /**
+     * Page counters of a pool or a table.
+     *
+     * @Threadsafe
+     */
+    public static class PageCounters {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder pagesRead = new LongAdder();
+        private final LongAdder pagesWritten = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private final LongAdder discards = new LongAdder();
+
+        /** getPage calls that found the page in the pool. */
+        public long getHits() {
+            return hits.sum();
+        }
+
+        /** getPage calls that did not find the page in the pool. */
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        /** Pages read from files, by getPage or by read-ahead. */
+        public long getPagesRead() {
+            return pagesRead.sum();
+        }
+
+        /** Pages written to files. */
+        public long getPagesWritten() {
+            return pagesWritten.sum();
+        }
+
+        /** Pages evicted to make room. */
+        public long getEvictions() {
+            return evictions.sum();
+        }
+
+        /** Pages removed with discardPage. */
+        public long getDiscards() {
+            return discards.sum();
+        }
+
+        /** Return hits / (hits + misses), or 0 if there were no getPage calls. */
+        public double getHitRatio() {
+            long h = hits.sum();
+            long total = h + misses.sum();
+            return total == 0 ? 0 : (double) h / total;
+        }
+
+        PageCounters copy() {
+            PageCounters copy = new PageCounters();
+            copy.hits.add(hits.sum());
+            copy.misses.add(misses.sum());
+            copy.pagesRead.add(pagesRead.sum());
+            copy.pagesWritten.add(pagesWritten.sum());
+            copy.evictions.add(evictions.sum());
+            copy.discards.add(discards.sum());
+            return copy;
+        }
+
+        public String toString() {
+            return String.format("hits=%d misses=%d hit%%=%.1f read=%d written=%d evicted=%d discarded=%d",
+                    getHits(), getMisses(), 100 * getHitRatio(), getPagesRead(), getPagesWritten(),
+                    getEvictions(), getDiscards());
+        }
+    }
+
+    private final PageCounters total;
+    private final Map<Integer, PageCounters> tables;
+    private final LongAdder allDirtyFailures = new LongAdder();
+    private final LatencyHistogram readLatency;
+    private final LatencyHistogram writeLatency;
+
+    BufferPoolStats() {
+        this(new PageCounters(), new ConcurrentHashMap<>(), 0, new LatencyHistogram(),
+                new LatencyHistogram());
+    }
+
+    private BufferPoolStats(PageCounters total, Map<Integer, PageCounters> tables,
+            long allDirtyFailures, LatencyHistogram readLatency, LatencyHistogram writeLatency) {
+        this.total = total;
+        this.tables = tables;
+        this.allDirtyFailures.add(allDirtyFailures);
+        this.readLatency = readLatency;
+        this.writeLatency = writeLatency;
+    }
+
+    private PageCounters table(int tableId) {
+        // a plain get first, as computeIfAbsent may lock the bin even if the table is there
+        PageCounters counters = tables.get(tableId);
+        return counters != null ? counters : tables.computeIfAbsent(tableId, k -> new PageCounters());
+    }
+
+    void recordHit(PageId pid) {
+        total.hits.increment();
+        table(pid.getTableId()).hits.increment();
+    }
+
+    void recordMiss(PageId pid) {
+        total.misses.increment();
+        table(pid.getTableId()).misses.increment();
+    }
+
+    void recordRead(PageId pid, long nanos) {
+        total.pagesRead.increment();
+        table(pid.getTableId()).pagesRead.increment();
+        readLatency.record(nanos);
+    }
+
+    void recordWrite(int tableId, int pages, long nanos) {
+        total.pagesWritten.add(pages);
+        table(tableId).pagesWritten.add(pages);
+        writeLatency.record(nanos);
+    }
+
+    void recordEviction(PageId pid) {
+        total.evictions.increment();
+        table(pid.getTableId()).evictions.increment();
+    }
+
+    void recordDiscard(PageId pid) {
+        total.discards.increment();
+        table(pid.getTableId()).discards.increment();
+    }
+
+    void recordAllDirty() {
+        allDirtyFailures.increment();
+    }
+
+    /** Return the counters of the whole pool. */
+    public PageCounters getTotal() {
+        return total;
+    }
+
+    /** Return the counters of a table, or null if the pool has not seen it. */
+    public PageCounters getTable(int tableId) {
+        return tables.get(tableId);
+    }
+
+    /** Return the counters of every table the pool has seen, by table id. */
+    public Map<Integer, PageCounters> getTables() {
+        return Collections.unmodifiableMap(tables);
+    }
+
+    /** Evictions that failed because every page in the pool was dirty or pinned. */
+    public long getAllDirtyFailures() {
+        return allDirtyFailures.sum();
+    }
+
+    /** Time to read and decode one page from its file. */
+    public LatencyHistogram getReadLatency() {
+        return readLatency;
+    }
+
+    /** Time to write one batch of pages to a file, see {@link DbFile#writePages}. */
+    public LatencyHistogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    /** Return a copy of these counters that does not change any more. */
+    public BufferPoolStats snapshot() {
+        Map<Integer, PageCounters> tablesCopy = new HashMap<>();
+        for (Map.Entry<Integer, PageCounters> entry : tables.entrySet()) {
+            tablesCopy.put(entry.getKey(), entry.getValue().copy());
+        }
+        return new BufferPoolStats(total.copy(), tablesCopy, allDirtyFailures.sum(),
+                readLatency.copy(), writeLatency.copy());
+    }
+
+    /** Zero all counters, e.g. after warming the pool. */
+    public void reset() {
+        tables.clear();
+        for (LongAdder counter : new LongAdder[] { total.hits, total.misses, total.pagesRead,
+                total.pagesWritten, total.evictions, total.discards, allDirtyFailures }) {
+            counter.reset();
+        }
+        readLatency.reset();
+        writeLatency.reset();
+    }
+
+    public String toString() {
+        return String.format("%s allDirty=%d read[%s] write[%s]", total, getAllDirtyFailures(),
+                readLatency, writeLatency);
+    }
+}
@@ -0,0 +1,184 @@
+package simpledb.storage;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * ClockReplacer chooses eviction victims with the CLOCK algorithm. Resident
+ * pages occupy slots in a circular frame array, each with a reference bit
+ * that is set whenever the page is accessed. To find a victim the clock hand
+ * sweeps the array, clearing set reference bits, and stops at the first
+ * unreferenced page that the caller allows to be evicted.
+ * <p>
+ * A hit only sets a bit, and the hand resumes where the previous sweep
+ * stopped, so the cost of an eviction is amortized O(1) instead of a scan
+ * from the head of an LRU list. Pinned frames are stepped over without
+ * asking the pool about them.
+ *
+ * @Threadsafe hits are lock free; loads, removals and sweeps synchronize on
+ *             this
+ */
+public class ClockReplacer implements ReplacementPolicy {
+
+    private static class Frame {
+        final PageId pid;
+        final int slot;
+        volatile boolean referenced;
+        volatile boolean pinned;
+
+        Frame(PageId pid, int slot) {
+            this.pid = pid;
+            this.slot = slot;
+        }
+    }
+
+    private final Map<PageId, Frame> frames = new ConcurrentHashMap<>();
+    private Frame[] ring = new Frame[16]; // protected by this
+    private final Deque<Integer> freeSlots = new ArrayDeque<>(); // protected by this
+    private int used = 0; // number of slots ever handed out; protected by this
+    private int hand = 0; // protected by this
+    private final ReplacementStats stats;
+
+    public ClockReplacer() {
+        this(new ReplacementStats());
+    }
+
+    /**
+     * Creates a clock that counts into stats, so that a policy built on top
+     * of it can share one set of counters.
+     */
+    ClockReplacer(ReplacementStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Record that pid has just been brought into the pool. The reference bit
+     * starts clear: a page must be hit again before it survives a sweep, so
+     * one-off reads do not cost the hand a full revolution to get past.
+     */
+    public void recordLoad(PageId pid) {
+        stats.recordMiss();
+        insert(pid);
+    }
+
+    /**
+     * Return the tracked ids, pages referenced since the hand last passed
+     * them first, each group in the order the hand will reach it last.
+     */
+    public synchronized List<PageId> hotPages() {
+        List<PageId> referenced = new ArrayList<>();
+        List<PageId> others = new ArrayList<>();
+        for (int i = 1; i <= used; i++) {
+            Frame frame = ring[(hand - i + used) % used];
+            if (frame != null) {
+                (frame.referenced ? referenced : others).add(frame.pid);
+            }
+        }
+        referenced.addAll(others);
+        return referenced;
+    }
+
+    /**
+     * Give pid a frame again, with its reference bit clear as the hand left
+     * it, without counting a miss.
+     */
+    public void reinsert(PageId pid) {
+        insert(pid);
+    }
+
+    /** Give pid a frame without counting a miss. */
+    synchronized void insert(PageId pid) {
+        if (frames.containsKey(pid)) {
+            return;
+        }
+        int slot;
+        if (!freeSlots.isEmpty()) {
+            slot = freeSlots.pop();
+        } else {
+            if (used == ring.length) {
+                ring = Arrays.copyOf(ring, ring.length * 2);
+            }
+            slot = used++;
+        }
+        Frame frame = new Frame(pid, slot);
+        ring[slot] = frame;
+        frames.put(pid, frame);
+    }
+
+    /** Return true if pid currently holds a frame in this clock. */
+    boolean contains(PageId pid) {
+        return frames.containsKey(pid);
+    }
+
+    public void recordAccess(PageId pid) {
+        stats.recordHit();
+        Frame frame = frames.get(pid);
+        if (frame != null) {
+            frame.referenced = true;
+        }
+    }
+
+    public void recordPin(PageId pid) {
+        Frame frame = frames.get(pid);
+        if (frame != null) {
+            frame.pinned = true;
+        }
+    }
+
+    public void recordUnpin(PageId pid) {
+        Frame frame = frames.get(pid);
+        if (frame != null) {
+            frame.pinned = false;
+        }
+    }
+
+    public synchronized void remove(PageId pid) {
+        Frame frame = frames.remove(pid);
+        if (frame != null) {
+            ring[frame.slot] = null;
+            freeSlots.push(frame.slot);
+        }
+    }
+
+    /**
+     * Sweep the clock hand and return the first unreferenced, unpinned page
+     * accepted by evictable. The page is removed from the clock. At most two
+     * full revolutions are made: the first may only clear reference bits.
+     */
+    public PageId victim(Predicate<PageId> evictable) {
+        stats.recordEvictionScan();
+        return sweep(evictable);
+    }
+
+    /** Run victim's sweep without counting an eviction scan. */
+    synchronized PageId sweep(Predicate<PageId> evictable) {
+        if (frames.isEmpty()) {
+            return null;
+        }
+        for (int steps = 2 * used; steps > 0; steps--) {
+            Frame frame = ring[hand];
+            hand = (hand + 1) % used;
+            if (frame == null) {
+                continue;
+            }
+            stats.recordFrameScanned();
+            if (frame.pinned) {
+                continue;
+            }
+            if (frame.referenced) {
+                frame.referenced = false;
+                continue;
+            }
+            if (evictable.test(frame.pid)) {
+                remove(frame.pid);
+                return frame.pid;
+            }
+        }
+        return null;
+    }
+
+    public ReplacementStats getStats() {
+        return stats;
+    }
+}
@@ -0,0 +1,140 @@
+package simpledb.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedPageCache is an optional second tier of a {@link BufferPool}
+ * that keeps the images of clean pages evicted from the pool, compressed
+ * with the JDK's Deflater at its fastest level. A miss in the pool is then
+ * served by inflating the image instead of reading the file. Page images
+ * compress well: unused slots are zero, and so is the padding of
+ * STRING_TYPE fields, so the cache holds several times more pages than the
+ * same memory would as decoded pages.
+ * <p>
+ * The cache is exclusive: an image is taken out when the pool loads the
+ * page again, and put back when the page is evicted, so it never holds a
+ * page that is also resident. BufferPool removes the image of a discarded
+ * page. When the cache is over its size, the images evicted longest ago
+ * are dropped.
+ *
+ * @Threadsafe all methods synchronize on this
+ */
+public class CompressedPageCache {
+
+    private final long maxBytes;
+    private long bytes = 0;
+    private long rawBytes = 0;
+
+    // insertion order, i.e. the order in which pages left the pool
+    private final LinkedHashMap<PageId, byte[]> images = new LinkedHashMap<>();
+    private final Map<PageId, Integer> rawLengths = new HashMap<>();
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final byte[] buffer = new byte[BufferPool.getPageSize()];
+    private final ReplacementStats stats = new ReplacementStats();
+
+    /**
+     * @param maxBytes the most bytes of compressed images to keep
+     */
+    public CompressedPageCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("invalid cache size");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /** Return the number of pages that have an image in the cache. */
+    public synchronized int size() {
+        return images.size();
+    }
+
+    /** Return the compressed size of the cached images in bytes. */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /** Return the size of the cached images before compression in bytes. */
+    public synchronized long getRawBytes() {
+        return rawBytes;
+    }
+
+    /** Return the hit and miss counters of this cache. */
+    public ReplacementStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Remove the image of pid from the cache and return it uncompressed, or
+     * return null if pid has no image.
+     */
+    synchronized byte[] take(PageId pid) {
+        byte[] compressed = images.remove(pid);
+        if (compressed == null) {
+            stats.recordMiss();
+            return null;
+        }
+        stats.recordHit();
+        int rawLength = rawLengths.remove(pid);
+        bytes -= compressed.length;
+        rawBytes -= rawLength;
+
+        byte[] data = new byte[rawLength];
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            int n = 0;
+            while (n < rawLength && !inflater.finished()) {
+                n += inflater.inflate(data, n, rawLength - n);
+            }
+        } catch (DataFormatException e) {
+            // cannot happen for images deflated here; read the file instead
+            return null;
+        }
+        return data;
+    }
+
+    /**
+     * Store data, the on-disk image of pid, replacing an older image of pid
+     * and dropping the oldest images while the cache is over its size.
+     */
+    synchronized void put(PageId pid, byte[] data) {
+        remove(pid);
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4);
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        byte[] compressed = out.toByteArray();
+        if (compressed.length > maxBytes) {
+            return;
+        }
+        images.put(pid, compressed);
+        rawLengths.put(pid, data.length);
+        bytes += compressed.length;
+        rawBytes += data.length;
+
+        Iterator<Map.Entry<PageId, byte[]>> oldest = images.entrySet().iterator();
+        while (bytes > maxBytes) {
+            Map.Entry<PageId, byte[]> entry = oldest.next();
+            bytes -= entry.getValue().length;
+            rawBytes -= rawLengths.remove(entry.getKey());
+            oldest.remove();
+        }
+    }
+
+    /** Drop the image of pid, if any. */
+    synchronized void remove(PageId pid) {
+        byte[] compressed = images.remove(pid);
+        if (compressed != null) {
+            bytes -= compressed.length;
+            rawBytes -= rawLengths.remove(pid);
+        }
+    }
+}
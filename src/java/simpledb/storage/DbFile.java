@@ -24,6 +24,26 @@ public interface DbFile {
      */
     Page readPage(PageId id);
 
+    /**
+     * Read the on-disk bytes of the specified page without decoding them.
+     * BufferPool uses this to keep page images in its {@link FrameArena}.
+     * Files that return non-null must also implement {@link #decodePage}.
+     *
+     * @return the page's bytes, or null if this file does not support it
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     */
+    default byte[] readPageData(PageId id) {
+        return null;
+    }
+
+    /**
+     * Construct the specified page from bytes previously returned by
+     * {@link #readPageData}, as readPage would.
+     */
+    default Page decodePage(PageId id, byte[] data) {
+        throw new UnsupportedOperationException("decodePage not supported");
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -33,6 +53,21 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Push the specified pages to disk. Files that can should sort the pages,
+     * merge neighbouring pages into single writes and force the file to the
+     * device once; the default writes the pages one by one with
+     * {@link #writePage}.
+     *
+     * @param pages the pages to write, all of this file
+     * @throws IOException if a write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
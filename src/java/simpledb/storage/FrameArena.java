@@ -0,0 +1,147 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * FrameArena keeps the on-disk images of pages in fixed-size frames of
+ * preallocated direct (off-heap) memory. It is an optional second tier of a
+ * {@link BufferPool}: the pool holds a small number of decoded pages on the
+ * heap, and on a miss decodes the page from its frame here instead of
+ * reading the file. The arena can therefore be many times larger than the
+ * pool without adding to the Java heap or to GC pause times.
+ * <p>
+ * The arena only ever holds bytes that are on disk: BufferPool stores pages
+ * as they are read and refreshes a frame whenever it writes the page back.
+ * Frames are reused in CLOCK order when the arena is full.
+ * <p>
+ * All frames are allocated up front, in chunks of at most 1GB so that
+ * arenas larger than one ByteBuffer can address are possible.
+ *
+ * @Threadsafe all methods synchronize on this
+ */
+public class FrameArena {
+
+    private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+    private final int numFrames;
+    private final int frameSize;
+    private final int framesPerChunk;
+    private final ByteBuffer[] chunks;
+
+    private final Map<PageId, Integer> frameOf = new HashMap<>();
+    private final int[] lengths;
+    private final Deque<Integer> freeFrames = new ArrayDeque<>();
+    private final ClockReplacer clock = new ClockReplacer();
+
+    /**
+     * Creates an arena of numFrames frames of BufferPool.getPageSize() bytes.
+     *
+     * @param numFrames number of page images the arena holds
+     */
+    public FrameArena(int numFrames) {
+        this(numFrames, BufferPool.getPageSize());
+    }
+
+    /**
+     * Creates an arena of numFrames frames of frameSize bytes each, i.e.
+     * numFrames * frameSize bytes of direct memory.
+     */
+    public FrameArena(int numFrames, int frameSize) {
+        if (numFrames <= 0 || frameSize <= 0 || frameSize > MAX_CHUNK_BYTES) {
+            throw new IllegalArgumentException("invalid arena size");
+        }
+        this.numFrames = numFrames;
+        this.frameSize = frameSize;
+        this.framesPerChunk = MAX_CHUNK_BYTES / frameSize;
+        int numChunks = (numFrames + framesPerChunk - 1) / framesPerChunk;
+        this.chunks = new ByteBuffer[numChunks];
+        for (int i = 0; i < numChunks; i++) {
+            int frames = Math.min(framesPerChunk, numFrames - i * framesPerChunk);
+            chunks[i] = ByteBuffer.allocateDirect(frames * frameSize);
+        }
+        this.lengths = new int[numFrames];
+        for (int i = 0; i < numFrames; i++) {
+            freeFrames.add(i);
+        }
+    }
+
+    /** Return the number of frames in this arena. */
+    public int numFrames() {
+        return numFrames;
+    }
+
+    /** Return the size of each frame in bytes. */
+    public int frameSize() {
+        return frameSize;
+    }
+
+    /** Return the number of pages that currently have a frame. */
+    public synchronized int size() {
+        return frameOf.size();
+    }
+
+    /** Return the hit, miss and eviction counters of this arena. */
+    public ReplacementStats getStats() {
+        return clock.getStats();
+    }
+
+    /** Return a view of frame positioned at its first byte. */
+    private ByteBuffer frame(int frame) {
+        ByteBuffer buf = chunks[frame / framesPerChunk].duplicate();
+        buf.position((frame % framesPerChunk) * frameSize);
+        return buf;
+    }
+
+    /**
+     * Return a copy of the image of pid, or null if pid has no frame.
+     */
+    synchronized byte[] read(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame == null) {
+            return null;
+        }
+        clock.recordAccess(pid);
+        byte[] data = new byte[lengths[frame]];
+        frame(frame).get(data);
+        return data;
+    }
+
+    /**
+     * Store data as the image of pid, replacing an older image or, if the
+     * arena is full, the image of another page.
+     */
+    synchronized void write(PageId pid, byte[] data) {
+        if (data.length > frameSize) {
+            throw new IllegalArgumentException("page does not fit in a frame");
+        }
+        Integer frame = frameOf.get(pid);
+        if (frame == null) {
+            if (freeFrames.isEmpty()) {
+                PageId victim = clock.victim(p -> true);
+                freeFrames.push(frameOf.remove(victim));
+            }
+            frame = freeFrames.pop();
+            frameOf.put(pid, frame);
+            clock.recordLoad(pid);
+        }
+        frame(frame).put(data);
+        lengths[frame] = data.length;
+    }
+
+    /** Overwrite the image of pid with data if pid has a frame. */
+    synchronized void update(PageId pid, byte[] data) {
+        if (frameOf.containsKey(pid)) {
+            write(pid, data);
+        }
+    }
+
+    /** Release the frame of pid, if any. */
+    synchronized void remove(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame != null) {
+            clock.remove(pid);
+            freeFrames.push(frame);
+        }
+    }
+}
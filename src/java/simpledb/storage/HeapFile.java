@@ -32,12 +32,40 @@ public class HeapFile implements DbFile {
 
     private File f;
     private TupleDesc td;
+    private final int pageSize; // 0: BufferPool.getPageSize()
 
 
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
         this.f = f;
         this.td = td;
+        this.pageSize = 0;
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, with pages of
+     * pageSize bytes instead of the BufferPool's default page size.
+     *
+     * @param f        the file that stores the on-disk backing store for this
+     *                 heap file.
+     * @param td       the schema of the table
+     * @param pageSize the size of each page of the file in bytes
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) {
+        if (pageSize < td.getSize() + 1) {
+            throw new IllegalArgumentException("page size " + pageSize + " does not fit a tuple");
+        }
+        this.f = f;
+        this.td = td;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Returns the size of the pages of this file in bytes: the size given to
+     * the constructor, or else {@link BufferPool#getPageSize}.
+     */
+    public int getPageSize() {
+        return pageSize > 0 ? pageSize : BufferPool.getPageSize();
     }
 
     /**
@@ -79,11 +107,16 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
+        return decodePage(pid, readPageData(pid));
+    }
+
+    // see DbFile.java for javadocs
+    public byte[] readPageData(PageId pid) {
         if (!(pid instanceof HeapPageId)) {
             throw new IllegalArgumentException("PageId must be a HeapPageId");
         }
 
-        int pageSize = BufferPool.getPageSize();
+        int pageSize = getPageSize();
         int pageNo = pid.getPageNumber();
 
         //System.out.println("Reading page " + pid.getPageNumber() + " from HeapFile " + getId());
@@ -97,9 +130,17 @@ public class HeapFile implements DbFile {
             byte[] data = new byte[pageSize];
             raf.seek((long) pageNo * pageSize);
             raf.readFully(data);
+            return data;
 
-            return new HeapPage((HeapPageId) pid, data);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read page: ", e);
+        }
+    }
 
+    // see DbFile.java for javadocs
+    public Page decodePage(PageId pid, byte[] data) {
+        try {
+            return new HeapPage((HeapPageId) pid, data);
         } catch (IOException e) {
             throw new RuntimeException("Failed to read page: ", e);
         }
@@ -120,19 +161,25 @@ public class HeapFile implements DbFile {
             throw new IllegalArgumentException("Invalid page type");
         }
 
-        int pageSize = BufferPool.getPageSize();
+        int pageSize = getPageSize();
         int pageNo = page.getId().getPageNumber();
 
         long offset = (long) pageNo * pageSize;
         writePageData((HeapPage) page, offset);
     }
 
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        int pageSize = getPageSize();
+        BatchWriter.write(f, pages, pid -> (long) pid.getPageNumber() * pageSize);
+    }
+
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
         // some code goes here
-        return (int) (f.length() / BufferPool.getPageSize());
+        return (int) (f.length() / getPageSize());
     }
 
     // see DbFile.java for javadocs
@@ -140,6 +187,13 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        BufferPool bufferPool = Database.getBufferPool();
+        if (bufferPool.isOptimistic(tid)) {
+            return insertOptimistic(tid, t);
+        }
+        if (bufferPool.isRecordLocking()) {
+            return insertRecord(tid, t);
+        }
         List<Page> modifiedPages = new ArrayList<>();
 
         // Find space to insert
@@ -157,7 +211,7 @@ public class HeapFile implements DbFile {
 
         // No space found
         HeapPageId newPid = new HeapPageId(getId(), numPages());
-        byte[] emptyData = HeapPage.createEmptyPageData();
+        byte[] emptyData = HeapPage.createEmptyPageData(getPageSize());
         HeapPage newPage = new HeapPage(newPid, emptyData);
 
         newPage.insertTuple(t);
@@ -169,6 +223,81 @@ public class HeapFile implements DbFile {
         return modifiedPages;
     }
 
+    /*
+     * Record locking: insert t into the first slot that is free and not
+     * locked by another transaction. If no page has one, an empty page is
+     * written straight to the end of the file, bypassing the pool and the
+     * log, and t is inserted into it through the pool like into any other
+     * page, so that the file never holds an uncommitted tuple. Full pages
+     * are only read, so that they do not join the pages tid writes.
+     */
+    private List<Page> insertRecord(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        for (int i = 0; ; i++) {
+            if (i >= numPages()) {
+                // a record scan that reached the end keeps new pages out
+                bufferPool.lockRecord(tid, endOfFile(), Permissions.READ_ONLY);
+                appendEmptyPage(i);
+            }
+            HeapPageId pid = new HeapPageId(getId(), i);
+            if (((HeapPage) bufferPool.getRecordPage(tid, pid, Permissions.READ_ONLY)).getNumEmptySlots() == 0) {
+                continue;
+            }
+            HeapPage page = (HeapPage) bufferPool.getRecordPage(tid, pid, Permissions.READ_WRITE);
+            if (page.insertTuple(t, tid, slot -> bufferPool.tryLockRecord(tid, new RecordId(pid, slot)))) {
+                List<Page> modifiedPages = new ArrayList<>();
+                modifiedPages.add(page);
+                return modifiedPages;
+            }
+        }
+    }
+
+    /*
+     * Optimistic transactions: look for a free slot in the committed pages,
+     * which are shared, and only take a private copy of the page that has
+     * one. As with record locking an empty page is appended if no page has
+     * one, so that no uncommitted tuple reaches disk.
+     */
+    private List<Page> insertOptimistic(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        for (int i = 0; ; i++) {
+            if (i >= numPages()) {
+                appendEmptyPage(i);
+            }
+            HeapPageId pid = new HeapPageId(getId(), i);
+            if (((HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_ONLY)).getNumEmptySlots() > 0) {
+                // a commit may have filled the page since; validation will fail then
+                HeapPage page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+                if (page.getNumEmptySlots() > 0) {
+                    page.insertTuple(t);
+                    List<Page> modifiedPages = new ArrayList<>();
+                    modifiedPages.add(page);
+                    return modifiedPages;
+                }
+            }
+        }
+    }
+
+    /*
+     * Record locking: the record that stands for the end of the file, which
+     * a record scan locks after its last page and an insert before it
+     * appends one. No page has number -1.
+     */
+    private RecordId endOfFile() {
+        return new RecordId(new HeapPageId(getId(), -1), 0);
+    }
+
+    /* Add an empty page numbered pageNo, unless another transaction already did */
+    private synchronized void appendEmptyPage(int pageNo) throws IOException {
+        if (numPages() == pageNo) {
+            HeapPage empty = new HeapPage(new HeapPageId(getId(), pageNo),
+                    HeapPage.createEmptyPageData(getPageSize()));
+            writePageData(empty, (long) pageNo * getPageSize());
+        }
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -179,9 +308,16 @@ public class HeapFile implements DbFile {
         }
 
         PageId pid = rid.getPageId();
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-
-        page.deleteTuple(t);
+        BufferPool bufferPool = Database.getBufferPool();
+        HeapPage page;
+        if (bufferPool.isRecordLocking() && !bufferPool.isOptimistic(tid)) {
+            page = (HeapPage) bufferPool.getRecordPage(tid, pid, Permissions.READ_WRITE);
+            bufferPool.lockRecord(tid, rid, Permissions.READ_WRITE);
+            page.deleteTuple(t, tid);
+        } else {
+            page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+            page.deleteTuple(t);
+        }
 
         ArrayList<Page> modified = new ArrayList<>();
         modified.add(page);
@@ -190,33 +326,119 @@ public class HeapFile implements DbFile {
 
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
+        return iterator(tid, null);
+    }
+
+    /**
+     * Record locking: iterate over the tuples of this file as
+     * {@link #iterator} does, but take only intention locks on the pages,
+     * e.g. for a scan feeding a delete. Other transactions can then change
+     * other records of the same pages.
+     * <p>
+     * Each slot is locked, shared for READ_ONLY and exclusive for
+     * READ_WRITE, before the iterator reads it, so that no uncommitted
+     * change is read; free slots are locked too, and the end of the file
+     * once the last page is read, so that no tuple appears behind the scan.
+     */
+    public DbFileIterator recordIterator(TransactionId tid, Permissions perm) {
+        return iterator(tid, perm);
+    }
+
+    /* Iterate over the tuples, locking each slot in mode records, or the pages if records is null */
+    private DbFileIterator iterator(TransactionId tid, Permissions records) {
         return new DbFileIterator() {
 
             int pageNum = 0;
             Iterator<Tuple> tupleIter = null;
+            int lastPageNum = -1;
+            final ReadAhead readAhead = new ReadAhead();
+            PageId pinned = null; // the page the iterator is on
+            // with records: the page the iterator is on, the next slot to
+            // lock, the tuple of the last slot locked, and whether the end
+            // of the file is locked
+            HeapPage page = null;
+            int slot = 0;
+            Tuple record = null;
+            boolean atEnd = false;
 
             public void open() throws DbException, TransactionAbortedException {
+                unpin();
                 pageNum = 0;
+                lastPageNum = -1;
+                atEnd = false;
                 tupleIter = getTupleIterator(pageNum);
             }
 
             private Iterator<Tuple> getTupleIterator(int p) throws DbException, TransactionAbortedException {
+                BufferPool bufferPool = Database.getBufferPool();
+                int ahead = readAhead.advance(p == lastPageNum + 1);
+                lastPageNum = p;
+                if (ahead > 0) {
+                    List<PageId> pids = new ArrayList<>();
+                    int end = Math.min(p + ahead, numPages() - 1);
+                    for (int next = p + 1; next <= end; next++) {
+                        pids.add(new HeapPageId(getId(), next));
+                    }
+                    bufferPool.readAhead(pids);
+                }
+
                 HeapPageId pid = new HeapPageId(getId(), p);
-                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-                //System.out.println(page);
-                return page.iterator();
+                // unpin first, so that moving on never needs a free frame more
+                unpin();
+                if (records != null) {
+                    page = (HeapPage) bufferPool.getPinnedRecordPage(tid, pid, records);
+                    pinned = pid;
+                    slot = 0;
+                    record = null;
+                    return null;
+                }
+                Page pinnedPage = bufferPool.getPinnedPage(tid, pid, Permissions.READ_ONLY);
+                pinned = pid;
+                return ((HeapPage) pinnedPage).iterator();
+            }
+
+            /* Whether the page the iterator is on has another tuple; with records, lock it first */
+            private boolean hasNextOnPage() throws TransactionAbortedException {
+                if (records == null) {
+                    return tupleIter != null && tupleIter.hasNext();
+                }
+                while (record == null && page != null && slot < page.numSlots) {
+                    Database.getBufferPool().lockRecord(tid, new RecordId(pinned, slot), records);
+                    record = page.tupleAt(slot++);
+                }
+                return record != null;
+            }
+
+            private void unpin() {
+                if (pinned != null) {
+                    Database.getBufferPool().unpinPage(tid, pinned);
+                    pinned = null;
+                }
             }
 
             public boolean hasNext() throws DbException, TransactionAbortedException {
-                while ((tupleIter == null || !tupleIter.hasNext()) && pageNum < numPages() - 1) {
-                    pageNum++;
-                    tupleIter = getTupleIterator(pageNum);
+                while (!hasNextOnPage()) {
+                    if (pageNum < numPages() - 1) {
+                        pageNum++;
+                        tupleIter = getTupleIterator(pageNum);
+                    } else if (records != null && page != null && !atEnd) {
+                        // pages appended before the lock was granted are still read
+                        Database.getBufferPool().lockRecord(tid, endOfFile(), records);
+                        atEnd = true;
+                    } else {
+                        return false;
+                    }
                 }
-                return tupleIter != null && tupleIter.hasNext();
+                return true;
             }
 
             public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
                 if (!hasNext()) throw new NoSuchElementException();
+                if (records != null) {
+                    Tuple t = record;
+                    record = null;
+                    return t;
+                }
                 return tupleIter.next();
             }
 
@@ -225,7 +447,10 @@ public class HeapFile implements DbFile {
             }
 
             public void close() {
+                unpin();
                 tupleIter = null;
+                page = null;
+                record = null;
                 pageNum = numPages();
             }
 
@@ -7,12 +7,19 @@ import simpledb.common.Catalog;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
+import java.util.function.IntPredicate;
 import java.io.*;
 import java.lang.Math;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * With record locking, several transactions change a page at once, each
+ * through {@link #insertTuple(Tuple, TransactionId, IntPredicate)} and
+ * {@link #deleteTuple(Tuple, TransactionId)}. The page monitor is the latch
+ * that guards these changes; each transaction's changes are kept so that
+ * it can be committed or rolled back alone.
  *
  * @see HeapFile
  * @see BufferPool
@@ -25,32 +32,57 @@ public class HeapPage implements Page {
     final byte[] header;
     final Tuple[] tuples;
     final int numSlots;
+    final int pageSize;
 
-    private boolean isDirty = false;
-    private TransactionId dirtyTid;
+    private volatile boolean isDirty = false;
+    private volatile TransactionId dirtyTid;
 
     byte[] oldData;
-    private final Byte oldDataLock= (byte) 0;
+    private final Object oldDataLock = new Object();
+    // oldData decoded; written under oldDataLock, read without it
+    private volatile HeapPage committedImage;
+
+    // slot changes since the before image was set, oldest first; null once
+    // there were more changes than slots, and rollback() gives up
+    private List<SlotChange> undo = new ArrayList<>();
+
+    // record locking: the slot changes of each running transaction, oldest
+    // first; guarded by the page monitor
+    private final Map<TransactionId, List<SlotChange>> recordChanges = new HashMap<>();
+
+    /** A slot and the tuple it held before a change, or null if it was empty. */
+    private static class SlotChange {
+        final int slot;
+        final Tuple before;
+
+        SlotChange(int slot, Tuple before) {
+            this.slot = slot;
+            this.before = before;
+        }
+    }
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
-     * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     *          floor((page size*8) / (tuple size * 8 + 1))
+     * <p> where the page size is that of the table's file, see
+     * {@link HeapFile#getPageSize}, and tuple size is the size of tuples in
+     * this database table, which can be determined via
+     * {@link Catalog#getTupleDesc}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#getPageSize()
+     * @see HeapFile#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = pageSizeOf(id.getTableId());
         this.numSlots = getNumTuples();
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -69,7 +101,49 @@ public class HeapPage implements Page {
         }
         dis.close();
 
-        setBeforeImage();
+        // data is what the page encodes to, so snapshot it instead of re-encoding
+        synchronized(oldDataLock)
+        {
+        oldData = data.clone();
+        }
+    }
+
+    /*
+     * A page holding header and copies of tuples, with the before image of
+     * from. The tuples are copied, as a caller may change a tuple it read,
+     * e.g. its record id when it inserts it into another table.
+     */
+    private HeapPage(HeapPage from, byte[] header, Tuple[] tuples) {
+        this.pid = from.pid;
+        this.td = from.td;
+        this.pageSize = from.pageSize;
+        this.numSlots = from.numSlots;
+        this.header = header;
+        this.tuples = new Tuple[tuples.length];
+        for (int i = 0; i < tuples.length; i++) {
+            if (tuples[i] != null) {
+                this.tuples[i] = copyOf(tuples[i]);
+            }
+        }
+        synchronized (from.oldDataLock) {
+            oldData = from.oldData;
+        }
+    }
+
+    /* A tuple with the fields and record id of t; fields never change, so they are shared */
+    private static Tuple copyOf(Tuple t) {
+        Tuple copy = new Tuple(t.getTupleDesc());
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            copy.setField(i, t.getField(i));
+        }
+        copy.setRecordId(t.getRecordId());
+        return copy;
+    }
+
+    /** Return the page size of the table's file, or the default if it is not a HeapFile. */
+    private static int pageSizeOf(int tableId) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        return file instanceof HeapFile ? ((HeapFile) file).getPageSize() : BufferPool.getPageSize();
     }
 
     /** Retrieve the number of tuples on this page.
@@ -77,7 +151,7 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
         // some code goes here
-        return (int) Math.floor((BufferPool.getPageSize()*8) / (td.getSize() * 8 + 1));
+        return (int) Math.floor((pageSize*8) / (td.getSize() * 8 + 1));
     }
 
     /**
@@ -92,13 +166,18 @@ public class HeapPage implements Page {
     /** Return a view of this page before it was modified
         -- used by recovery */
     public HeapPage getBeforeImage(){
+        byte[] oldDataRef = null;
+        synchronized(oldDataLock)
+        {
+            oldDataRef = oldData;
+        }
+        return decode(oldDataRef);
+    }
+
+    /* Decode data, a before image of this page */
+    private HeapPage decode(byte[] data) {
         try {
-            byte[] oldDataRef = null;
-            synchronized(oldDataLock)
-            {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid,oldDataRef);
+            return new HeapPage(pid, data);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -107,10 +186,145 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Return the before image like {@link #getBeforeImage}, but decoded
+     * only once and shared until the before image changes, e.g. for
+     * snapshot reads. Callers must not change it.
+     */
+    public HeapPage getCommittedImage() {
+        HeapPage image = committedImage;
+        if (image != null) {
+            return image;
+        }
+        byte[] data;
+        synchronized (oldDataLock) {
+            data = oldData;
+        }
+        // decoded outside the lock, and kept unless the before image changed meanwhile
+        image = decode(data);
+        synchronized (oldDataLock) {
+            if (committedImage == null && oldData == data) {
+                committedImage = image;
+            }
+        }
+        return image;
+    }
+
     public void setBeforeImage() {
+        // outside oldDataLock, which commitRecords takes under the latch
+        byte[] data = getPageData();
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = data;
+        // the caller keeps the page from changing, so copy it rather than
+        // decode oldData again when the committed image is next asked for
+        committedImage = new HeapPage(this, header.clone(), tuples);
+        }
+        undo = new ArrayList<>();
+    }
+
+    /**
+     * Return a copy of this page that can be changed without changing this
+     * one, with the same before image. Unlike {@link #getBeforeImage} it
+     * copies the slots instead of decoding bytes; the caller keeps this
+     * page from changing while it is copied, e.g. because it is a committed
+     * image.
+     */
+    public HeapPage copy() {
+        return new HeapPage(this, header.clone(), tuples);
+    }
+
+    /**
+     * Undo the inserts and deletes made since the before image was set,
+     * newest first, without decoding the before image.
+     */
+    public boolean rollback() {
+        if (undo == null) {
+            return false;
+        }
+        for (int i = undo.size() - 1; i >= 0; i--) {
+            SlotChange change = undo.get(i);
+            tuples[change.slot] = change.before;
+            markSlotUsed(change.slot, change.before != null);
+            if (change.before != null) {
+                // the tuple may have been inserted elsewhere since
+                change.before.setRecordId(new RecordId(pid, change.slot));
+            }
+        }
+        undo.clear();
+        return true;
+    }
+
+    /**
+     * Record locking: undo the changes tid made through the record methods,
+     * newest first.
+     */
+    public synchronized void rollbackRecords(TransactionId tid) {
+        List<SlotChange> changes = recordChanges.remove(tid);
+        if (changes == null) {
+            return;
+        }
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            SlotChange change = changes.get(i);
+            tuples[change.slot] = change.before;
+            markSlotUsed(change.slot, change.before != null);
+            if (change.before != null) {
+                change.before.setRecordId(new RecordId(pid, change.slot));
+            }
+        }
+    }
+
+    /**
+     * Record locking: keep the changes tid made through the record methods,
+     * and make the before image this page without the changes of the other
+     * running transactions.
+     *
+     * @return the new before image, which holds only committed changes
+     */
+    public synchronized HeapPage commitRecords(TransactionId tid) {
+        recordChanges.remove(tid);
+        byte[] committedHeader = header.clone();
+        Tuple[] committed = tuples.clone();
+        for (List<SlotChange> changes : recordChanges.values()) {
+            for (int i = changes.size() - 1; i >= 0; i--) {
+                SlotChange change = changes.get(i);
+                committed[change.slot] = change.before;
+                markSlotUsed(committedHeader, change.slot, change.before != null);
+            }
+        }
+        synchronized (oldDataLock) {
+            oldData = pageData(committedHeader, committed);
+            committedImage = new HeapPage(this, committedHeader, committed);
+        }
+        undo = new ArrayList<>();
+        return getBeforeImage();
+    }
+
+    /** Record locking: whether tid changed this page and has not committed or rolled back. */
+    public synchronized boolean hasRecordChanges(TransactionId tid) {
+        return recordChanges.containsKey(tid);
+    }
+
+    /** Record locking: a running transaction that changed this page, or null. */
+    public synchronized TransactionId recordWriter() {
+        Iterator<TransactionId> writers = recordChanges.keySet().iterator();
+        return writers.hasNext() ? writers.next() : null;
+    }
+
+    /** Whether an insert or delete may have changed this page since its before image was set. */
+    public boolean isChanged() {
+        return undo == null || !undo.isEmpty();
+    }
+
+    /** Remember what slot held before it is changed. */
+    private void recordChange(int slot) {
+        if (undo == null) {
+            return;
+        }
+        if (undo.size() >= numSlots) {
+            undo = null;
+        } else {
+            undo.add(new SlotChange(slot, tuples[slot]));
         }
     }
 
@@ -163,13 +377,20 @@ public class HeapPage implements Page {
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
+     * <p>
+     * Taken under the page latch, so that a slot a record locking writer is
+     * changing is not written half done.
      *
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
-    public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+    public synchronized byte[] getPageData() {
+        return pageData(header, tuples);
+    }
+
+    /* Serialize a page with the given header and tuples */
+    private byte[] pageData(byte[] header, Tuple[] tuples) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
         DataOutputStream dos = new DataOutputStream(baos);
 
         // create the header of the page
@@ -183,17 +404,15 @@ public class HeapPage implements Page {
         }
 
         // create the tuples
+        byte[] emptySlot = new byte[td.getSize()];
         for (int i=0; i<tuples.length; i++) {
 
             // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
+            if (!isSlotUsed(header, i)) {
+                try {
+                    dos.write(emptySlot);
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
                 continue;
             }
@@ -211,7 +430,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = pageSize - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -238,8 +457,22 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.getPageSize();
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Return the bytes of an empty HeapPage of pageSize bytes, for a file
+     * with its own page size.
+     *
+     * @see HeapFile#getPageSize
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
+    }
+
+    /** Return the size of this page in bytes. */
+    public int getPageSize() {
+        return pageSize;
     }
 
     /**
@@ -250,6 +483,28 @@ public class HeapPage implements Page {
      * @param t The tuple to delete
      */
     public void deleteTuple(Tuple t) throws DbException {
+        int tupleNo = checkDeletable(t);
+        recordChange(tupleNo);
+        markSlotUsed(tupleNo, false);
+        tuples[tupleNo] = null;
+    }
+
+    /**
+     * Record locking: delete the specified tuple from the page under the
+     * page latch, as a change of tid. The caller must hold an exclusive
+     * lock on the record.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public synchronized void deleteTuple(Tuple t, TransactionId tid) throws DbException {
+        int tupleNo = checkDeletable(t);
+        recordChanges.computeIfAbsent(tid, k -> new ArrayList<>()).add(new SlotChange(tupleNo, tuples[tupleNo]));
+        markSlotUsed(tupleNo, false);
+        tuples[tupleNo] = null;
+    }
+
+    /** Return the slot of t, or throw if it cannot be deleted from this page. */
+    private int checkDeletable(Tuple t) throws DbException {
         RecordId rid = t.getRecordId();
 
         // check tuple belongs to page
@@ -263,14 +518,24 @@ public class HeapPage implements Page {
             throw new DbException("Tuple slot is not used or invalid");
         }   
 
-        //if (!isSlotUsed(tupleNo) || tuples[tupleNo] == null || !tuples[tupleNo].equals(t)) {
-        if (!isSlotUsed(tupleNo)) {
-            throw new DbException("Tuple slot already empty.");
+        // the slot may have been emptied and filled again since t was read
+        if (tuples[tupleNo] != t && !sameFields(tuples[tupleNo], t)) {
+            throw new DbException("Tuple slot holds another tuple.");
         }
+        return tupleNo;
+    }
 
-        markSlotUsed(tupleNo, false);
-        tuples[tupleNo] = null;
-
+    /* Whether a and b hold equal fields */
+    private static boolean sameFields(Tuple a, Tuple b) {
+        if (a == null || !a.getTupleDesc().equals(b.getTupleDesc())) {
+            return false;
+        }
+        for (int i = 0; i < a.getTupleDesc().numFields(); i++) {
+            if (!Objects.equals(a.getField(i), b.getField(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -289,6 +554,7 @@ public class HeapPage implements Page {
         for (int i = 0; i < numSlots; i++) {
             // Find first emptt slot
             if (!isSlotUsed(i)) {
+                recordChange(i);
                 markSlotUsed(i, true);
                 tuples[i] = t;
                 t.setRecordId(new RecordId(this.pid, i));
@@ -300,6 +566,30 @@ public class HeapPage implements Page {
         throw new DbException("Page is full.");
     }
 
+    /**
+     * Record locking: add the specified tuple to the first empty slot that
+     * canUse accepts, under the page latch, as a change of tid. canUse is
+     * called with the latch held, e.g. to lock the record of the slot.
+     * @throws DbException if tupledesc is mismatch.
+     * @param t The tuple to add.
+     * @return false if no empty slot was accepted
+     */
+    public synchronized boolean insertTuple(Tuple t, TransactionId tid, IntPredicate canUse) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("TupleDesc does not match.");
+        }
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i) && canUse.test(i)) {
+                recordChanges.computeIfAbsent(tid, k -> new ArrayList<>()).add(new SlotChange(i, null));
+                markSlotUsed(i, true);
+                tuples[i] = t;
+                t.setRecordId(new RecordId(this.pid, i));
+                return true;
+            }
+        }
+        return false;
+    }
+
     
     /**
      * Marks this page as dirty/not dirty and record that transaction
@@ -347,6 +637,10 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
+        return isSlotUsed(header, i);
+    }
+
+    private static boolean isSlotUsed(byte[] header, int i) {
         //Get index of byte in header
         int byteInd = i/8;
         int bitPos = i % 8;
@@ -360,6 +654,10 @@ public class HeapPage implements Page {
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
+        markSlotUsed(header, i, value);
+    }
+
+    private static void markSlotUsed(byte[] header, int i, boolean value) {
         //Get index of byte in header
         int byteInd = i/8; // Determine which byte contains the bit
         int bitPos = i % 8; // Determine position of the bit within that byte
@@ -374,6 +672,15 @@ public class HeapPage implements Page {
         }
     }
 
+    /**
+     * Record locking: return the tuple in slot i, or null if it is empty.
+     * The caller locks the record first, so that it is not an uncommitted
+     * change of another transaction.
+     */
+    public synchronized Tuple tupleAt(int i) {
+        return tuples[i];
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
@@ -381,9 +688,12 @@ public class HeapPage implements Page {
     public Iterator<Tuple> iterator() {
         ArrayList<Tuple> newList = new ArrayList<>();
 
-        for (Tuple tup: tuples){
-            if(tup != null){
-                newList.add(tup);
+        // copied under the latch, as record locking writers change slots under it
+        synchronized (this) {
+            for (Tuple tup: tuples){
+                if(tup != null){
+                    newList.add(tup);
+                }
             }
         }
 
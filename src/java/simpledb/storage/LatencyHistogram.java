@@ -0,0 +1,90 @@
+package simpledb.storage;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies with one bucket per power of two nanoseconds.
+ * Recording a sample is two atomic increments, so it can sit on the I/O
+ * paths of the BufferPool; percentiles are reported as the upper bound of
+ * the bucket they fall in, i.e. to within a factor of two.
+ *
+ * @Threadsafe
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    // bucket i holds samples in [2^i, 2^(i+1)) ns; bucket 0 also holds 0
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong(0);
+    private final AtomicLong totalNanos = new AtomicLong(0);
+
+    void record(long nanos) {
+        long n = Math.max(nanos, 0);
+        buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(Math.max(n, 1)));
+        count.incrementAndGet();
+        totalNanos.addAndGet(n);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    /** Return the mean latency in nanoseconds, or 0 if nothing was recorded. */
+    public double getMeanNanos() {
+        long c = count.get();
+        return c == 0 ? 0 : (double) totalNanos.get() / c;
+    }
+
+    /**
+     * Return an upper bound on the latency of the given fraction of samples,
+     * e.g. 0.99 for the 99th percentile, or 0 if nothing was recorded.
+     */
+    public long getPercentileNanos(double fraction) {
+        long c = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            c += buckets.get(i);
+        }
+        if (c == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * c);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank && seen > 0) {
+                return i == BUCKETS - 1 ? Long.MAX_VALUE : 1L << (i + 1);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /** Return a copy of this histogram that does not change any more. */
+    LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        for (int i = 0; i < BUCKETS; i++) {
+            copy.buckets.set(i, buckets.get(i));
+        }
+        copy.count.set(count.get());
+        copy.totalNanos.set(totalNanos.get());
+        return copy;
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+    }
+
+    public String toString() {
+        return String.format("n=%d mean=%.1fus p50<=%dus p99<=%dus", getCount(), getMeanNanos() / 1e3,
+                getPercentileNanos(0.5) / 1000, getPercentileNanos(0.99) / 1000);
+    }
+}
@@ -1,175 +1,714 @@
 package simpledb.storage;
 
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Multi-granularity locks for the BufferPool, on tables and on pages. A
+ * page lock is taken under an intention lock on its table: IS for a shared
+ * page lock, IX for an exclusive one. A transaction that holds a shared or
+ * exclusive lock on a whole table, e.g. for a sequential scan, needs no page
+ * locks on it, so a scan holds one lock however large the table is.
+ * Records can be locked too, under intention locks on their page and table,
+ * so that transactions changing different records of a page share it.
+ * <p>
+ * The lock table is split into stripes, each with its own monitor, so
+ * transactions locking different pages do not contend. Each locked page or
+ * table has a FIFO queue of waiting requests: a release hands the lock
+ * directly to the requests at the head of the queue that it unblocks and
+ * unparks only their threads. Upgrades go to the head of the queue.
+ * <p>
+ * Once a transaction holds as many page locks on one table as the
+ * escalation threshold, they are replaced with a single lock on the table,
+ * shared if it only reads the pages and exclusive otherwise. This is only
+ * done when the table lock can be granted right away, and is tried again at
+ * the next page lock otherwise.
+ * <p>
+ * By default, deadlocks are detected on a graph of which transaction waits
+ * for which. A cycle can only appear when a request starts waiting, so the
+ * search starts from that request and only visits the transactions it
+ * waits for, directly or not. The youngest transaction on the cycle, the
+ * one with the largest id, is aborted, as it has likely done the least
+ * work. The other {@link DeadlockPolicy policies} prevent deadlocks instead
+ * and keep no graph.
+ *
+ * @Threadsafe
+ */
 public class LockManager {
 
+    /** Lock modes, with the intention modes used on tables and pages */
     enum LockType {
+        INTENTION_SHARED,
+        INTENTION_EXCLUSIVE,
         SHARED,
-        EXCLUSIVE
+        SHARED_INTENTION_EXCLUSIVE,
+        EXCLUSIVE;
+
+        // whether two transactions may hold the modes at once, by ordinal
+        private static final boolean[][] COMPATIBLE = {
+                { true,  true,  true,  true,  false },
+                { true,  true,  false, false, false },
+                { true,  false, true,  false, false },
+                { true,  false, false, false, false },
+                { false, false, false, false, false },
+        };
+
+        boolean compatibleWith(LockType other) {
+            return COMPATIBLE[ordinal()][other.ordinal()];
+        }
+
+        /** Whether holding this mode grants everything other does */
+        boolean covers(LockType other) {
+            switch (this) {
+            case EXCLUSIVE:
+                return true;
+            case SHARED_INTENTION_EXCLUSIVE:
+                return other != EXCLUSIVE;
+            case SHARED:
+            case INTENTION_EXCLUSIVE:
+                return other == this || other == INTENTION_SHARED;
+            default:
+                return other == INTENTION_SHARED;
+            }
+        }
+
+        /**
+         * Whether holding this mode on a table or page makes a lock of mode
+         * other on its parts unnecessary: S and SIX cover reads, X covers all
+         */
+        boolean coversParts(LockType other) {
+            return this == EXCLUSIVE || (covers(SHARED) && SHARED.covers(other));
+        }
+
+        /** The weakest mode that covers both this and other */
+        LockType join(LockType other) {
+            if (covers(other)) {
+                return this;
+            }
+            if (other.covers(this)) {
+                return other;
+            }
+            return SHARED_INTENTION_EXCLUSIVE; // SHARED and INTENTION_EXCLUSIVE
+        }
+
+        /** The mode to take on a table or page before taking this mode on a part of it */
+        LockType intention() {
+            return this == SHARED || this == INTENTION_SHARED ? INTENTION_SHARED : INTENTION_EXCLUSIVE;
+        }
     }
 
-    private static class Lock {
-        LockType type;
-        Set<TransactionId> currHolders; // Keeps track of what transactions currently holds a lock for current page
+    /**
+     * How a request that cannot be granted right away avoids or resolves
+     * deadlocks. The prevention policies order transactions by
+     * {@link TransactionId#getId}: smaller ids are older. A transaction that
+     * retries with the same TransactionId after an abort keeps its age, so
+     * it cannot be aborted forever.
+     */
+    public enum DeadlockPolicy {
+        /** Wait, and abort the youngest transaction on a cycle of waiting transactions. */
+        DETECT,
+        /** Wait only for younger transactions; abort rather than wait for an older one. */
+        WAIT_DIE,
+        /**
+         * Abort the younger transactions the request would wait for, and
+         * wait for older ones. A running transaction that was wounded aborts
+         * at its next lock request.
+         */
+        WOUND_WAIT,
+        /** Abort rather than wait. */
+        NO_WAIT
+    }
+
+    private static final int NUM_STRIPES = 64;
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 5000;
 
-        Lock(LockType type) {
+    /** A request that waits in the queue of a page or table until it is granted */
+    private static class Request {
+        final TransactionId tid;
+        final LockType type;
+        final Thread thread;
+        volatile boolean granted = false;
+        volatile boolean aborted = false; // chosen as a deadlock victim, or wounded
+
+        Request(TransactionId tid, LockType type) {
+            this.tid = tid;
             this.type = type;
-            this.currHolders = new HashSet<>();
+            this.thread = Thread.currentThread();
         }
     }
 
-    private final Map<PageId, Lock> lockMap = new HashMap<>(); // Keeps track of what locks are tied to a given page
-    private final Map<TransactionId, Set<PageId>> pagesMap = new HashMap<>(); // Keeps track of what pages a transaction
-                                                                              // is holding a lock on
+    /** The holders of the lock on a record, page or table, with their modes, and the requests waiting for it */
+    private static class Lock {
+        final Map<TransactionId, LockType> currHolders = new HashMap<>();
+        final Deque<Request> waiters = new ArrayDeque<>();
+    }
+
+    /** A part of the lock table; its monitor guards its locks */
+    private static class Stripe {
+        // keyed by RecordId, PageId, or by the Integer id of a table
+        final Map<Object, Lock> lockMap = new HashMap<>();
+    }
+
+    private final Stripe[] stripes = new Stripe[NUM_STRIPES];
+    // pages each transaction holds a lock on, by table; the sets are written under the stripe of the page
+    private final Map<TransactionId, Map<Integer, Set<PageId>>> pagesMap = new ConcurrentHashMap<>();
+    // modes each transaction holds on tables; written under the stripe of the table, read
+    // without it by the transaction itself, whose modes only grow until it completes
+    private final Map<TransactionId, Map<Integer, LockType>> tablesMap = new ConcurrentHashMap<>();
+    // records each transaction holds a lock on; the sets are written under the stripe of the record
+    private final Map<TransactionId, Set<RecordId>> recordsMap = new ConcurrentHashMap<>();
+    // guarded by itself, and only taken inside a stripe monitor; DETECT only
     private final Map<TransactionId, Set<TransactionId>> waitForGraph = new HashMap<>();
+    private final Map<TransactionId, Request> waiting = new ConcurrentHashMap<>();
+    private final Set<TransactionId> wounded = ConcurrentHashMap.newKeySet(); // WOUND_WAIT only
+    private volatile DeadlockPolicy policy = DeadlockPolicy.DETECT;
+    private volatile int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
 
-    public synchronized boolean holdsLock(TransactionId tid, PageId pid) {
-        Lock lock = lockMap.get(pid);
-        return lock != null && lock.currHolders.contains(tid);
+    public LockManager() {
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
     }
 
-    public synchronized void releaseLock(TransactionId tid, PageId pid) {
-        Lock lock = lockMap.get(pid);
-        if (lock != null) {
-            lock.currHolders.remove(tid);
-            if (lock.currHolders.isEmpty()) {
-                lockMap.remove(pid);
-            }
+    /**
+     * Choose how requests that would wait avoid or resolve deadlocks. Change
+     * it only while no transaction waits for a lock.
+     */
+    public void setDeadlockPolicy(DeadlockPolicy policy) {
+        this.policy = policy;
+        synchronized (waitForGraph) {
+            waitForGraph.clear();
         }
+    }
 
-        Set<PageId> pages = pagesMap.get(tid);
+    public DeadlockPolicy getDeadlockPolicy() {
+        return policy;
+    }
+
+    /**
+     * Set the number of page locks a transaction may hold on one table
+     * before they are escalated to a table lock; 0 disables escalation.
+     */
+    public void setEscalationThreshold(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("negative escalation threshold " + threshold);
+        }
+        escalationThreshold = threshold;
+    }
+
+    public int getEscalationThreshold() {
+        return escalationThreshold;
+    }
+
+    private Stripe stripeOf(Object key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (NUM_STRIPES - 1)];
+    }
+
+    /** The mode tid holds on a table, or null */
+    private LockType tableMode(TransactionId tid, Integer tableId) {
+        Map<Integer, LockType> tables = tablesMap.get(tid);
+        return tables == null ? null : tables.get(tableId);
+    }
+
+    /** Whether tid can read pid, through a lock on the page or on its table */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        LockType table = tableMode(tid, pid.getTableId());
+        if (table != null && table.coversParts(LockType.SHARED)) {
+            return true;
+        }
+        Stripe stripe = stripeOf(pid);
+        synchronized (stripe) {
+            Lock lock = stripe.lockMap.get(pid);
+            return lock != null && lock.currHolders.containsKey(tid);
+        }
+    }
+
+    /**
+     * Release the lock tid holds on pid. The intention lock on its table is
+     * kept until {@link #releaseAllLocks}.
+     */
+    public void releaseLock(TransactionId tid, PageId pid) {
+        Stripe stripe = stripeOf(pid);
+        synchronized (stripe) {
+            release(stripe, tid, pid);
+        }
+        Map<Integer, Set<PageId>> tables = pagesMap.get(tid);
+        Set<PageId> pages = tables == null ? null : tables.get(pid.getTableId());
         if (pages != null) {
             pages.remove(pid);
-            if (pages.isEmpty()) {
-                pagesMap.remove(tid);
-            }
         }
-
-        removeWaitEdgesPointingTo(tid);
-        notifyAll();
     }
 
-    public synchronized void releaseAllLocks(TransactionId tid) {
-        Set<PageId> pages = pagesMap.get(tid);
+    public void releaseAllLocks(TransactionId tid) {
+        Set<RecordId> records = recordsMap.remove(tid);
+        if (records != null) {
+            for (RecordId rid : records) {
+                Stripe stripe = stripeOf(rid);
+                synchronized (stripe) {
+                    release(stripe, tid, rid);
+                }
+            }
+        }
+        Map<Integer, Set<PageId>> pages = pagesMap.remove(tid);
         if (pages != null) {
-            for (PageId pid : new HashSet<>(pages)) {
-                releaseLock(tid, pid);
+            for (Set<PageId> tablePages : pages.values()) {
+                releasePages(tid, tablePages);
             }
         }
+        Map<Integer, LockType> tables = tablesMap.remove(tid);
+        if (tables != null) {
+            for (Integer tableId : tables.keySet()) {
+                Stripe stripe = stripeOf(tableId);
+                synchronized (stripe) {
+                    release(stripe, tid, tableId);
+                }
+            }
+        }
+        waiting.remove(tid);
+        wounded.remove(tid);
+        if (policy == DeadlockPolicy.DETECT) {
+            synchronized (waitForGraph) {
+                waitForGraph.remove(tid);
+            }
+        }
+    }
+
+    /**
+     * Acquire a SHARED or EXCLUSIVE lock on pid for tid, after the matching
+     * intention lock on its table, waiting while other transactions hold
+     * conflicting locks or requested them earlier. Nothing is locked if tid
+     * already holds a lock on the table that covers the page.
+     *
+     * @throws TransactionAbortedException if the deadlock policy aborts tid,
+     *         or the thread is interrupted while waiting
+     */
+    public void acquireLock(TransactionId tid, PageId pid, LockType type)
+            throws TransactionAbortedException {
+        if (wounded.contains(tid)) {
+            throw new TransactionAbortedException();
+        }
+        Integer tableId = pid.getTableId();
+        LockType table = tableMode(tid, tableId);
+        if (table != null && table.coversParts(type)) {
+            return;
+        }
+        if (table == null || !table.covers(type.intention())) {
+            acquire(tid, tableId, type.intention());
+        }
+        acquire(tid, pid, type);
+        int threshold = escalationThreshold;
+        if (threshold > 0) {
+            escalate(tid, tableId, threshold);
+        }
+    }
 
-        waitForGraph.remove(tid);
-        removeWaitEdgesPointingTo(tid);
-        notifyAll();
+    /**
+     * Acquire a SHARED or EXCLUSIVE lock on a record for tid, after the
+     * matching intention locks on its page and table, waiting as
+     * {@link #acquireLock} does. Nothing more is locked if tid already holds
+     * a lock on the page or table that covers the record.
+     *
+     * @throws TransactionAbortedException if the deadlock policy aborts tid,
+     *         or the thread is interrupted while waiting
+     */
+    public void acquireRecordLock(TransactionId tid, RecordId rid, LockType type)
+            throws TransactionAbortedException {
+        PageId pid = rid.getPageId();
+        acquireLock(tid, pid, type.intention());
+        if (!covered(tid, pid, type)) {
+            acquire(tid, rid, type);
+        }
     }
 
-    public synchronized void acquireLock(TransactionId tid, PageId pid, LockType type)
-            throws simpledb.transaction.TransactionAbortedException {
+    /**
+     * Acquire a lock on a record if it can be granted right away, after the
+     * intention locks on its page and table. The intention locks are kept
+     * even if the record lock is not granted.
+     *
+     * @return true if tid now holds the lock
+     */
+    public boolean tryAcquireRecordLock(TransactionId tid, RecordId rid, LockType type) {
+        PageId pid = rid.getPageId();
+        if (!tryAcquireLock(tid, pid, type.intention())) {
+            return false;
+        }
+        if (covered(tid, pid, type)) {
+            return true;
+        }
+        Stripe stripe = stripeOf(rid);
+        synchronized (stripe) {
+            return grant(stripe, tid, rid, type);
+        }
+    }
 
-        while (true) {
-            Lock currLock = lockMap.get(pid);
+    /* Whether the lock tid holds on pid or its table covers type on a record of the page */
+    private boolean covered(TransactionId tid, PageId pid, LockType type) {
+        LockType table = tableMode(tid, pid.getTableId());
+        if (table != null && table.coversParts(type)) {
+            return true;
+        }
+        Stripe stripe = stripeOf(pid);
+        synchronized (stripe) {
+            Lock lock = stripe.lockMap.get(pid);
+            LockType page = lock == null ? null : lock.currHolders.get(tid);
+            return page != null && page.coversParts(type);
+        }
+    }
 
-            // New lock
-            if (currLock == null) {
-                Lock newLock = new Lock(type);
-                newLock.currHolders.add(tid);
-                lockMap.put(pid, newLock);
-                pagesMap.computeIfAbsent(tid, k -> new HashSet<>()).add(pid);
-                waitForGraph.remove(tid); // clear wait edges from this txn
-                notifyAll();
+    /*
+     * Replace the page locks tid holds on a table with a table lock if there
+     * are at least threshold of them and the table lock is free to take.
+     */
+    private void escalate(TransactionId tid, Integer tableId, int threshold) {
+        Map<Integer, Set<PageId>> tables = pagesMap.get(tid);
+        Set<PageId> pages = tables == null ? null : tables.get(tableId);
+        if (pages == null || pages.size() < threshold) {
+            return;
+        }
+        LockType type = tableMode(tid, tableId) == LockType.INTENTION_SHARED
+                ? LockType.SHARED : LockType.EXCLUSIVE;
+        Stripe stripe = stripeOf(tableId);
+        synchronized (stripe) {
+            if (!grant(stripe, tid, tableId, type)) {
                 return;
             }
+        }
+        tables.remove(tableId);
+        releasePages(tid, pages);
+    }
 
-            // Upgrade/downgrade existing lock
-            if (type == LockType.SHARED) {
-                if (currLock.type == LockType.SHARED ||
-                        (currLock.type == LockType.EXCLUSIVE && currLock.currHolders.contains(tid)
-                                && currLock.currHolders.size() == 1)) {
-                    currLock.currHolders.add(tid);
-                    currLock.type = LockType.SHARED;
-                    pagesMap.computeIfAbsent(tid, k -> new HashSet<>()).add(pid);
-                    waitForGraph.remove(tid);
-                    notifyAll();
-                    return;
-                }
+    private void releasePages(TransactionId tid, Set<PageId> pages) {
+        for (PageId pid : pages) {
+            Stripe stripe = stripeOf(pid);
+            synchronized (stripe) {
+                release(stripe, tid, pid);
+            }
+        }
+    }
+
+    /**
+     * Acquire a lock of any mode on a whole table for tid, waiting as
+     * {@link #acquireLock} does. A SHARED or EXCLUSIVE table lock covers all
+     * pages of the table.
+     *
+     * @throws TransactionAbortedException if the deadlock policy aborts tid,
+     *         or the thread is interrupted while waiting
+     */
+    public void acquireTableLock(TransactionId tid, int tableId, LockType type)
+            throws TransactionAbortedException {
+        if (wounded.contains(tid)) {
+            throw new TransactionAbortedException();
+        }
+        acquire(tid, tableId, type);
+    }
+
+    /* Acquire the lock on a page or table, waiting if needed */
+    private void acquire(TransactionId tid, Object key, LockType type)
+            throws TransactionAbortedException {
+        Stripe stripe = stripeOf(key);
+        DeadlockPolicy policy = this.policy;
+        Request request;
+        synchronized (stripe) {
+            if (grant(stripe, tid, key, type)) {
+                return;
+            }
+            Lock lock = stripe.lockMap.get(key);
+            LockType held = lock.currHolders.get(tid);
+            if (held != null) {
+                request = new Request(tid, held.join(type));
+                lock.waiters.addFirst(request); // upgrade
             } else {
-                // LockType.EXCLUSIVE
-                if (currLock.currHolders.contains(tid) && currLock.currHolders.size() == 1) {
-                    currLock.type = LockType.EXCLUSIVE;
-                    notifyAll();
-                    return;
-                }
+                request = new Request(tid, type);
+                lock.waiters.addLast(request);
             }
 
-            addWaitForEdges(tid, currLock.currHolders);
+            List<Request> victims = new ArrayList<>();
+            waiting.put(tid, request);
+            switch (policy) {
+            case DETECT:
+                // the request may close several cycles, so keep choosing
+                // victims until none is left
+                synchronized (waitForGraph) {
+                    waitForGraph.put(tid, blockers(lock, request));
+                    List<TransactionId> cycle;
+                    while (!request.aborted && (cycle = findCycle(tid)) != null) {
+                        TransactionId youngest = Collections.max(cycle, Comparator.comparingLong(TransactionId::getId));
+                        Request victim = waiting.getOrDefault(youngest, request);
+                        victim.aborted = true;
+                        waitForGraph.remove(victim.tid);
+                        waiting.remove(victim.tid, victim);
+                        victims.add(victim);
+                    }
+                }
+                break;
+            case WAIT_DIE:
+                for (TransactionId blocker : blockers(lock, request)) {
+                    if (blocker.getId() < tid.getId()) {
+                        request.aborted = true;
+                    }
+                }
+                break;
+            case WOUND_WAIT:
+                for (TransactionId blocker : blockers(lock, request)) {
+                    if (blocker.getId() > tid.getId()) {
+                        wounded.add(blocker);
+                        Request victim = waiting.get(blocker);
+                        if (victim != null) {
+                            victim.aborted = true;
+                            victims.add(victim);
+                        }
+                    }
+                }
+                // tid may have been wounded before it was found waiting
+                if (wounded.contains(tid)) {
+                    request.aborted = true;
+                }
+                break;
+            case NO_WAIT:
+                request.aborted = true;
+                break;
+            }
+            if (request.aborted) {
+                cancel(stripe, key, lock, request);
+            }
+            for (Request victim : victims) {
+                LockSupport.unpark(victim.thread);
+            }
+            if (request.aborted) {
+                throw new TransactionAbortedException(); // abort if deadlock detected
+            }
+        }
 
-            // Deadlock Detection
-            if (detectCycle()) {
-                removeWaitEdgesFrom(tid);
-                throw new simpledb.transaction.TransactionAbortedException(); // abort if deadlock detected
+        while (!request.granted) {
+            LockSupport.park(this);
+            if (request.aborted || Thread.interrupted()) {
+                synchronized (stripe) {
+                    if (!request.granted) {
+                        cancel(stripe, key, stripe.lockMap.get(key), request);
+                        throw new TransactionAbortedException();
+                    }
+                }
             }
-            try {
-                wait(100);
+        }
+    }
 
-            } catch (InterruptedException e) {
-                throw new simpledb.transaction.TransactionAbortedException();
+    /**
+     * Acquire the lock on pid and the intention lock on its table if they
+     * can be granted right away, without waiting. If the page lock is not
+     * granted, the table lock is left as it was.
+     *
+     * @return true if tid now holds the lock
+     */
+    public boolean tryAcquireLock(TransactionId tid, PageId pid, LockType type) {
+        Integer tableId = pid.getTableId();
+        LockType table = tableMode(tid, tableId);
+        if (table != null && table.coversParts(type)) {
+            return true;
+        }
+        Stripe tableStripe = stripeOf(tableId);
+        if (table == null || !table.covers(type.intention())) {
+            synchronized (tableStripe) {
+                if (!grant(tableStripe, tid, tableId, type.intention())) {
+                    return false;
+                }
+            }
+        }
+        Stripe stripe = stripeOf(pid);
+        synchronized (stripe) {
+            if (grant(stripe, tid, pid, type)) {
+                return true;
+            }
+        }
+        synchronized (tableStripe) {
+            if (table == null) {
+                release(tableStripe, tid, tableId);
+                tablesMap.get(tid).remove(tableId);
+            } else {
+                // e.g. IS upgraded to IX, which would keep S and SIX requests out
+                restore(tableStripe, tid, tableId, table);
             }
         }
+        return false;
     }
 
-    private void addWaitForEdges(TransactionId waiter, Set<TransactionId> holders) {
-        Set<TransactionId> edges = waitForGraph.computeIfAbsent(waiter, k -> new HashSet<>());
+    /* Return the lock tid holds on key to mode type, and grant the requests that lets in */
+    private void restore(Stripe stripe, TransactionId tid, Object key, LockType type) {
+        Lock lock = stripe.lockMap.get(key);
+        if (lock != null && lock.currHolders.get(tid) != type) {
+            hold(lock, key, tid, type);
+            grantWaiters(stripe, key, lock);
+        }
+    }
 
-        // Prevent adding an edge to itself
-        for (TransactionId holder : holders) {
-            if (!holder.equals(waiter)) {
-                edges.add(holder);
+    /* Grant a new request if it is compatible with the holders and no request is waiting */
+    private boolean grant(Stripe stripe, TransactionId tid, Object key, LockType type) {
+        Lock currLock = stripe.lockMap.get(key);
+
+        // New lock
+        if (currLock == null) {
+            currLock = new Lock();
+            stripe.lockMap.put(key, currLock);
+            hold(currLock, key, tid, type);
+            return true;
+        }
+
+        LockType held = currLock.currHolders.get(tid);
+        if (held != null) {
+            // already held in a mode at least as strong, or an upgrade
+            if (held.covers(type)) {
+                return true;
             }
+            LockType wanted = held.join(type);
+            if (compatible(currLock, tid, wanted)) {
+                hold(currLock, key, tid, wanted);
+                return true;
+            }
+            return false;
+        }
+
+        if (currLock.waiters.isEmpty() && compatible(currLock, tid, type)) {
+            hold(currLock, key, tid, type);
+            return true;
         }
+        return false;
     }
 
-    /* Remove all edges from tid */
-    private void removeWaitEdgesFrom(TransactionId tid) {
-        waitForGraph.remove(tid);
+    /* Make tid a holder of lock in mode type */
+    private void hold(Lock lock, Object key, TransactionId tid, LockType type) {
+        lock.currHolders.put(tid, type);
+        if (key instanceof RecordId) {
+            recordsMap.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add((RecordId) key);
+        } else if (key instanceof PageId) {
+            PageId pid = (PageId) key;
+            pagesMap.computeIfAbsent(tid, k -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(pid.getTableId(), k -> ConcurrentHashMap.newKeySet()).add(pid);
+        } else {
+            tablesMap.computeIfAbsent(tid, k -> new ConcurrentHashMap<>()).put((Integer) key, type);
+        }
     }
 
-    /* Remove all edges that point to tid */
-    private void removeWaitEdgesPointingTo(TransactionId tid) {
-        for (Set<TransactionId> edges : waitForGraph.values()) {
-            edges.remove(tid);
+    /* Whether tid can hold lock in mode type alongside the other holders */
+    private static boolean compatible(Lock lock, TransactionId tid, LockType type) {
+        for (Map.Entry<TransactionId, LockType> holder : lock.currHolders.entrySet()) {
+            if (!holder.getKey().equals(tid) && !holder.getValue().compatibleWith(type)) {
+                return false;
+            }
         }
+        return true;
     }
 
-    /* DFS cycle detection */
-    private boolean detectCycle() {
-        Set<TransactionId> visited = new HashSet<>();
-        Set<TransactionId> stack = new HashSet<>();
+    /* Remove tid from the holders of the lock on key and pass the lock on */
+    private void release(Stripe stripe, TransactionId tid, Object key) {
+        Lock lock = stripe.lockMap.get(key);
+        if (lock != null && lock.currHolders.remove(tid) != null) {
+            grantWaiters(stripe, key, lock);
+        }
+    }
 
-        for (TransactionId tid : waitForGraph.keySet()) {
-            if (dfs(tid, visited, stack)) {
-                return true;
+    /* Give up a waiting request, e.g. of a transaction about to abort */
+    private void cancel(Stripe stripe, Object key, Lock lock, Request request) {
+        lock.waiters.remove(request);
+        waiting.remove(request.tid, request);
+        if (policy == DeadlockPolicy.DETECT) {
+            synchronized (waitForGraph) {
+                waitForGraph.remove(request.tid);
             }
         }
-        return false;
+        grantWaiters(stripe, key, lock);
     }
 
-    private boolean dfs(TransactionId node, Set<TransactionId> visited, Set<TransactionId> stack) {
-        if (stack.contains(node))
-            return true;
-        if (visited.contains(node))
-            return false;
+    /*
+     * Grant the requests at the head of the queue that are compatible with
+     * the holders, wake their threads, and update the edges of the requests
+     * that still wait. Drops the lock once nobody holds or wants it.
+     */
+    private void grantWaiters(Stripe stripe, Object key, Lock lock) {
+        List<Request> granted = new ArrayList<>();
+        while (!lock.waiters.isEmpty()) {
+            Request next = lock.waiters.peekFirst();
+            if (!compatible(lock, next.tid, next.type)) {
+                break;
+            }
+            lock.waiters.pollFirst();
+            hold(lock, key, next.tid, next.type);
+            granted.add(next);
+        }
+        if (lock.currHolders.isEmpty()) {
+            stripe.lockMap.remove(key);
+        }
 
-        visited.add(node);
-        stack.add(node);
+        for (Request request : granted) {
+            waiting.remove(request.tid, request);
+        }
+        if (policy == DeadlockPolicy.DETECT) {
+            synchronized (waitForGraph) {
+                for (Request request : granted) {
+                    waitForGraph.remove(request.tid);
+                }
+                for (Request request : lock.waiters) {
+                    if (!request.aborted) {
+                        waitForGraph.put(request.tid, blockers(lock, request));
+                    }
+                }
+            }
+        }
+        for (Request request : granted) {
+            request.granted = true;
+            LockSupport.unpark(request.thread);
+        }
+    }
 
-        for (TransactionId neighbor : waitForGraph.getOrDefault(node, Collections.emptySet())) {
-            if (dfs(neighbor, visited, stack)) {
-                return true;
+    /* The transactions request waits for: the holders it conflicts with and the requests ahead of it */
+    private static Set<TransactionId> blockers(Lock lock, Request request) {
+        Set<TransactionId> edges = new HashSet<>();
+        for (Map.Entry<TransactionId, LockType> holder : lock.currHolders.entrySet()) {
+            if (!holder.getValue().compatibleWith(request.type)) {
+                edges.add(holder.getKey());
+            }
+        }
+        for (Request ahead : lock.waiters) {
+            if (ahead == request) {
+                break;
             }
+            edges.add(ahead.tid);
         }
+        // Prevent adding an edge to itself
+        edges.remove(request.tid);
+        return edges;
+    }
 
-        stack.remove(node);
-        return false;
+    /*
+     * Search the transactions that start waits for, directly or not, for a
+     * path back to start. Return the transactions on that cycle, or null.
+     */
+    private List<TransactionId> findCycle(TransactionId start) {
+        Set<TransactionId> visited = new HashSet<>();
+        Deque<TransactionId> path = new ArrayDeque<>();
+        Deque<Iterator<TransactionId>> edges = new ArrayDeque<>();
+        path.push(start);
+        edges.push(waitForGraph.getOrDefault(start, Collections.emptySet()).iterator());
+        visited.add(start);
+
+        while (!edges.isEmpty()) {
+            Iterator<TransactionId> next = edges.peek();
+            if (!next.hasNext()) {
+                edges.pop();
+                path.pop();
+                continue;
+            }
+            TransactionId neighbor = next.next();
+            if (neighbor.equals(start)) {
+                return new ArrayList<>(path);
+            }
+            if (visited.add(neighbor)) {
+                path.push(neighbor);
+                edges.push(waitForGraph.getOrDefault(neighbor, Collections.emptySet()).iterator());
+            }
+        }
+        return null;
     }
-}
\ No newline at end of file
+}
@@ -209,18 +209,22 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
+        // build the record in memory and append it with one write
+        ByteArrayOutputStream record = new ByteArrayOutputStream(2 * BufferPool.getPageSize() + 256);
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeInt(UPDATE_RECORD);
+        out.writeLong(tid.getId());
+
+        writePageData(out,before);
+        writePageData(out,after);
+        out.writeLong(currentOffset);
+        raf.write(record.toByteArray());
         currentOffset = raf.getFilePointer();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    void writePageData(DataOutput raf, Page p) throws IOException{
         PageId pid = p.getId();
         int[] pageInfo = pid.serialize();
 
@@ -348,6 +352,21 @@ public class LogFile {
         }
 
         logTruncate();
+
+        try {
+            Database.getBufferPool().saveHotPages(getHotPagesFile());
+        } catch (IOException e) {
+            // the page list only speeds up the next start; the checkpoint stands
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Return the file the buffer pool's page list is saved to at each
+     * checkpoint, next to the log, for {@link BufferPool#warmUp}.
+     */
+    public File getHotPagesFile() {
+        return new File(logFile.getPath() + ".hot");
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
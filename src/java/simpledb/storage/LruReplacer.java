@@ -0,0 +1,75 @@
+package simpledb.storage;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * LruReplacer evicts the least recently used evictable page. Pages are kept
+ * in an access-ordered LinkedHashMap, so every hit relinks a list node under
+ * this replacer's monitor, and a victim search walks from the eldest entry
+ * past every page that cannot be evicted.
+ * <p>
+ * This is the policy BufferPool used before it had a clock; it is kept as a
+ * baseline to compare other policies against.
+ *
+ * @Threadsafe all methods synchronize on this
+ */
+public class LruReplacer implements ReplacementPolicy {
+
+    private final LinkedHashMap<PageId, Boolean> order = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReplacementStats stats = new ReplacementStats();
+
+    public synchronized void recordLoad(PageId pid) {
+        stats.recordMiss();
+        order.put(pid, Boolean.TRUE);
+    }
+
+    public synchronized void recordAccess(PageId pid) {
+        stats.recordHit();
+        order.get(pid);
+    }
+
+    public synchronized void remove(PageId pid) {
+        order.remove(pid);
+    }
+
+    /**
+     * Put pid back as the least recently used page. A LinkedHashMap only
+     * appends, so the map is rebuilt; this only happens when a victim is
+     * pinned between the search and its removal.
+     */
+    public synchronized void reinsert(PageId pid) {
+        if (order.containsKey(pid)) {
+            return;
+        }
+        LinkedHashMap<PageId, Boolean> rest = new LinkedHashMap<>(order);
+        order.clear();
+        order.put(pid, Boolean.TRUE);
+        order.putAll(rest);
+    }
+
+    public synchronized PageId victim(Predicate<PageId> evictable) {
+        stats.recordEvictionScan();
+        Iterator<PageId> it = order.keySet().iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            stats.recordFrameScanned();
+            if (evictable.test(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    /** Return the tracked ids, most recently used first. */
+    public synchronized List<PageId> hotPages() {
+        List<PageId> hot = new ArrayList<>(order.keySet());
+        Collections.reverse(hot);
+        return hot;
+    }
+
+    public ReplacementStats getStats() {
+        return stats;
+    }
+}
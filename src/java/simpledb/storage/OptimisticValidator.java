@@ -0,0 +1,110 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OptimisticValidator keeps the read and write sets of BufferPool's
+ * optimistic transactions, and the commit timestamps they are validated
+ * against.
+ * <p>
+ * Every commit that changes the committed version of a page, optimistic or
+ * not, calls {@link #committed} once the page's before image is set to the
+ * new version; the page is then stamped with the next timestamp. A read
+ * records the stamp of the page before the page is taken, so the version
+ * read is never older than the stamp. Validation fails if any page read
+ * has been stamped since.
+ * <p>
+ * Stamps only matter for commits made while optimistic transactions run.
+ * Stamps older than the start of every running one are dropped, which is
+ * the same to validation as a stamp of 0.
+ *
+ * @Threadsafe
+ */
+class OptimisticValidator {
+
+    private static class Txn {
+        final long start;
+        final Map<PageId, Long> reads = new ConcurrentHashMap<>();
+        final Map<PageId, Page> writes = new ConcurrentHashMap<>();
+
+        Txn(long start) {
+            this.start = start;
+        }
+    }
+
+    private final Map<TransactionId, Txn> txns = new ConcurrentHashMap<>();
+    private final Map<PageId, Long> stamps = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+
+    void begin(TransactionId tid) {
+        txns.putIfAbsent(tid, new Txn(clock.get()));
+    }
+
+    boolean isOptimistic(TransactionId tid) {
+        return txns.containsKey(tid);
+    }
+
+    /** Return tid's private copy of pid, or null if it has none */
+    Page written(TransactionId tid, PageId pid) {
+        return txn(tid).writes.get(pid);
+    }
+
+    /** Record that tid reads pid; must be called before the page is taken */
+    void read(TransactionId tid, PageId pid) {
+        txn(tid).reads.putIfAbsent(pid, stamps.getOrDefault(pid, 0L));
+    }
+
+    /** Add page, which only tid uses, to the pages tid writes */
+    void write(TransactionId tid, Page page) {
+        txn(tid).writes.putIfAbsent(page.getId(), page);
+    }
+
+    Collection<Page> writes(TransactionId tid) {
+        return txn(tid).writes.values();
+    }
+
+    /** Return true if no page tid read has been committed since it was read */
+    boolean validate(TransactionId tid) {
+        for (Map.Entry<PageId, Long> read : txn(tid).reads.entrySet()) {
+            if (stamps.getOrDefault(read.getKey(), 0L) > read.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Forget tid, and the stamps no running transaction needs any more */
+    void end(TransactionId tid) {
+        if (txns.remove(tid) == null) {
+            return;
+        }
+        long oldest = clock.get();
+        for (Txn txn : txns.values()) {
+            oldest = Math.min(oldest, txn.start);
+        }
+        long bound = oldest;
+        stamps.values().removeIf(stamp -> stamp <= bound);
+    }
+
+    /** Stamp pids, whose before images were just set to a new committed version */
+    void committed(Collection<PageId> pids) {
+        if (txns.isEmpty()) {
+            return;
+        }
+        for (PageId pid : pids) {
+            stamps.put(pid, clock.incrementAndGet());
+        }
+    }
+
+    private Txn txn(TransactionId tid) {
+        Txn txn = txns.get(tid);
+        if (txn == null) {
+            throw new IllegalArgumentException(tid + " is not an optimistic transaction");
+        }
+        return txn;
+    }
+}
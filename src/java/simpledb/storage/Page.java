@@ -58,4 +58,16 @@ public interface Page {
      * copy current content to the before image.
      */
     void setBeforeImage();
+
+    /**
+     * Undo, in place, the changes made to this page since its before image
+     * was last set, if the page keeps track of them. Used to abort a
+     * transaction without building a new page from the before image.
+     *
+     * @return false if the changes are not known, in which case the page is
+     *         unchanged and getBeforeImage must be used instead
+     */
+    default boolean rollback() {
+        return false;
+    }
 }
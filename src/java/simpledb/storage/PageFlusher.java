@@ -0,0 +1,91 @@
+package simpledb.storage;
+
+/**
+ * PageFlusher is the background thread of a BufferPool in write-behind
+ * mode. Committed transactions leave their dirty pages in the pool; the
+ * flusher writes them out in page-number order so that commits and
+ * evictions rarely have to wait for a random write.
+ * <p>
+ * Every interval the flusher checks what share of the pool is dirty with
+ * committed data. Above the high-water mark it flushes until the share is
+ * back down to half the mark; below it, it trickles out a small batch so
+ * that an idle pool drains over time. A commit that pushes the pool over
+ * the mark wakes the flusher early.
+ *
+ * @Threadsafe
+ */
+class PageFlusher implements Runnable {
+
+    /** Pages written per interval while the pool is below the high-water mark. */
+    static final int TRICKLE_PAGES = 16;
+
+    private final BufferPool pool;
+    private final double highWater;
+    private final long intervalMs;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    PageFlusher(BufferPool pool, double highWater, long intervalMs) {
+        this.pool = pool;
+        this.highWater = highWater;
+        this.intervalMs = intervalMs;
+        this.thread = new Thread(this, "simpledb-page-flusher");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /** Stop the thread and wait for it to finish its current batch. */
+    void stop() {
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    double getHighWater() {
+        return highWater;
+    }
+
+    /** Wake the flusher if the committed dirty ratio is over the high-water mark. */
+    void poke(double dirtyRatio) {
+        if (dirtyRatio > highWater) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    public void run() {
+        while (running) {
+            try {
+                if (pool.committedDirtyRatio() > highWater) {
+                    while (running && pool.committedDirtyRatio() > highWater / 2) {
+                        if (pool.flushCommittedPages(TRICKLE_PAGES) == 0) {
+                            break; // everything left is locked; try again later
+                        }
+                    }
+                } else {
+                    pool.flushCommittedPages(TRICKLE_PAGES);
+                }
+                synchronized (this) {
+                    if (running) {
+                        wait(intervalMs);
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                // a failed write leaves the page dirty; it is retried next round
+                e.printStackTrace();
+            }
+        }
+    }
+}
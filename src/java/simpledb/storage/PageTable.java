@@ -0,0 +1,284 @@
+package simpledb.storage;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * PageTable is the map from resident PageIds to cached Pages used by
+ * BufferPool. It is striped into a fixed number of shards by PageId hash.
+ * Lookups never block; changes to a shard are serialized by the shard's
+ * monitor so that the {@link ReplacementPolicy} sees loads and removals in
+ * the same order as the map does. Whether a cache hit takes a lock is up to
+ * the policy; the default {@link TwoQueueReplacer} only sets a reference
+ * bit.
+ * <p>
+ * The table does not enforce a capacity; BufferPool compares {@link #size}
+ * against its own limit and decides when to call {@link #evict}.
+ * <p>
+ * A page is kept from eviction while it is pinned or held. Pins are
+ * counted, one per user of the page (e.g. an iterator); a hold is a single
+ * flag for a page that has changes the pool must not lose (NO STEAL).
+ * <p>
+ * Lock order: a shard monitor may be held while calling into the policy,
+ * never the other way around.
+ *
+ * @Threadsafe
+ */
+class PageTable {
+
+    private static class Shard {
+        final Map<PageId, Page> pages = new ConcurrentHashMap<>();
+        // changed under the shard monitor; read without it by evict's search
+        final Map<PageId, Integer> pins = new ConcurrentHashMap<>();
+        final Set<PageId> held = ConcurrentHashMap.newKeySet();
+
+        boolean pinnedOrHeld(PageId pid) {
+            return pins.containsKey(pid) || held.contains(pid);
+        }
+    }
+
+    private final Shard[] shards;
+    private final int mask;
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final Map<Integer, AtomicInteger> tableSizes = new ConcurrentHashMap<>();
+    private final ReplacementPolicy replacer;
+
+    /**
+     * Creates a PageTable with the given number of shards.
+     *
+     * @param numShards number of shards, rounded up to a power of two
+     * @param policy    the replacement policy that chooses eviction victims
+     */
+    PageTable(int numShards, ReplacementPolicy policy) {
+        replacer = policy;
+        int n = 1;
+        while (n < numShards) {
+            n <<= 1;
+        }
+        shards = new Shard[n];
+        for (int i = 0; i < n; i++) {
+            shards[i] = new Shard();
+        }
+        mask = n - 1;
+    }
+
+    private Shard shardFor(PageId pid) {
+        int h = pid.hashCode();
+        return shards[(h ^ (h >>> 16)) & mask];
+    }
+
+    /** Return the cached page for pid, or null, and mark it recently used. */
+    Page get(PageId pid) {
+        Page page = shardFor(pid).pages.get(pid);
+        if (page != null) {
+            replacer.recordAccess(pid);
+        }
+        return page;
+    }
+
+    /** Return the cached page for pid, or null, without counting an access. */
+    Page peek(PageId pid) {
+        return shardFor(pid).pages.get(pid);
+    }
+
+    /** Return the number of resident pages. */
+    int size() {
+        return size.get();
+    }
+
+    /** Return the number of resident pages of the given table. */
+    int tableSize(int tableId) {
+        AtomicInteger n = tableSizes.get(tableId);
+        return n == null ? 0 : n.get();
+    }
+
+    private void added(PageId pid) {
+        size.incrementAndGet();
+        tableSizes.computeIfAbsent(pid.getTableId(), k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private void removed(PageId pid) {
+        size.decrementAndGet();
+        tableSizes.get(pid.getTableId()).decrementAndGet();
+    }
+
+    /**
+     * Cache page unless another page with the same id is already resident.
+     *
+     * @return the page already resident, or null if page was added
+     */
+    Page putIfAbsent(Page page) {
+        PageId pid = page.getId();
+        Shard shard = shardFor(pid);
+        synchronized (shard) {
+            Page resident = shard.pages.putIfAbsent(pid, page);
+            if (resident == null) {
+                replacer.recordLoad(pid);
+                added(pid);
+            } else {
+                replacer.recordAccess(pid);
+            }
+            return resident;
+        }
+    }
+
+    /**
+     * Cache page, replacing any resident version of it. Replacing a resident
+     * page does not count as an access; callers fetched it through get.
+     *
+     * @return the page previously resident under the same id, or null
+     */
+    Page put(Page page) {
+        PageId pid = page.getId();
+        Shard shard = shardFor(pid);
+        synchronized (shard) {
+            Page previous = shard.pages.put(pid, page);
+            if (previous == null) {
+                replacer.recordLoad(pid);
+                added(pid);
+            }
+            return previous;
+        }
+    }
+
+    /**
+     * Pin page if it is the resident page for its id, adding one to its pin
+     * count. Pins last until the matching {@link #unpin}, or until the page
+     * is removed from the table.
+     *
+     * @return false if page is not resident, and so was not pinned
+     */
+    boolean pin(Page page) {
+        PageId pid = page.getId();
+        Shard shard = shardFor(pid);
+        synchronized (shard) {
+            if (shard.pages.get(pid) != page) {
+                return false;
+            }
+            boolean wasPinned = shard.pinnedOrHeld(pid);
+            shard.pins.merge(pid, 1, Integer::sum);
+            if (!wasPinned) {
+                replacer.recordPin(pid);
+            }
+            return true;
+        }
+    }
+
+    /** Remove one pin from pid, if it has any. */
+    void unpin(PageId pid) {
+        Shard shard = shardFor(pid);
+        synchronized (shard) {
+            Integer count = shard.pins.get(pid);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                shard.pins.put(pid, count - 1);
+                return;
+            }
+            shard.pins.remove(pid);
+            if (!shard.pinnedOrHeld(pid)) {
+                replacer.recordUnpin(pid);
+            }
+        }
+    }
+
+    /** Return the number of pins on pid. */
+    int pinCount(PageId pid) {
+        return shardFor(pid).pins.getOrDefault(pid, 0);
+    }
+
+    /** Keep pid, if it is resident, from eviction until it is released. */
+    void hold(PageId pid) {
+        Shard shard = shardFor(pid);
+        synchronized (shard) {
+            if (!shard.pages.containsKey(pid)) {
+                return;
+            }
+            if (!shard.pinnedOrHeld(pid)) {
+                replacer.recordPin(pid);
+            }
+            shard.held.add(pid);
+        }
+    }
+
+    /** Let pid be evicted again once it has no pins. */
+    void release(PageId pid) {
+        Shard shard = shardFor(pid);
+        synchronized (shard) {
+            if (shard.held.remove(pid) && !shard.pinnedOrHeld(pid)
+                    && shard.pages.containsKey(pid)) {
+                replacer.recordUnpin(pid);
+            }
+        }
+    }
+
+    /** Return the replacement policy of this table. */
+    ReplacementPolicy policy() {
+        return replacer;
+    }
+
+    /** Remove pid from the table, returning the page that was resident. */
+    Page remove(PageId pid) {
+        Shard shard = shardFor(pid);
+        synchronized (shard) {
+            Page removed = shard.pages.remove(pid);
+            if (removed != null) {
+                replacer.remove(pid);
+                removed(pid);
+            }
+            shard.pins.remove(pid);
+            shard.held.remove(pid);
+            return removed;
+        }
+    }
+
+    /** Return a point-in-time copy of all resident pages. */
+    List<Page> snapshot() {
+        List<Page> result = new ArrayList<>();
+        for (Shard shard : shards) {
+            result.addAll(shard.pages.values());
+        }
+        return result;
+    }
+
+    /**
+     * Remove and return a page that satisfies evictable and is not pinned,
+     * as chosen by the replacer. The page is tested once while the replacer
+     * searches and again under the shard monitor before it is removed, in
+     * case it was replaced or pinned in the meantime.
+     *
+     * @return the evicted page, or null if no resident page is evictable
+     */
+    Page evict(Predicate<Page> evictable) {
+        while (true) {
+            PageId victim = replacer.victim(pid -> {
+                Page page = peek(pid);
+                return page != null && !shardFor(pid).pins.containsKey(pid) && evictable.test(page);
+            });
+            if (victim == null) {
+                return null;
+            }
+            Shard shard = shardFor(victim);
+            synchronized (shard) {
+                Page page = shard.pages.get(victim);
+                if (page == null) {
+                    continue;
+                }
+                if (!shard.pins.containsKey(victim) && evictable.test(page)) {
+                    shard.pages.remove(victim);
+                    shard.held.remove(victim);
+                    removed(victim);
+                    return page;
+                }
+                // became unevictable after the search; hand it back to the replacer
+                replacer.reinsert(victim);
+                if (shard.pinnedOrHeld(victim)) {
+                    replacer.recordPin(victim);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package simpledb.storage;
+
+/**
+ * ReadAhead detects sequential access in a scan and decides when the scan
+ * should ask the BufferPool to load pages ahead of it. A scan reports every
+ * page it moves to, and whether that page directly follows the previous one
+ * (the next page number of a heap file, the right sibling of a B+ tree
+ * leaf). After a short sequential run, every window/2 pages the scan is
+ * told to read the next window pages ahead, so that loads overlap with the
+ * scan's own work instead of stalling it page by page.
+ * <p>
+ * One ReadAhead belongs to one iterator and is not thread safe.
+ *
+ * @see BufferPool#readAhead
+ */
+public class ReadAhead {
+
+    /** Default number of pages loaded ahead of a sequential scan. */
+    public static final int DEFAULT_WINDOW = 16;
+
+    /** Sequential steps a scan must take before read-ahead starts. */
+    private static final int SEQUENTIAL_THRESHOLD = 2;
+
+    private final int window;
+    private int run = 0;
+    private int untilNext = 0;
+
+    public ReadAhead() {
+        this(DEFAULT_WINDOW);
+    }
+
+    public ReadAhead(int window) {
+        this.window = window;
+    }
+
+    /**
+     * Record that the scan moved to its next page.
+     *
+     * @param sequential true if the page directly follows the previous one
+     * @return the number of pages to read ahead of the new page, or 0
+     */
+    public int advance(boolean sequential) {
+        if (!sequential) {
+            run = 0;
+            untilNext = 0;
+            return 0;
+        }
+        run++;
+        if (run < SEQUENTIAL_THRESHOLD || window <= 0) {
+            return 0;
+        }
+        if (untilNext > 0) {
+            untilNext--;
+            return 0;
+        }
+        untilNext = Math.max(0, window / 2 - 1);
+        return window;
+    }
+}
@@ -0,0 +1,90 @@
+package simpledb.storage;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The interface for BufferPool page replacement policies. A policy tracks
+ * the ids of the resident pages and decides which one to give up when the
+ * pool is full; it never sees the pages themselves. BufferPool calls it on
+ * every hit, load, pin and eviction, and the policy counts those events in
+ * its {@link ReplacementStats}.
+ * <p>
+ * A policy is created for a single pool and sized for it, e.g.
+ * <pre>
+ *     new BufferPool(numPages, new TwoQueueReplacer(numPages))
+ * </pre>
+ * <p>
+ * Implementations must be thread safe. recordLoad, remove, reinsert,
+ * recordPin and recordUnpin are called while BufferPool holds an internal page table
+ * lock, so a policy must not call back into the BufferPool.
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Record that pid has just been read into the pool. Counts as a miss.
+     */
+    void recordLoad(PageId pid);
+
+    /**
+     * Record a hit on pid, which is already resident. Hits are by far the
+     * most frequent call and should avoid taking locks where possible.
+     */
+    void recordAccess(PageId pid);
+
+    /**
+     * Record that pid cannot be evicted until it is unpinned, e.g. because
+     * it was dirtied and the pool runs NO STEAL. This is a hint: victim
+     * still asks the pool before giving up a page. The default ignores it.
+     */
+    default void recordPin(PageId pid) {
+    }
+
+    /**
+     * Record that pid can be evicted again, e.g. because it was flushed or
+     * rolled back. The default ignores it.
+     */
+    default void recordUnpin(PageId pid) {
+    }
+
+    /**
+     * Record that the pool now holds up to capacity pages, see
+     * {@link BufferPool#resize}. Called before the pool evicts down to a
+     * smaller capacity. The default ignores it.
+     */
+    default void setCapacity(int capacity) {
+    }
+
+    /**
+     * Return the ids this policy tracks, the ones it would keep longest
+     * first. The pool saves this order for a warm restart, see
+     * {@link BufferPool#saveHotPages}. The default returns no ids, and the
+     * pool saves its pages in no particular order.
+     */
+    default List<PageId> hotPages() {
+        return Collections.emptyList();
+    }
+
+    /** Forget pid, e.g. because it was discarded from the pool. */
+    void remove(PageId pid);
+
+    /**
+     * Track pid again after victim chose it but the pool could not evict it
+     * after all, e.g. because it was pinned in the meantime. Unlike
+     * recordLoad this counts nothing and leaves pid's history as victim
+     * found it, as if it had never been chosen.
+     */
+    void reinsert(PageId pid);
+
+    /**
+     * Choose a resident page accepted by evictable and forget it. evictable
+     * may be called with the policy's own locks held.
+     *
+     * @return the victim, or null if no page is evictable
+     */
+    PageId victim(Predicate<PageId> evictable);
+
+    /** Return the counters of this policy. */
+    ReplacementStats getStats();
+}
@@ -0,0 +1,72 @@
+package simpledb.storage;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters kept by a {@link ReplacementPolicy}: hits and misses seen by the
+ * pool, the number of eviction scans (calls to victim) and the number of
+ * frames those scans examined. Frames scanned per eviction is the cost of
+ * the policy's victim search. The counters are LongAdders, so that
+ * threads counting hits at once do not contend.
+ *
+ * @Threadsafe
+ */
+public class ReplacementStats {
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictionScans = new LongAdder();
+    private final LongAdder framesScanned = new LongAdder();
+
+    void recordHit() {
+        hits.increment();
+    }
+
+    void recordMiss() {
+        misses.increment();
+    }
+
+    void recordEvictionScan() {
+        evictionScans.increment();
+    }
+
+    void recordFrameScanned() {
+        framesScanned.increment();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictionScans() {
+        return evictionScans.sum();
+    }
+
+    public long getFramesScanned() {
+        return framesScanned.sum();
+    }
+
+    /** Return hits / (hits + misses), or 0 if the pool has not been used. */
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /** Zero all counters, e.g. after warming the pool. */
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        evictionScans.reset();
+        framesScanned.reset();
+    }
+
+    public String toString() {
+        return String.format("hits=%d misses=%d hit%%=%.1f evictionScans=%d framesScanned=%d",
+                getHits(), getMisses(), 100 * getHitRatio(), getEvictionScans(), getFramesScanned());
+    }
+}
@@ -12,6 +12,8 @@ public class StringField implements Field {
 
 	private static final long serialVersionUID = 1L;
 
+	private static final byte[] PADDING = new byte[Type.STRING_LEN];
+
 	private final String value;
 	private final int maxSize;
 
@@ -65,8 +67,12 @@ public class StringField implements Field {
 		}
 		dos.writeInt(s.length());
 		dos.writeBytes(s);
-		while (overflow-- > 0)
-			dos.write((byte) 0);
+		// pad in blocks; byte by byte costs a stream call per byte
+		while (overflow > 0) {
+			int n = Math.min(overflow, PADDING.length);
+			dos.write(PADDING, 0, n);
+			overflow -= n;
+		}
 	}
 
 	/**
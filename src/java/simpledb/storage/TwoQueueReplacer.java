@@ -0,0 +1,171 @@
+package simpledb.storage;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * TwoQueueReplacer is a scan-resistant replacement policy after the 2Q
+ * algorithm of Johnson and Shasha. A page seen for the first time enters a
+ * probationary FIFO queue (A1in) instead of the main queue (Am). When it is
+ * evicted from A1in only its id is remembered, in a bounded ghost queue
+ * (A1out). A page is admitted to Am only if it is loaded again while its id
+ * is still in A1out, i.e. if it is re-referenced after its first burst of
+ * use.
+ * <p>
+ * A sequential scan therefore cycles through A1in and never displaces the
+ * hot pages in Am, such as B+ tree internal pages visited by
+ * BTreeFile.findLeafPage on every point lookup.
+ * <p>
+ * Am is managed by a {@link ClockReplacer}, so hits on hot pages stay lock
+ * free. Hits on pages in A1in are deliberately ignored: references that are
+ * close together in time, like the tuples of one page during a scan, say
+ * nothing about future reuse.
+ * <p>
+ * Pins are forwarded to Am; unevictable pages in A1in are handled by
+ * rotating them to its tail.
+ *
+ * @Threadsafe loads, removals and sweeps synchronize on this
+ */
+public class TwoQueueReplacer implements ReplacementPolicy {
+
+    /** Share of the pool reserved for the probationary queue. */
+    private static final double IN_FRACTION = 0.25;
+    /** Number of ghost ids remembered, as a share of the pool. */
+    private static final double OUT_FRACTION = 0.5;
+
+    private int maxIn; // protected by this
+    private int maxOut; // protected by this
+
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<>(); // protected by this
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<>(); // protected by this
+    private final ReplacementStats stats = new ReplacementStats();
+    private final ClockReplacer am = new ClockReplacer(stats);
+
+    /**
+     * @param capacity the number of pages the pool holds
+     */
+    public TwoQueueReplacer(int capacity) {
+        setCapacity(capacity);
+    }
+
+    /**
+     * Resize A1in and A1out to their shares of the new capacity. Ghost ids
+     * over the new limit are forgotten, oldest first; A1in shrinks as
+     * victims are taken from it.
+     */
+    public synchronized void setCapacity(int capacity) {
+        this.maxIn = Math.max(1, (int) (capacity * IN_FRACTION));
+        this.maxOut = Math.max(1, (int) (capacity * OUT_FRACTION));
+        Iterator<PageId> oldest = a1out.iterator();
+        while (a1out.size() > maxOut) {
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    public synchronized void recordLoad(PageId pid) {
+        stats.recordMiss();
+        if (a1in.contains(pid)) {
+            return;
+        }
+        if (a1out.remove(pid)) {
+            am.insert(pid);
+        } else if (!am.contains(pid)) {
+            a1in.add(pid);
+        }
+    }
+
+    public void recordAccess(PageId pid) {
+        am.recordAccess(pid);
+    }
+
+    public void recordPin(PageId pid) {
+        am.recordPin(pid);
+    }
+
+    public void recordUnpin(PageId pid) {
+        am.recordUnpin(pid);
+    }
+
+    /**
+     * Return the tracked ids: the pages of Am in clock order, then those of
+     * A1in, newest first.
+     */
+    public synchronized List<PageId> hotPages() {
+        List<PageId> hot = am.hotPages();
+        List<PageId> probation = new ArrayList<>(a1in);
+        Collections.reverse(probation);
+        hot.addAll(probation);
+        return hot;
+    }
+
+    public synchronized void remove(PageId pid) {
+        if (!a1in.remove(pid)) {
+            am.remove(pid);
+        }
+    }
+
+    /**
+     * Put pid back in the queue victim took it from: a page taken from A1in
+     * returns to it and leaves A1out, so it is not promoted by a load it
+     * never had.
+     */
+    public synchronized void reinsert(PageId pid) {
+        if (a1out.remove(pid)) {
+            a1in.add(pid);
+        } else if (!a1in.contains(pid)) {
+            am.insert(pid);
+        }
+    }
+
+    /**
+     * Choose and forget a victim accepted by evictable. While A1in holds more
+     * than its share of the pool, its oldest evictable page is chosen and
+     * remembered in A1out; otherwise Am's clock picks the victim. Either
+     * queue is used as a fallback if the preferred one has nothing evictable.
+     *
+     * @return the victim, or null if no page is evictable
+     */
+    public synchronized PageId victim(Predicate<PageId> evictable) {
+        stats.recordEvictionScan();
+        PageId victim = null;
+        if (a1in.size() > maxIn) {
+            victim = victimFromIn(evictable);
+        }
+        if (victim == null) {
+            victim = am.sweep(evictable);
+        }
+        if (victim == null) {
+            victim = victimFromIn(evictable);
+        }
+        return victim;
+    }
+
+    /*
+     * Pages that cannot be evicted are rotated to the tail of A1in, so that
+     * later calls do not step over the same dirty pages again.
+     */
+    private PageId victimFromIn(Predicate<PageId> evictable) {
+        for (int n = a1in.size(); n > 0; n--) {
+            Iterator<PageId> it = a1in.iterator();
+            PageId pid = it.next();
+            it.remove();
+            stats.recordFrameScanned();
+            if (evictable.test(pid)) {
+                a1out.add(pid);
+                if (a1out.size() > maxOut) {
+                    Iterator<PageId> oldest = a1out.iterator();
+                    oldest.next();
+                    oldest.remove();
+                }
+                return pid;
+            }
+            a1in.add(pid);
+        }
+        return null;
+    }
+
+    public ReplacementStats getStats() {
+        return stats;
+    }
+}
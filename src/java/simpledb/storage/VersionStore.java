@@ -0,0 +1,186 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * VersionStore keeps the committed versions of pages that snapshot readers
+ * may still need, for BufferPool's multi-version mode.
+ * <p>
+ * Every commit gets a timestamp from a counter. A committing transaction
+ * first {@link #keep}s the version of each page it changed as it was
+ * before, taken from the page's before image, then {@link #add}s the
+ * version it commits, and finally calls {@link #endCommit}. A snapshot
+ * starts at the latest timestamp up to which every commit has ended, so
+ * that it sees each commit either whole or not at all, and reads the
+ * newest version of a page that began at or before its start.
+ * <p>
+ * Pages without versions here are read from their before image in the
+ * pool: a version chain is only dropped once no snapshot can need any
+ * version but the last one, its committer has set the before image to it,
+ * and no commit that kept a version is still to add its own. A reader
+ * takes the before image before it looks here, so a commit that keeps a
+ * version in between is never missed.
+ *
+ * @Threadsafe
+ */
+class VersionStore {
+
+    private static class Version {
+        final long begin;
+        final Page page;
+        boolean settled; // the before image of the page in the pool is this version
+
+        Version(long begin, Page page, boolean settled) {
+            this.begin = begin;
+            this.page = page;
+            this.settled = settled;
+        }
+    }
+
+    private static class Chain {
+        final List<Version> versions = new ArrayList<>();
+        int adding = 0; // commits that kept a version and are still to add theirs
+
+        Chain(Page before) {
+            versions.add(new Version(0, before, true));
+        }
+    }
+
+    // all guarded by this, except that snapshots is also read without it
+    private final Map<PageId, Chain> chains = new HashMap<>();
+    private final Map<TransactionId, Long> snapshots = new ConcurrentHashMap<>();
+    private final TreeSet<Long> committing = new TreeSet<>();
+    private long clock = 0;
+
+    /** Start a commit and return its timestamp */
+    synchronized long beginCommit() {
+        long ts = ++clock;
+        committing.add(ts);
+        return ts;
+    }
+
+    /**
+     * Keep before, the last committed version of its page, unless versions
+     * of the page are kept already. Must be called before the before image
+     * of the page changes.
+     */
+    synchronized void keep(Page before) {
+        chains.computeIfAbsent(before.getId(), k -> new Chain(before)).adding++;
+    }
+
+    /** Add the version of its page that the commit at ts writes */
+    synchronized void add(long ts, Page committed) {
+        Chain chain = chains.get(committed.getId());
+        if (chain == null || chain.adding == 0) {
+            throw new IllegalStateException("no version kept for " + committed.getId());
+        }
+        chain.adding--;
+        chain.versions.add(new Version(ts, committed, false));
+    }
+
+    /**
+     * End the commit at ts, once the before images of the pages it added
+     * versions of are set to them.
+     */
+    synchronized void endCommit(long ts, Collection<PageId> pids) {
+        committing.remove(ts);
+        for (PageId pid : pids) {
+            Chain chain = chains.get(pid);
+            if (chain == null) {
+                continue;
+            }
+            for (Version version : chain.versions) {
+                if (version.begin == ts) {
+                    version.settled = true;
+                }
+            }
+        }
+        prune(pids);
+    }
+
+    /** Start a snapshot for tid and return its timestamp */
+    synchronized long beginSnapshot(TransactionId tid) {
+        long ts = stable();
+        snapshots.put(tid, ts);
+        return ts;
+    }
+
+    /** End the snapshot of tid, if it has one */
+    synchronized void endSnapshot(TransactionId tid) {
+        if (snapshots.remove(tid) != null) {
+            prune(new ArrayList<>(chains.keySet()));
+        }
+    }
+
+    boolean isSnapshot(TransactionId tid) {
+        return snapshots.containsKey(tid);
+    }
+
+    /**
+     * Return the version of a page that the snapshot of tid sees.
+     *
+     * @param committed the before image of the page, taken after the
+     *                  snapshot started
+     */
+    Page read(TransactionId tid, Page committed) {
+        Long ts = snapshots.get(tid);
+        if (ts == null) {
+            throw new IllegalArgumentException(tid + " has no snapshot");
+        }
+        synchronized (this) {
+            Chain chain = chains.get(committed.getId());
+            if (chain == null) {
+                return committed;
+            }
+            Page seen = null;
+            for (Version version : chain.versions) {
+                if (version.begin > ts) {
+                    break;
+                }
+                seen = version.page;
+            }
+            return seen;
+        }
+    }
+
+    /** Return the number of page versions kept */
+    synchronized int size() {
+        int n = 0;
+        for (Chain chain : chains.values()) {
+            n += chain.versions.size();
+        }
+        return n;
+    }
+
+    /* Timestamp up to which every commit has ended */
+    private long stable() {
+        return committing.isEmpty() ? clock : committing.first() - 1;
+    }
+
+    /* Drop the versions of pids that no snapshot, running or to come, can read */
+    private void prune(Collection<PageId> pids) {
+        long horizon = stable();
+        for (long ts : snapshots.values()) {
+            horizon = Math.min(horizon, ts);
+        }
+        for (PageId pid : pids) {
+            Chain chain = chains.get(pid);
+            if (chain == null) {
+                continue;
+            }
+            List<Version> versions = chain.versions;
+            int old = 0;
+            while (old + 1 < versions.size() && versions.get(old + 1).begin <= horizon) {
+                old++;
+            }
+            versions.subList(0, old).clear();
+            Version last = versions.get(0);
+            if (versions.size() == 1 && chain.adding == 0 && last.settled && last.begin <= horizon) {
+                chains.remove(pid);
+            }
+        }
+    }
+}
@@ -27,6 +27,26 @@ public class Transaction {
         }
     }
 
+    /**
+     * Start the transaction running as a read-only one that reads a
+     * snapshot as of now, without locks; multi-version reads must be on, see
+     * {@link simpledb.storage.BufferPool#beginSnapshot}
+     */
+    public void startSnapshot() {
+        Database.getBufferPool().beginSnapshot(tid);
+        start();
+    }
+
+    /**
+     * Start the transaction running optimistically, without locks; it must
+     * finish with {@link #commitOptimistic} or {@link #abort}, see
+     * {@link simpledb.storage.BufferPool#beginOptimistic}
+     */
+    public void startOptimistic() {
+        Database.getBufferPool().beginOptimistic(tid);
+        start();
+    }
+
     public TransactionId getId() {
         return tid;
     }
@@ -41,6 +61,25 @@ public class Transaction {
         transactionComplete(true);
     }
 
+    /**
+     * Validate and finish an optimistic transaction
+     *
+     * @throws TransactionAbortedException if validation failed; the
+     *                                     transaction has been aborted
+     */
+    public void commitOptimistic() throws IOException, TransactionAbortedException {
+        if (started) {
+            try {
+                Database.getBufferPool().commitOptimistic(tid);
+            } catch (TransactionAbortedException e) {
+                abort();
+                throw e;
+            }
+            Database.getLogFile().logCommit(tid);
+            started = false;
+        }
+    }
+
     /** Handle the details of transaction commit / abort */
     public void transactionComplete(boolean abort) throws IOException {
 
@@ -0,0 +1,77 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BatchWriterTest extends SimpleDbTestBase {
+
+    /**
+     * Pages handed to HeapFile.writePages out of order, with a gap, end up
+     * where writePage would put them
+     */
+    @Test public void heapFileWritesPages() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 5, null, null);
+        List<Page> changed = new ArrayList<>();
+        for (int pgNo : new int[] { 3, 0, 1, 4 }) {
+            HeapPage page = (HeapPage) f.readPage(new HeapPageId(f.getId(), pgNo));
+            page.deleteTuple(page.iterator().next());
+            changed.add(page);
+        }
+        byte[] untouched = f.readPage(new HeapPageId(f.getId(), 2)).getPageData();
+
+        f.writePages(changed);
+
+        for (Page page : changed) {
+            assertArrayEquals(page.getPageData(), f.readPage(page.getId()).getPageData());
+        }
+        assertArrayEquals(untouched, f.readPage(new HeapPageId(f.getId(), 2)).getPageData());
+        assertEquals(5, f.numPages());
+    }
+
+    /**
+     * BTreeFile.writePages puts the root pointer page and the numbered pages
+     * at their own offsets
+     */
+    @Test public void bTreeFileWritesPages() throws Exception {
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 2000, null, null, 0);
+        byte[] before = Files.readAllBytes(f.getFile().toPath());
+
+        List<Page> all = new ArrayList<>();
+        all.add(f.readPage(BTreeRootPtrPage.getId(f.getId())));
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) all.get(0);
+        for (int pgNo = 1; pgNo <= f.numPages(); pgNo++) {
+            int categ = pgNo == rootPtr.getRootId().getPageNumber()
+                    ? rootPtr.getRootId().pgcateg() : BTreePageId.LEAF;
+            all.add(f.readPage(new BTreePageId(f.getId(), pgNo, categ)));
+        }
+        Collections.reverse(all);
+
+        f.writePages(all);
+
+        assertTrue(Arrays.equals(before, Files.readAllBytes(f.getFile().toPath())));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchWriterTest.class);
+    }
+}
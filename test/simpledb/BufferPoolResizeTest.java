@@ -0,0 +1,116 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolResizeTest extends SimpleDbTestBase {
+
+    private HeapFile f;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        f = SystemTestUtil.createRandomHeapFile(2, 504 * 6, null, null);
+        bp = Database.resetBufferPool(4);
+    }
+
+    private Page fetch(TransactionId tid, int pgNo, Permissions perm) throws Exception {
+        return bp.getPage(tid, new HeapPageId(f.getId(), pgNo), perm);
+    }
+
+    /**
+     * Growing keeps the cached pages and makes room for more
+     */
+    @Test public void grow() throws Exception {
+        TransactionId tid = new TransactionId();
+        Page first = fetch(tid, 0, Permissions.READ_ONLY);
+        for (int i = 1; i < 4; i++) {
+            fetch(tid, i, Permissions.READ_ONLY);
+        }
+        bp.resize(6);
+        assertEquals(6, bp.getNumPages());
+        fetch(tid, 4, Permissions.READ_ONLY);
+        fetch(tid, 5, Permissions.READ_ONLY);
+        assertSame(first, fetch(tid, 0, Permissions.READ_ONLY));
+        assertEquals(0, bp.getStats().getTotal().getEvictions());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Shrinking evicts down to the new capacity and keeps the other pages
+     * cached
+     */
+    @Test public void shrink() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 4; i++) {
+            fetch(tid, i, Permissions.READ_ONLY);
+        }
+        bp.resize(2);
+        assertEquals(2, bp.getStats().getTotal().getEvictions());
+
+        // the policy gave up the oldest pages
+        long misses = bp.getStats().getTotal().getMisses();
+        fetch(tid, 3, Permissions.READ_ONLY);
+        fetch(tid, 2, Permissions.READ_ONLY);
+        assertEquals(misses, bp.getStats().getTotal().getMisses());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Dirty pages keep the pool from shrinking at once; the new capacity
+     * still holds, and the pool shrinks once they are clean
+     */
+    @Test public void shrinkPastDirtyPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3; i++) {
+            fetch(tid, i, Permissions.READ_WRITE).markDirty(true, tid);
+        }
+        try {
+            bp.resize(1);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // all pages are dirty
+        }
+        assertEquals(1, bp.getNumPages());
+        bp.transactionComplete(tid, true);
+
+        TransactionId t2 = new TransactionId();
+        fetch(t2, 4, Permissions.READ_ONLY);
+        assertEquals(3, bp.getStats().getTotal().getEvictions());
+        bp.transactionComplete(t2);
+    }
+
+    /**
+     * The pool installed in Database can be resized through JMX
+     */
+    @Test public void resizeThroughJmx() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(Database.BUFFER_POOL_MBEAN_NAME);
+        server.setAttribute(name, new Attribute("Capacity", 8));
+        assertEquals(8, bp.getNumPages());
+        assertEquals(8, server.getAttribute(name, "Capacity"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolResizeTest.class);
+    }
+}
@@ -0,0 +1,134 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolStatsTest extends SimpleDbTestBase {
+
+    private HeapFile f;
+    private HeapFile g;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        f = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        g = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        bp = Database.resetBufferPool(3);
+    }
+
+    private Page fetch(TransactionId tid, HeapFile file, int pgNo, Permissions perm) throws Exception {
+        return bp.getPage(tid, new HeapPageId(file.getId(), pgNo), perm);
+    }
+
+    /**
+     * Hits, misses, reads and evictions are counted for the pool and per table
+     */
+    @Test public void countsPerTable() throws Exception {
+        TransactionId tid = new TransactionId();
+        fetch(tid, f, 0, Permissions.READ_ONLY);
+        fetch(tid, f, 0, Permissions.READ_ONLY);
+        fetch(tid, f, 1, Permissions.READ_ONLY);
+        fetch(tid, f, 2, Permissions.READ_ONLY);
+        fetch(tid, g, 0, Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+
+        BufferPoolStats stats = bp.getStats();
+        assertEquals(1, stats.getTotal().getHits());
+        assertEquals(4, stats.getTotal().getMisses());
+        assertEquals(4, stats.getTotal().getPagesRead());
+        assertEquals(1, stats.getTotal().getEvictions());
+        assertEquals(3, stats.getTable(f.getId()).getMisses());
+        assertEquals(1, stats.getTable(g.getId()).getMisses());
+        assertEquals(0.2, stats.getTotal().getHitRatio(), 1e-9);
+        assertEquals(4, stats.getReadLatency().getCount());
+        assertTrue(stats.getReadLatency().getPercentileNanos(0.99) > 0);
+    }
+
+    /**
+     * Flushed pages, discarded pages and failed evictions are counted
+     */
+    @Test public void countsWritesAndFailures() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3; i++) {
+            fetch(tid, f, i, Permissions.READ_WRITE).markDirty(true, tid);
+        }
+        try {
+            fetch(tid, g, 0, Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // the pool is full of dirty pages
+        }
+        bp.transactionComplete(tid, true);
+        bp.discardPage(new HeapPageId(f.getId(), 0));
+
+        BufferPoolStats stats = bp.getStats();
+        assertEquals(1, stats.getAllDirtyFailures());
+        assertEquals(3, stats.getTable(f.getId()).getPagesWritten());
+        assertEquals(1, stats.getWriteLatency().getCount());
+        assertEquals(1, stats.getTotal().getDiscards());
+    }
+
+    /**
+     * A snapshot does not change with the pool; reset zeroes the live counters
+     */
+    @Test public void snapshotAndReset() throws Exception {
+        TransactionId tid = new TransactionId();
+        fetch(tid, f, 0, Permissions.READ_ONLY);
+        BufferPoolStats before = bp.getStats().snapshot();
+        fetch(tid, f, 1, Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+
+        assertEquals(1, before.getTotal().getMisses());
+        assertEquals(1, before.getTable(f.getId()).getMisses());
+        assertEquals(2, bp.getStats().getTotal().getMisses());
+
+        bp.getStats().reset();
+        assertEquals(0, bp.getStats().getTotal().getMisses());
+        assertNull(bp.getStats().getTable(f.getId()));
+        assertEquals(0, bp.getStats().getReadLatency().getCount());
+    }
+
+    /**
+     * The pool installed in Database is visible through JMX
+     */
+    @Test public void exposedThroughJmx() throws Exception {
+        TransactionId tid = new TransactionId();
+        fetch(tid, f, 0, Permissions.READ_ONLY);
+        fetch(tid, f, 0, Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(Database.BUFFER_POOL_MBEAN_NAME);
+        assertEquals(3, server.getAttribute(name, "Capacity"));
+        assertEquals(1L, server.getAttribute(name, "Hits"));
+        assertEquals(1L, server.getAttribute(name, "Misses"));
+        TabularData tables = (TabularData) server.getAttribute(name, "Tables");
+        assertEquals(1, tables.size());
+
+        server.invoke(name, "resetStats", null, null);
+        assertEquals(0L, server.getAttribute(name, "Hits"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolStatsTest.class);
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class CompressedPageCacheTest extends SimpleDbTestBase {
+
+    private HeapFile f;
+    private CompressedPageCache cache;
+    private BufferPool bp;
+
+    /**
+     * A pool with room for a single page, backed by a compressed cache that
+     * holds the rest of the three page table
+     */
+    @Before public void setUp() throws Exception {
+        f = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        cache = new CompressedPageCache(1 << 20);
+        bp = Database.resetBufferPool(1);
+        bp.setCompressedCache(cache);
+    }
+
+    private HeapPage fetch(TransactionId tid, int pgNo) throws Exception {
+        return (HeapPage) bp.getPage(tid, new HeapPageId(f.getId(), pgNo), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Evicted pages are decoded from the cache, not re-read, and leave it
+     * while they are resident
+     */
+    @Test public void servesMissesFromCache() throws Exception {
+        TransactionId tid = new TransactionId();
+        byte[] first = fetch(tid, 0).getPageData();
+        fetch(tid, 1);
+        fetch(tid, 2);
+        assertEquals(2, cache.size());
+        assertEquals(3, bp.getStats().getTotal().getPagesRead());
+
+        assertArrayEquals(first, fetch(tid, 0).getPageData());
+        assertEquals(3, bp.getStats().getTotal().getPagesRead());
+        assertEquals(1, cache.getStats().getHits());
+        assertEquals(2, cache.size());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Committed changes reach the cache when the page is evicted
+     */
+    @Test public void keepsCommittedChanges() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage page = fetch(tid, 0);
+        bp.deleteTuple(tid, page.iterator().next());
+        bp.transactionComplete(tid);
+
+        TransactionId reader = new TransactionId();
+        fetch(reader, 1);
+        assertEquals(1, fetch(reader, 0).getNumEmptySlots());
+        assertEquals(1, cache.getStats().getHits());
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * Page images are stored compressed; discarded pages lose their image
+     */
+    @Test public void compressesAndDiscards() throws Exception {
+        TransactionId tid = new TransactionId();
+        fetch(tid, 0);
+        fetch(tid, 1);
+        bp.transactionComplete(tid);
+        assertEquals(BufferPool.getPageSize(), cache.getRawBytes());
+        assertTrue(cache.getBytes() < cache.getRawBytes());
+
+        bp.discardPage(new HeapPageId(f.getId(), 0));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    /**
+     * A full cache drops the images evicted longest ago
+     */
+    @Test public void dropsOldestImages() throws Exception {
+        TransactionId tid = new TransactionId();
+        fetch(tid, 0);
+        fetch(tid, 1);
+        long oneImage = cache.getBytes();
+        cache = new CompressedPageCache(oneImage + oneImage / 2);
+        bp.setCompressedCache(cache);
+        fetch(tid, 2); // evicts page 1
+        fetch(tid, 0); // evicts page 2, dropping page 1
+        assertEquals(1, cache.size());
+        fetch(tid, 2);
+        assertEquals(1, cache.getStats().getHits());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedPageCacheTest.class);
+    }
+}
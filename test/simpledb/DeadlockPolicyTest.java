@@ -0,0 +1,132 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LockManager.DeadlockPolicy;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class DeadlockPolicyTest extends SimpleDbTestBase {
+
+    /** Time to wait for a blocked request to stay blocked, in ms */
+    private static final int TIMEOUT = 100;
+
+    private PageId p0;
+    private PageId p1;
+    private TransactionId older;
+    private TransactionId younger;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        p0 = new HeapPageId(f.getId(), 0);
+        p1 = new HeapPageId(f.getId(), 1);
+        older = new TransactionId();
+        younger = new TransactionId();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private TestUtil.LockGrabber startGrabber(TransactionId tid, PageId pid, Permissions perm) throws Exception {
+        TestUtil.LockGrabber grabber = new TestUtil.LockGrabber(tid, pid, perm);
+        grabber.start();
+        Thread.sleep(TIMEOUT);
+        return grabber;
+    }
+
+    private void assertAborts(TransactionId tid, PageId pid, Permissions perm) throws Exception {
+        try {
+            bp.getPage(tid, pid, perm);
+            fail("expected TransactionAbortedException");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        bp.transactionComplete(tid, false);
+    }
+
+    /**
+     * With NO_WAIT a request that conflicts aborts instead of waiting
+     */
+    @Test public void noWait() throws Exception {
+        bp.setDeadlockPolicy(DeadlockPolicy.NO_WAIT);
+        bp.getPage(younger, p0, Permissions.READ_WRITE);
+        assertAborts(older, p0, Permissions.READ_ONLY);
+        bp.getPage(older, p1, Permissions.READ_ONLY);
+        bp.transactionComplete(younger);
+        bp.transactionComplete(older);
+    }
+
+    /**
+     * With WAIT_DIE an older transaction waits for a younger one, and a
+     * younger one aborts rather than wait for an older one
+     */
+    @Test public void waitDie() throws Exception {
+        bp.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        bp.getPage(older, p1, Permissions.READ_ONLY);
+        assertAborts(younger, p1, Permissions.READ_WRITE);
+
+        bp.getPage(younger, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber waiter = startGrabber(older, p0, Permissions.READ_WRITE);
+        assertFalse(waiter.acquired());
+        assertNull(waiter.getError());
+        bp.transactionComplete(younger);
+        waiter.join(10 * TIMEOUT);
+        assertTrue(waiter.acquired());
+        bp.transactionComplete(older);
+    }
+
+    /**
+     * With WOUND_WAIT an older transaction aborts a younger running one at
+     * its next lock request, and waits for its locks meanwhile
+     */
+    @Test public void woundRunning() throws Exception {
+        bp.setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+        bp.getPage(younger, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber waiter = startGrabber(older, p0, Permissions.READ_WRITE);
+        assertFalse(waiter.acquired());
+
+        assertAborts(younger, p1, Permissions.READ_ONLY);
+        waiter.join(10 * TIMEOUT);
+        assertTrue(waiter.acquired());
+        bp.transactionComplete(older);
+    }
+
+    /**
+     * With WOUND_WAIT a younger transaction waits for an older one, and is
+     * aborted if the older one then needs its locks
+     */
+    @Test public void woundWaiting() throws Exception {
+        bp.setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+        bp.getPage(older, p1, Permissions.READ_ONLY);
+        bp.getPage(younger, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber youngerWrite = startGrabber(younger, p1, Permissions.READ_WRITE);
+        assertFalse(youngerWrite.acquired());
+        assertNull(youngerWrite.getError());
+
+        TestUtil.LockGrabber olderWrite = startGrabber(older, p0, Permissions.READ_WRITE);
+        youngerWrite.join(10 * TIMEOUT);
+        assertTrue(youngerWrite.getError() instanceof TransactionAbortedException);
+        olderWrite.join(10 * TIMEOUT);
+        assertTrue(olderWrite.acquired());
+        bp.transactionComplete(older);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DeadlockPolicyTest.class);
+    }
+}
@@ -0,0 +1,107 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class FrameArenaTest extends SimpleDbTestBase {
+
+    private HeapFile f;
+    private FrameArena arena;
+    private BufferPool bp;
+
+    /**
+     * A pool with room for a single decoded page, backed by an arena that
+     * holds the whole three page table
+     */
+    @Before public void setUp() throws Exception {
+        f = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        arena = new FrameArena(f.numPages());
+        bp = Database.resetBufferPool(
+                new BufferPool(1, BufferPool.DEFAULT_SHARDS, new TwoQueueReplacer(1), arena));
+    }
+
+    private HeapPage fetch(TransactionId tid, int pgNo) throws Exception {
+        return (HeapPage) bp.getPage(tid, new HeapPageId(f.getId(), pgNo), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Pages evicted from the pool are decoded from the arena, not re-read
+     */
+    @Test public void servesMissesFromArena() throws Exception {
+        TransactionId tid = new TransactionId();
+        byte[] first = fetch(tid, 0).getPageData();
+        fetch(tid, 1);
+        fetch(tid, 2);
+        assertEquals(3, arena.getStats().getMisses());
+        assertEquals(3, arena.size());
+
+        assertArrayEquals(first, fetch(tid, 0).getPageData());
+        assertEquals(3, arena.getStats().getMisses());
+        assertEquals(1, arena.getStats().getHits());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Committed changes are written through to the arena
+     */
+    @Test public void commitUpdatesArena() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage page = fetch(tid, 0);
+        Tuple t = page.iterator().next();
+        bp.deleteTuple(tid, t);
+        bp.transactionComplete(tid);
+
+        // push page 0 out of the pool, then read it back from the arena
+        TransactionId reader = new TransactionId();
+        fetch(reader, 1);
+        HeapPage reread = fetch(reader, 0);
+        assertEquals(1, reread.getNumEmptySlots());
+        assertEquals(2, arena.getStats().getMisses());
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * Discarded pages lose their frame
+     */
+    @Test public void discardReleasesFrame() throws Exception {
+        TransactionId tid = new TransactionId();
+        fetch(tid, 0);
+        bp.transactionComplete(tid);
+        bp.discardPage(new HeapPageId(f.getId(), 0));
+        assertEquals(0, arena.size());
+    }
+
+    /**
+     * An arena smaller than the table reuses frames
+     */
+    @Test public void reusesFrames() throws Exception {
+        arena = new FrameArena(2);
+        bp = Database.resetBufferPool(
+                new BufferPool(1, BufferPool.DEFAULT_SHARDS, new TwoQueueReplacer(1), arena));
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3; i++) {
+            fetch(tid, i);
+        }
+        assertEquals(2, arena.size());
+        assertEquals(1, arena.getStats().getEvictionScans());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FrameArenaTest.class);
+    }
+}
@@ -131,6 +131,28 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.rollback()
+     */
+    @Test public void rollback() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        page.insertTuple(Utility.getHeapTuple(8, 2));
+        assertTrue(page.rollback());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData());
+        assertEquals(page.getId(), first.getRecordId().getPageId());
+
+        // changes before setBeforeImage() are kept
+        page.deleteTuple(first);
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+        page.insertTuple(Utility.getHeapTuple(9, 2));
+        assertTrue(page.rollback());
+        assertArrayEquals(committed, page.getPageData());
+    }
+
     /**
      * JUnit suite target
      */
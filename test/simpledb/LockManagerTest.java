@@ -0,0 +1,173 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    /** Time to wait for a blocked request to stay blocked, in ms */
+    private static final int TIMEOUT = 100;
+
+    private PageId p0;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        p0 = new HeapPageId(f.getId(), 0);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private TestUtil.LockGrabber startGrabber(TransactionId tid, Permissions perm) throws Exception {
+        TestUtil.LockGrabber grabber = new TestUtil.LockGrabber(tid, p0, perm);
+        grabber.start();
+        Thread.sleep(TIMEOUT);
+        return grabber;
+    }
+
+    private static void awaitAcquired(TestUtil.LockGrabber grabber) throws Exception {
+        grabber.join(10 * TIMEOUT);
+        assertTrue(grabber.acquired());
+    }
+
+    /**
+     * Waiting requests are granted in the order they arrived, and a shared
+     * request does not overtake an exclusive one waiting ahead of it
+     */
+    @Test public void grantsInArrivalOrder() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        bp.getPage(t1, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber writer = startGrabber(t2, Permissions.READ_WRITE);
+        TestUtil.LockGrabber reader = startGrabber(t3, Permissions.READ_ONLY);
+        assertFalse(writer.acquired());
+        assertFalse(reader.acquired());
+
+        bp.transactionComplete(t1);
+        awaitAcquired(writer);
+        Thread.sleep(TIMEOUT);
+        assertFalse(reader.acquired());
+
+        bp.transactionComplete(t2);
+        awaitAcquired(reader);
+        assertTrue(bp.holdsLock(t3, p0));
+        bp.transactionComplete(t3);
+    }
+
+    /**
+     * An upgrade from shared to exclusive is granted before requests that
+     * were already waiting
+     */
+    @Test public void upgradeGoesFirst() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        bp.getPage(t1, p0, Permissions.READ_ONLY);
+        bp.getPage(t2, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber writer = startGrabber(t3, Permissions.READ_WRITE);
+        TestUtil.LockGrabber upgrade = startGrabber(t1, Permissions.READ_WRITE);
+        assertFalse(upgrade.acquired());
+
+        bp.transactionComplete(t2);
+        awaitAcquired(upgrade);
+        assertFalse(writer.acquired());
+
+        bp.transactionComplete(t1);
+        awaitAcquired(writer);
+        bp.transactionComplete(t3);
+    }
+
+    /**
+     * An interrupted waiter aborts and leaves the queue, so the requests
+     * behind it are granted
+     */
+    @Test public void interruptedWaiterLeavesQueue() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        bp.getPage(t1, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber writer = startGrabber(t2, Permissions.READ_WRITE);
+        TestUtil.LockGrabber reader = startGrabber(t3, Permissions.READ_ONLY);
+
+        writer.interrupt();
+        writer.join(10 * TIMEOUT);
+        assertTrue(writer.getError() instanceof TransactionAbortedException);
+        awaitAcquired(reader);
+        assertFalse(bp.holdsLock(t2, p0));
+        bp.transactionComplete(t1);
+        bp.transactionComplete(t3);
+    }
+
+    /**
+     * When a request closes a cycle of waiting transactions, the youngest
+     * transaction on the cycle is aborted, even if it is already waiting
+     */
+    @Test public void youngestIsVictim() throws Exception {
+        PageId p1 = new HeapPageId(p0.getTableId(), 1);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        bp.getPage(younger, p0, Permissions.READ_ONLY);
+        bp.getPage(older, p1, Permissions.READ_ONLY);
+        TestUtil.LockGrabber youngerWrite = new TestUtil.LockGrabber(younger, p1, Permissions.READ_WRITE);
+        youngerWrite.start();
+        Thread.sleep(TIMEOUT);
+
+        // older closes the cycle, but younger is aborted and releases p0
+        TestUtil.LockGrabber olderWrite = startGrabber(older, Permissions.READ_WRITE);
+        youngerWrite.join(10 * TIMEOUT);
+        assertTrue(youngerWrite.getError() instanceof TransactionAbortedException);
+        awaitAcquired(olderWrite);
+        assertNull(olderWrite.getError());
+        bp.transactionComplete(older);
+    }
+
+    /**
+     * A request that closes two cycles at once aborts a victim on each
+     */
+    @Test public void breaksEveryCycle() throws Exception {
+        PageId p1 = new HeapPageId(p0.getTableId(), 1);
+        PageId p2 = new HeapPageId(p0.getTableId(), 2);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        bp.getPage(t1, p1, Permissions.READ_ONLY);
+        bp.getPage(t1, p2, Permissions.READ_ONLY);
+        bp.getPage(t2, p0, Permissions.READ_ONLY);
+        bp.getPage(t3, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber t2Write = new TestUtil.LockGrabber(t2, p1, Permissions.READ_WRITE);
+        TestUtil.LockGrabber t3Write = new TestUtil.LockGrabber(t3, p2, Permissions.READ_WRITE);
+        t2Write.start();
+        t3Write.start();
+        Thread.sleep(TIMEOUT);
+
+        TestUtil.LockGrabber t1Write = startGrabber(t1, Permissions.READ_WRITE);
+        t2Write.join(10 * TIMEOUT);
+        t3Write.join(10 * TIMEOUT);
+        assertTrue(t2Write.getError() instanceof TransactionAbortedException);
+        assertTrue(t3Write.getError() instanceof TransactionAbortedException);
+        awaitAcquired(t1Write);
+        bp.transactionComplete(t1);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,298 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OptimisticTest extends SimpleDbTestBase {
+
+    private HeapFile f;
+    private HeapPageId p0;
+    private List<Tuple> stored;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        // one full page
+        f = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        p0 = new HeapPageId(f.getId(), 0);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        TransactionId tid = new TransactionId();
+        stored = new ArrayList<>();
+        Iterator<Tuple> it = ((HeapPage) bp.getPage(tid, p0, Permissions.READ_ONLY)).iterator();
+        while (it.hasNext()) {
+            stored.add(it.next());
+        }
+        bp.transactionComplete(tid);
+    }
+
+    private int count(TransactionId tid) throws Exception {
+        SeqScan scan = new SeqScan(tid, f.getId());
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        return n;
+    }
+
+    private int count() throws Exception {
+        TransactionId tid = new TransactionId();
+        int n = count(tid);
+        bp.transactionComplete(tid);
+        return n;
+    }
+
+    private TransactionId optimistic() {
+        TransactionId tid = new TransactionId();
+        bp.beginOptimistic(tid);
+        return tid;
+    }
+
+    /**
+     * An optimistic transaction takes no locks, and its writes are seen by
+     * no other transaction until it commits
+     */
+    @Test public void writesArePrivate() throws Exception {
+        TransactionId tid = optimistic();
+        bp.deleteTuple(tid, stored.get(0));
+        bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(-1, 2));
+        bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(-2, 2));
+        assertFalse(bp.holdsLock(tid, p0));
+        assertEquals(505, count(tid));
+        assertEquals(504, count());
+
+        bp.commitOptimistic(tid);
+        assertEquals(505, count());
+        assertEquals(2, f.numPages());
+    }
+
+    /**
+     * Of two optimistic transactions that read and write the same page, the
+     * second to commit fails validation
+     */
+    @Test public void conflictFailsValidation() throws Exception {
+        TransactionId t1 = optimistic();
+        TransactionId t2 = optimistic();
+        assertEquals(504, count(t1));
+        assertEquals(504, count(t2));
+        bp.deleteTuple(t1, stored.get(0));
+        bp.deleteTuple(t2, stored.get(1));
+
+        bp.commitOptimistic(t1);
+        try {
+            bp.commitOptimistic(t2);
+            fail("expected TransactionAbortedException");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        bp.transactionComplete(t2, false);
+        assertEquals(503, count());
+    }
+
+    /**
+     * A commit of a page by a locking transaction fails the validation of an
+     * optimistic one that read the page before
+     */
+    @Test public void lockingCommitFailsValidation() throws Exception {
+        TransactionId reader = optimistic();
+        assertEquals(504, count(reader));
+        bp.insertTuple(reader, f.getId(), Utility.getHeapTuple(-1, 2));
+
+        TransactionId writer = new TransactionId();
+        bp.deleteTuple(writer, stored.get(0));
+        bp.transactionComplete(writer);
+        try {
+            bp.commitOptimistic(reader);
+            fail("expected TransactionAbortedException");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertEquals(503, count());
+    }
+
+    /**
+     * Validation fails if a locking transaction holds a lock on a page the
+     * optimistic one wrote
+     */
+    @Test public void lockedPageFailsValidation() throws Exception {
+        TransactionId tid = optimistic();
+        bp.deleteTuple(tid, stored.get(0));
+        TransactionId reader = new TransactionId();
+        bp.getPage(reader, p0, Permissions.READ_ONLY);
+        try {
+            bp.commitOptimistic(tid);
+            fail("expected TransactionAbortedException");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertFalse(bp.holdsLock(tid, p0));
+        bp.transactionComplete(reader);
+        assertEquals(504, count());
+    }
+
+    /**
+     * An abort drops the private copies; a page appended for an insert
+     * stays empty
+     */
+    @Test public void abortDropsWrites() throws Exception {
+        TransactionId tid = optimistic();
+        bp.deleteTuple(tid, stored.get(0));
+        bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(-1, 2));
+        bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(-2, 2));
+        bp.transactionComplete(tid, false);
+        assertEquals(504, count());
+        HeapPage appended = (HeapPage) f.readPage(new HeapPageId(f.getId(), 1));
+        assertFalse(appended.iterator().hasNext());
+    }
+
+    /** The tuples on page pgNo of file, read by a locking transaction */
+    private List<Tuple> tuplesOf(HeapFile file, int pgNo) throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Tuple> tuples = new ArrayList<>();
+        Iterator<Tuple> it = ((HeapPage) bp.getPage(tid, new HeapPageId(file.getId(), pgNo),
+                Permissions.READ_ONLY)).iterator();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        bp.transactionComplete(tid);
+        return tuples;
+    }
+
+    /**
+     * A failed validation installs none of the pages written, not even those
+     * nobody else committed; after the abort the transaction can be retried
+     */
+    @Test public void failedValidationInstallsNothing() throws Exception {
+        HeapFile two = SystemTestUtil.createRandomHeapFile(2, 2 * 504, null, null);
+        Tuple onFirst = tuplesOf(two, 0).get(0);
+        Tuple onSecond = tuplesOf(two, 1).get(0);
+
+        TransactionId tid = optimistic();
+        bp.deleteTuple(tid, onFirst);
+        bp.deleteTuple(tid, onSecond);
+        TransactionId writer = new TransactionId();
+        bp.deleteTuple(writer, tuplesOf(two, 1).get(1));
+        bp.transactionComplete(writer);
+        try {
+            bp.commitOptimistic(tid);
+            fail("expected TransactionAbortedException");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        bp.transactionComplete(tid, false);
+        assertEquals(504, tuplesOf(two, 0).size());
+        assertEquals(503, tuplesOf(two, 1).size());
+
+        TransactionId retry = optimistic();
+        bp.deleteTuple(retry, onFirst);
+        bp.deleteTuple(retry, onSecond);
+        bp.commitOptimistic(retry);
+        assertEquals(503, tuplesOf(two, 0).size());
+        assertEquals(502, tuplesOf(two, 1).size());
+    }
+
+    /**
+     * B+ tree files write pages around the private copies, so optimistic
+     * transactions cannot read or write them; the abort that follows leaves
+     * the tree as it was
+     */
+    @Test public void bTreeFilesAreRejected() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 1000, null, tuples, 0);
+        bp = Database.getBufferPool();
+        int pages = bf.numPages();
+
+        TransactionId tid = optimistic();
+        try {
+            bp.insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(-1, 2));
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        DbFileIterator it = bf.iterator(tid);
+        try {
+            it.open();
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        it.close();
+        bp.transactionComplete(tid, false);
+
+        assertEquals(pages, bf.numPages());
+        TransactionId reader = new TransactionId();
+        it = bf.iterator(reader);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        bp.transactionComplete(reader);
+        assertEquals(1000, n);
+    }
+
+    /**
+     * A private copy shares no tuple with the committed page other
+     * transactions read, so changing a tuple read from it leaves that page
+     * as it was
+     */
+    @Test public void copiesShareNoTuples() throws Exception {
+        TransactionId writer = optimistic();
+        HeapPage copy = (HeapPage) bp.getPage(writer, p0, Permissions.READ_WRITE);
+        Tuple read = copy.iterator().next();
+        read.setField(0, new IntField(-1));
+        read.setRecordId(null);
+
+        TransactionId reader = optimistic();
+        Iterator<Tuple> it = ((HeapPage) bp.getPage(reader, p0, Permissions.READ_ONLY)).iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertNotEquals(new IntField(-1), t.getField(0));
+            assertNotNull(t.getRecordId());
+        }
+        bp.transactionComplete(writer, false);
+        bp.transactionComplete(reader, false);
+    }
+
+    /**
+     * Optimistic transactions commit only through commitOptimistic
+     */
+    @Test(expected = IllegalStateException.class)
+    public void transactionCompleteCannotCommit() throws Exception {
+        TransactionId tid = optimistic();
+        bp.deleteTuple(tid, stored.get(0));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OptimisticTest.class);
+    }
+}
@@ -0,0 +1,176 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class PageSizeTest extends SimpleDbTestBase {
+
+    private static final int LARGE = 16384;
+
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Create a two column heap file of the given rows with pages of pageSize
+     * bytes and add it to the catalog
+     */
+    private HeapFile createHeapFile(int rows, int pageSize) throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            List<Integer> tuple = new ArrayList<>();
+            tuple.add(i);
+            tuple.add(-i);
+            tuples.add(tuple);
+        }
+        File file = File.createTempFile("table", ".dat");
+        file.deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, pageSize, 2);
+        HeapFile hf = new HeapFile(file, Utility.getTupleDesc(2), pageSize);
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        return hf;
+    }
+
+    private int count(TransactionId tid, DbFile file) throws Exception {
+        SeqScan scan = new SeqScan(tid, file.getId());
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        return n;
+    }
+
+    /**
+     * A heap file with large pages is read with its own page size, next to a
+     * table with the default page size
+     */
+    @Test public void heapFileWithLargePages() throws Exception {
+        HeapFile large = createHeapFile(5000, LARGE);
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        assertEquals(LARGE, large.getPageSize());
+        assertEquals(BufferPool.getPageSize(), small.getPageSize());
+        assertEquals(3, large.numPages());
+        assertTrue(small.numPages() > 3);
+
+        TransactionId tid = new TransactionId();
+        assertEquals(5000, count(tid, large));
+        assertEquals(5000, count(tid, small));
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(large.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(LARGE, page.getPageSize());
+        assertEquals(LARGE, page.getPageData().length);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Inserts that fill a large page append another page of the same size
+     */
+    @Test public void insertAppendsLargePages() throws Exception {
+        HeapFile large = createHeapFile(0, LARGE);
+        TransactionId tid = new TransactionId();
+        int perPage = LARGE * 8 / (large.getTupleDesc().getSize() * 8 + 1);
+        for (int i = 0; i <= perPage; i++) {
+            bp.insertTuple(tid, large.getId(), Utility.getHeapTuple(i, 2));
+        }
+        bp.transactionComplete(tid);
+
+        assertEquals(2, large.numPages());
+        assertEquals(2L * LARGE, large.getFile().length());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        assertEquals(perPage + 1, count(tid, large));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A B+ tree with large pages keeps its root pointer page at the fixed
+     * size and needs fewer pages than one with the default size
+     */
+    @Test public void bTreeWithLargePages() throws Exception {
+        File file = File.createTempFile("btree", ".dat");
+        file.deleteOnExit();
+        BTreeFile large = new BTreeFile(file, 0, Utility.getTupleDesc(2), LARGE);
+        Database.getCatalog().addTable(large, UUID.randomUUID().toString());
+        File smallFile = File.createTempFile("btree", ".dat");
+        smallFile.deleteOnExit();
+        BTreeFile small = BTreeUtility.openBTreeFile(2, smallFile, 0);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3000; i++) {
+            bp.insertTuple(tid, large.getId(), BTreeUtility.getBTreeTuple(i, 2));
+            bp.insertTuple(tid, small.getId(), BTreeUtility.getBTreeTuple(i, 2));
+        }
+        bp.transactionComplete(tid);
+
+        assertEquals(BTreeRootPtrPage.getPageSize() + (long) large.numPages() * LARGE, file.length());
+        assertTrue(large.numPages() < small.numPages());
+        tid = new TransactionId();
+        assertEquals(3000, count(tid, large));
+        BTreePageId root = ((BTreeRootPtrPage) bp.getPage(tid, BTreeRootPtrPage.getId(large.getId()),
+                Permissions.READ_ONLY)).getRootId();
+        assertEquals(LARGE, bp.getPage(tid, root, Permissions.READ_ONLY).getPageData().length);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * The catalog reads an optional page size after the fields of a table
+     */
+    @Test public void catalogPageSize() throws Exception {
+        String name = "t" + UUID.randomUUID().toString().replace("-", "");
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+        File data = new File(dir, name + ".dat");
+        data.deleteOnExit();
+        File schema = File.createTempFile("catalog", ".txt", dir);
+        schema.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(schema)) {
+            out.println(name + " (a int, b int) pagesize " + LARGE);
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+
+        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId(name));
+        assertEquals(LARGE, hf.getPageSize());
+    }
+
+    /**
+     * A page size that does not fit a single tuple is rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTinyPages() {
+        new HeapFile(new File("unused.dat"), Utility.getTupleDesc(2), 8);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
@@ -0,0 +1,171 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PinCountTest extends SimpleDbTestBase {
+
+    private HeapFile f;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        f = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        bp = Database.resetBufferPool(2);
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(f.getId(), pgNo);
+    }
+
+    /**
+     * A pinned page stays in the pool while other pages are fetched, and
+     * pinned pages are not evicted even if they are clean
+     */
+    @Test public void pinnedPageIsNotEvicted() throws Exception {
+        TransactionId tid = new TransactionId();
+        Page pinned = bp.getPinnedPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+        assertSame(pinned, bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+
+        bp.getPinnedPage(tid, pid(2), Permissions.READ_ONLY);
+        try {
+            bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // both pages in the pool are pinned
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Pins nest; the page becomes evictable once every pin is released
+     */
+    @Test public void pinsAreCounted() throws Exception {
+        TransactionId tid = new TransactionId();
+        Page pinned = bp.getPinnedPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.getPinnedPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(2, bp.getPinCount(pid(0)));
+
+        bp.unpinPage(tid, pid(0));
+        assertEquals(1, bp.getPinCount(pid(0)));
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+        assertSame(pinned, bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+
+        bp.unpinPage(tid, pid(0));
+        bp.unpinPage(tid, pid(0)); // no pin left, ignored
+        assertEquals(0, bp.getPinCount(pid(0)));
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+        assertNotSame(pinned, bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Pins a transaction does not release itself end when it completes
+     */
+    @Test public void transactionCompleteReleasesPins() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.getPinnedPage(t1, pid(0), Permissions.READ_ONLY);
+        bp.getPinnedPage(t1, pid(0), Permissions.READ_ONLY);
+        bp.getPinnedPage(t2, pid(0), Permissions.READ_ONLY);
+        assertEquals(3, bp.getPinCount(pid(0)));
+
+        bp.unpinPage(t2, pid(0)); // t1's pins are not t2's to release
+        bp.unpinPage(t2, pid(0));
+        assertEquals(2, bp.getPinCount(pid(0)));
+
+        bp.transactionComplete(t1);
+        assertEquals(0, bp.getPinCount(pid(0)));
+        bp.transactionComplete(t2);
+    }
+
+    /**
+     * A scan keeps only the page it is on pinned, and none once closed
+     */
+    @Test public void scanPinsCurrentPage() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        it.next();
+        assertEquals(1, bp.getPinCount(pid(0)));
+        for (int i = 0; i < 504; i++) {
+            it.next();
+        }
+        assertEquals(0, bp.getPinCount(pid(0)));
+        assertEquals(1, bp.getPinCount(pid(1)));
+        it.close();
+        assertEquals(0, bp.getPinCount(pid(1)));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Pins end with a discarded page: unpinning it later does not release a
+     * pin another transaction took on the copy read in since
+     */
+    @Test public void discardDropsPins() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.getPinnedPage(t1, pid(0), Permissions.READ_ONLY);
+        bp.discardPage(pid(0));
+        assertEquals(0, bp.getPinCount(pid(0)));
+
+        bp.getPinnedPage(t2, pid(0), Permissions.READ_ONLY);
+        bp.unpinPage(t1, pid(0));
+        assertEquals(1, bp.getPinCount(pid(0)));
+        bp.transactionComplete(t1);
+        assertEquals(1, bp.getPinCount(pid(0)));
+        bp.transactionComplete(t2);
+    }
+
+    /**
+     * A B+ tree range search unpins its leaf once it reaches the end of the
+     * range, even if it is not closed
+     */
+    @Test public void searchUnpinsAtEnd() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 1000, null, tuples, 0);
+        BufferPool bp = Database.getBufferPool();
+        int key = tuples.get(0).get(0);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+        it.open();
+        PageId leaf = it.next().getRecordId().getPageId();
+        assertEquals(1, bp.getPinCount(leaf));
+        while (it.hasNext()) {
+            it.next();
+        }
+        assertEquals(0, bp.getPinCount(leaf));
+        assertFalse(it.hasNext());
+        it.close();
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PinCountTest.class);
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private HeapFile f;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        f = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        bp = Database.resetBufferPool(40);
+    }
+
+    /** Wait until the pool has loaded the given number of pages */
+    private void awaitLoads(long loads) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (bp.getReplacementPolicy().getStats().getMisses() < loads
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(loads, bp.getReplacementPolicy().getStats().getMisses());
+    }
+
+    /**
+     * Unit test for ReadAhead.advance()
+     */
+    @Test public void detectsSequentialRuns() {
+        ReadAhead ra = new ReadAhead(4);
+        assertEquals(0, ra.advance(false));
+        assertEquals(0, ra.advance(true));
+        assertEquals(4, ra.advance(true));
+        assertEquals(0, ra.advance(true));
+        assertEquals(4, ra.advance(true));
+        assertEquals(0, ra.advance(false));
+        assertEquals(0, ra.advance(true));
+        assertEquals(4, ra.advance(true));
+    }
+
+    /**
+     * Pages requested by id are loaded, and a later getPage is a hit
+     */
+    @Test public void loadsListedPages() throws Exception {
+        List<PageId> pids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            pids.add(new HeapPageId(f.getId(), i));
+        }
+        bp.readAhead(pids);
+        awaitLoads(5);
+
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, pids.get(4), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+        assertEquals(5, bp.getReplacementPolicy().getStats().getMisses());
+        assertEquals(1, bp.getReplacementPolicy().getStats().getHits());
+    }
+
+    /**
+     * A chain is followed page by page and stops after count pages
+     */
+    @Test public void followsChain() throws Exception {
+        bp.readAhead(new HeapPageId(f.getId(), 2), 3,
+                page -> new HeapPageId(f.getId(), page.getId().getPageNumber() + 1));
+        awaitLoads(3);
+        Thread.sleep(50);
+        assertEquals(3, bp.getReplacementPolicy().getStats().getMisses());
+    }
+
+    /**
+     * Read-ahead never takes more than a quarter of the pool, skips pages
+     * that are locked exclusively, and does nothing when disabled
+     */
+    @Test public void limits() throws Exception {
+        bp = Database.resetBufferPool(20);
+        TransactionId writer = new TransactionId();
+        bp.getPage(writer, new HeapPageId(f.getId(), 0), Permissions.READ_WRITE);
+        bp.getReplacementPolicy().getStats().reset();
+
+        List<PageId> pids = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            pids.add(new HeapPageId(f.getId(), i));
+        }
+        bp.readAhead(pids);
+        awaitLoads(4);
+        Thread.sleep(50);
+        assertEquals(4, bp.getReplacementPolicy().getStats().getMisses());
+        bp.transactionComplete(writer);
+
+        bp = Database.resetBufferPool(40);
+        bp.setReadAhead(false);
+        bp.readAhead(pids);
+        Thread.sleep(50);
+        assertEquals(0, bp.getReplacementPolicy().getStats().getMisses());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,349 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.Delete;
+import simpledb.execution.Filter;
+import simpledb.execution.Insert;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecordLockTest extends SimpleDbTestBase {
+
+    /** Time to wait for a blocked request to stay blocked, in ms */
+    private static final int TIMEOUT = 100;
+
+    private HeapFile f;
+    private HeapPageId p0;
+    private List<Tuple> stored;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        // one page, mostly empty
+        f = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        p0 = new HeapPageId(f.getId(), 0);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setRecordLocking(true);
+
+        TransactionId tid = new TransactionId();
+        stored = new ArrayList<>();
+        Iterator<Tuple> it = ((HeapPage) bp.getPage(tid, p0, Permissions.READ_ONLY)).iterator();
+        while (it.hasNext()) {
+            stored.add(it.next());
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /** Deletes a tuple in a thread of its own */
+    private static class Deleter extends Thread {
+        final TransactionId tid;
+        final Tuple tuple;
+        volatile boolean deleted = false;
+
+        Deleter(TransactionId tid, Tuple tuple) {
+            this.tid = tid;
+            this.tuple = tuple;
+        }
+
+        public void run() {
+            try {
+                Database.getBufferPool().deleteTuple(tid, tuple);
+                deleted = true;
+            } catch (Exception e) {
+                Database.getBufferPool().transactionComplete(tid, false);
+            }
+        }
+    }
+
+    private int count() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId());
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        bp.transactionComplete(tid);
+        return n;
+    }
+
+    /**
+     * Transactions insert into and delete from the same page without
+     * waiting, and each one commits or aborts only its own changes
+     */
+    @Test public void writersShareAPage() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        Tuple a = Utility.getHeapTuple(-1, 2);
+        Tuple b = Utility.getHeapTuple(-2, 2);
+        bp.insertTuple(t1, f.getId(), a);
+        bp.insertTuple(t2, f.getId(), b);
+        bp.deleteTuple(t2, stored.get(0));
+        bp.deleteTuple(t1, stored.get(1));
+        assertEquals(p0, a.getRecordId().getPageId());
+        assertEquals(p0, b.getRecordId().getPageId());
+
+        bp.transactionComplete(t1);
+        bp.transactionComplete(t2, false);
+        assertEquals(10, count());
+        assertEquals(1, f.numPages());
+    }
+
+    /**
+     * A commit writes the page without the changes of transactions that are
+     * still running
+     */
+    @Test public void commitWritesOnlyCommittedChanges() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.insertTuple(t1, f.getId(), Utility.getHeapTuple(-1, 2));
+        bp.insertTuple(t2, f.getId(), Utility.getHeapTuple(-2, 2));
+        bp.transactionComplete(t1);
+
+        HeapPage onDisk = (HeapPage) f.readPage(p0);
+        int used = 0;
+        Iterator<Tuple> it = onDisk.iterator();
+        while (it.hasNext()) {
+            assertNotEquals(-2, ((IntField) it.next().getField(0)).getValue());
+            used++;
+        }
+        assertEquals(11, used);
+
+        bp.transactionComplete(t2);
+        assertEquals(12, count());
+    }
+
+    /**
+     * A transaction waits for the lock on a record another one deleted,
+     * and an insert does not reuse the slot of a record still locked
+     */
+    @Test public void recordLocksConflict() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        Tuple victim = stored.get(0);
+        RecordId rid = victim.getRecordId();
+        bp.deleteTuple(t1, victim);
+        Tuple inserted = Utility.getHeapTuple(-1, 2);
+        bp.insertTuple(t2, f.getId(), inserted);
+        assertNotEquals(rid, inserted.getRecordId());
+
+        Deleter deleter = new Deleter(t2, victim);
+        deleter.start();
+        Thread.sleep(TIMEOUT);
+        assertFalse(deleter.deleted);
+
+        // the abort puts the tuple back, so t2 can delete it
+        bp.transactionComplete(t1, false);
+        deleter.join(10 * TIMEOUT);
+        assertTrue(deleter.deleted);
+        bp.transactionComplete(t2);
+        assertEquals(10, count());
+    }
+
+    /**
+     * An insert only reads the full pages it walks past: it writes none of
+     * them, so a reader locking a whole full page does not wait for it
+     */
+    @Test public void insertOnlyReadsFullPages() throws Exception {
+        HeapFile full = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        HeapPageId first = new HeapPageId(full.getId(), 0);
+        TransactionId writer = new TransactionId();
+        Tuple inserted = Utility.getHeapTuple(-1, 2);
+        bp.insertTuple(writer, full.getId(), inserted);
+        assertEquals(1, inserted.getRecordId().getPageId().getPageNumber());
+
+        TransactionId reader = new TransactionId();
+        Thread locker = new Thread(() -> {
+            try {
+                bp.getPage(reader, first, Permissions.READ_ONLY);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        locker.start();
+        locker.join(10 * TIMEOUT);
+        assertFalse(locker.isAlive());
+        assertTrue(bp.holdsLock(reader, first));
+
+        bp.transactionComplete(reader);
+        bp.transactionComplete(writer);
+    }
+
+    /** Run plan, an Insert or Delete, to the end and return its count */
+    private static int run(OpIterator plan) throws Exception {
+        plan.open();
+        int n = ((IntField) plan.next().getField(0)).getValue();
+        plan.close();
+        return n;
+    }
+
+    /** A plan for tid that deletes the tuples of f whose first field equals key's */
+    private OpIterator deleteLike(TransactionId tid, Tuple key) {
+        return new Delete(tid, new Filter(new Predicate(0, Predicate.Op.EQUALS, key.getField(0)),
+                new SeqScan(tid, f.getId())));
+    }
+
+    /** A plan for tid that inserts t into f */
+    private OpIterator insert(TransactionId tid, Tuple t) throws DbException {
+        return new Insert(tid, new TupleIterator(f.getTupleDesc(), Collections.singletonList(t)), f.getId());
+    }
+
+    /**
+     * Insert statements on one table run at the same time, as their scans
+     * take intention locks on the table; a Delete statement waits for the
+     * records it reads, and then deletes what was committed
+     */
+    @Test public void statementsShareATable() throws Exception {
+        TransactionId t1 = new TransactionId();
+        Tuple key = Utility.getHeapTuple(-1, 2);
+        assertEquals(1, run(insert(t1, key)));
+
+        TransactionId t2 = new TransactionId();
+        int[] counts = {-1, -1};
+        Thread writer = new Thread(() -> {
+            try {
+                counts[0] = run(insert(t2, Utility.getHeapTuple(-2, 2)));
+                counts[1] = run(deleteLike(t2, key));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+        Thread.sleep(TIMEOUT);
+        assertEquals(1, counts[0]);
+        assertTrue(writer.isAlive());
+
+        bp.transactionComplete(t1);
+        writer.join(10 * TIMEOUT);
+        assertFalse(writer.isAlive());
+        assertEquals(1, counts[1]);
+        bp.transactionComplete(t2);
+        assertEquals(11, count());
+    }
+
+    /*
+     * Delete every tuple of f in a statement of its own transaction while
+     * another transaction has an uncommitted insert and an uncommitted
+     * delete on the same page, which then commits or aborts
+     */
+    private void deleteAllBehind(boolean commit) throws Exception {
+        TransactionId t1 = new TransactionId();
+        bp.insertTuple(t1, f.getId(), Utility.getHeapTuple(-1, 2));
+        bp.deleteTuple(t1, stored.get(0));
+
+        TransactionId t2 = new TransactionId();
+        int[] deleted = {-1};
+        Thread deleter = new Thread(() -> {
+            try {
+                deleted[0] = run(new Delete(t2, new SeqScan(t2, f.getId())));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        deleter.start();
+        Thread.sleep(TIMEOUT);
+        assertTrue(deleter.isAlive());
+
+        bp.transactionComplete(t1, commit);
+        deleter.join(10 * TIMEOUT);
+        assertFalse(deleter.isAlive());
+        // 9 stored tuples and the insert, or the 10 stored tuples
+        assertEquals(10, deleted[0]);
+        bp.transactionComplete(t2);
+        assertEquals(0, count());
+    }
+
+    /**
+     * A Delete statement does not read the uncommitted insert of another
+     * transaction, nor miss a tuple whose delete is rolled back
+     */
+    @Test public void deleteWaitsForAbort() throws Exception {
+        deleteAllBehind(false);
+    }
+
+    /**
+     * A Delete statement that waited for another transaction deletes the
+     * tuple it inserted
+     */
+    @Test public void deleteWaitsForCommit() throws Exception {
+        deleteAllBehind(true);
+    }
+
+    /**
+     * A tuple cannot be deleted through its record id once its slot holds
+     * another tuple
+     */
+    @Test public void deleteChecksTheSlot() throws Exception {
+        Tuple victim = stored.get(0);
+        TransactionId t1 = new TransactionId();
+        bp.deleteTuple(t1, victim);
+        bp.transactionComplete(t1);
+
+        TransactionId t2 = new TransactionId();
+        Tuple other = Utility.getHeapTuple(-1, 2);
+        bp.insertTuple(t2, f.getId(), other);
+        assertEquals(victim.getRecordId(), other.getRecordId());
+        bp.transactionComplete(t2);
+
+        Tuple stale = new Tuple(victim.getTupleDesc());
+        stale.setField(0, victim.getField(0));
+        stale.setField(1, victim.getField(1));
+        stale.setRecordId(other.getRecordId());
+        TransactionId t3 = new TransactionId();
+        try {
+            bp.deleteTuple(t3, stale);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        bp.transactionComplete(t3, false);
+        assertEquals(10, count());
+    }
+
+    /**
+     * Without record locking, a second writer of the page waits
+     */
+    @Test public void pageLockingWithoutRecordLocks() throws Exception {
+        bp.setRecordLocking(false);
+        TransactionId t1 = new TransactionId();
+        bp.deleteTuple(t1, stored.get(0));
+        Deleter deleter = new Deleter(new TransactionId(), stored.get(1));
+        deleter.start();
+        Thread.sleep(TIMEOUT);
+        assertFalse(deleter.deleted);
+
+        bp.transactionComplete(t1);
+        deleter.join(10 * TIMEOUT);
+        assertTrue(deleter.deleted);
+        bp.transactionComplete(deleter.tid);
+        assertEquals(8, count());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecordLockTest.class);
+    }
+}
@@ -0,0 +1,160 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(-1, pgNo);
+    }
+
+    /**
+     * Unit test for ClockReplacer: a referenced page survives one sweep
+     */
+    @Test public void clockSecondChance() {
+        ClockReplacer clock = new ClockReplacer();
+        clock.recordLoad(pid(0));
+        clock.recordLoad(pid(1));
+        clock.recordAccess(pid(0));
+        assertEquals(pid(1), clock.victim(p -> true));
+        assertEquals(pid(0), clock.victim(p -> true));
+        assertNull(clock.victim(p -> true));
+    }
+
+    /**
+     * Unit test for ClockReplacer: pinned pages are never offered as victims
+     */
+    @Test public void clockSkipsPinned() {
+        ClockReplacer clock = new ClockReplacer();
+        clock.recordLoad(pid(0));
+        clock.recordLoad(pid(1));
+        clock.recordPin(pid(0));
+        assertEquals(pid(1), clock.victim(p -> true));
+        assertNull(clock.victim(p -> true));
+        clock.recordUnpin(pid(0));
+        assertEquals(pid(0), clock.victim(p -> true));
+    }
+
+    /**
+     * Unit test for LruReplacer: the least recently used evictable page goes first
+     */
+    @Test public void lruOrder() {
+        LruReplacer lru = new LruReplacer();
+        for (int i = 0; i < 3; i++) {
+            lru.recordLoad(pid(i));
+        }
+        lru.recordAccess(pid(0));
+        assertEquals(pid(2), lru.victim(p -> !p.equals(pid(1))));
+        assertEquals(pid(1), lru.victim(p -> true));
+        assertEquals(pid(0), lru.victim(p -> true));
+    }
+
+    /**
+     * Unit test for TwoQueueReplacer: a page that was re-referenced after
+     * leaving the probationary queue is not displaced by a scan
+     */
+    @Test public void twoQueueScanResistant() {
+        TwoQueueReplacer twoQ = new TwoQueueReplacer(8);
+        PageId hot = pid(1000);
+        twoQ.recordLoad(hot);
+        twoQ.recordLoad(pid(0));
+        twoQ.recordLoad(pid(1));
+        assertEquals(hot, twoQ.victim(p -> true));
+        // loaded again while remembered as a ghost: promoted to the main queue
+        twoQ.recordLoad(hot);
+
+        for (int i = 2; i < 100; i++) {
+            twoQ.recordLoad(pid(i));
+            assertNotEquals(hot, twoQ.victim(p -> true));
+        }
+    }
+
+    /**
+     * Unit test for reinsert: a victim put back counts no miss, and a 2Q
+     * victim from the probationary queue goes back there instead of being
+     * promoted to the main queue
+     */
+    @Test public void reinsertKeepsHistory() {
+        TwoQueueReplacer twoQ = new TwoQueueReplacer(8);
+        twoQ.recordLoad(pid(0));
+        twoQ.recordLoad(pid(1));
+        assertEquals(pid(0), twoQ.victim(p -> true));
+        twoQ.reinsert(pid(0));
+        assertEquals(2, twoQ.getStats().getMisses());
+        // still the oldest probationary page, not a main queue one
+        assertEquals(pid(1), twoQ.victim(p -> true));
+        assertEquals(pid(0), twoQ.victim(p -> true));
+
+        LruReplacer lru = new LruReplacer();
+        lru.recordLoad(pid(0));
+        lru.recordLoad(pid(1));
+        assertEquals(pid(0), lru.victim(p -> true));
+        lru.reinsert(pid(0));
+        assertEquals(2, lru.getStats().getMisses());
+        assertEquals(pid(0), lru.victim(p -> true));
+    }
+
+    /**
+     * Unit test for ReplacementStats
+     */
+    @Test public void stats() {
+        ReplacementPolicy clock = new ClockReplacer();
+        clock.recordLoad(pid(0));
+        clock.recordLoad(pid(1));
+        clock.recordAccess(pid(0));
+        clock.recordAccess(pid(0));
+        clock.victim(p -> true);
+
+        ReplacementStats stats = clock.getStats();
+        assertEquals(2, stats.getHits());
+        assertEquals(2, stats.getMisses());
+        assertEquals(0.5, stats.getHitRatio(), 1e-9);
+        assertEquals(1, stats.getEvictionScans());
+        assertEquals(2, stats.getFramesScanned());
+
+        stats.reset();
+        assertEquals(0, stats.getHits());
+        assertEquals(0, stats.getMisses());
+    }
+
+    /**
+     * BufferPool reports its hits, misses and evictions through the policy
+     * selected in Database.resetBufferPool
+     */
+    @Test public void bufferPoolUsesPolicy() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1024, null, null);
+        assertTrue(f.numPages() >= 3);
+        LruReplacer lru = new LruReplacer();
+        BufferPool bp = Database.resetBufferPool(2, lru);
+        assertSame(lru, bp.getReplacementPolicy());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3; i++) {
+            bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.getPage(tid, new HeapPageId(f.getId(), 2), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+
+        assertEquals(3, lru.getStats().getMisses());
+        assertEquals(1, lru.getStats().getHits());
+        assertEquals(1, lru.getStats().getEvictionScans());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
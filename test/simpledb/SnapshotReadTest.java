@@ -0,0 +1,177 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SnapshotReadTest extends SimpleDbTestBase {
+
+    /** Time to wait for a blocked request to stay blocked, in ms */
+    private static final int TIMEOUT = 100;
+
+    private HeapFile f;
+    private HeapPageId p0;
+    private List<Tuple> stored;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        // two pages
+        f = SystemTestUtil.createRandomHeapFile(2, 600, null, null);
+        p0 = new HeapPageId(f.getId(), 0);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setMultiVersion(true);
+
+        TransactionId tid = new TransactionId();
+        stored = new ArrayList<>();
+        Iterator<Tuple> it = ((HeapPage) bp.getPage(tid, p0, Permissions.READ_ONLY)).iterator();
+        while (it.hasNext()) {
+            stored.add(it.next());
+        }
+        bp.transactionComplete(tid);
+    }
+
+    private int count(TransactionId tid) throws Exception {
+        SeqScan scan = new SeqScan(tid, f.getId());
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        return n;
+    }
+
+    private TransactionId snapshot() {
+        TransactionId tid = new TransactionId();
+        bp.beginSnapshot(tid);
+        return tid;
+    }
+
+    /**
+     * A snapshot does not see commits that end after it starts, on any page,
+     * and its versions are dropped once it ends
+     */
+    @Test public void snapshotIgnoresLaterCommits() throws Exception {
+        TransactionId reader = snapshot();
+        assertEquals(600, count(reader));
+
+        TransactionId writer = new TransactionId();
+        bp.insertTuple(writer, f.getId(), Utility.getHeapTuple(-1, 2));
+        bp.deleteTuple(writer, stored.get(0));
+        bp.deleteTuple(writer, stored.get(1));
+        bp.transactionComplete(writer);
+
+        assertEquals(600, count(reader));
+        TransactionId later = snapshot();
+        assertEquals(599, count(later));
+        assertTrue(bp.getVersionCount() > 0);
+
+        bp.transactionComplete(reader);
+        bp.transactionComplete(later);
+        assertEquals(0, bp.getVersionCount());
+    }
+
+    /**
+     * A snapshot reads the committed version of a page another transaction
+     * holds locked exclusively, without a lock of its own
+     */
+    @Test public void snapshotIgnoresRunningWriters() throws Exception {
+        TransactionId writer = new TransactionId();
+        bp.deleteTuple(writer, stored.get(0));
+        assertTrue(bp.holdsLock(writer, p0));
+
+        TransactionId reader = snapshot();
+        assertEquals(600, count(reader));
+        assertFalse(bp.holdsLock(reader, p0));
+
+        bp.transactionComplete(writer);
+        assertEquals(600, count(reader));
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * Writers do not wait for a snapshot that read their pages
+     */
+    @Test public void writersDoNotWait() throws Exception {
+        TransactionId reader = snapshot();
+        assertEquals(600, count(reader));
+
+        TestUtil.LockGrabber writer = new TestUtil.LockGrabber(new TransactionId(), p0, Permissions.READ_WRITE);
+        writer.start();
+        writer.join(10 * TIMEOUT);
+        assertTrue(writer.acquired());
+        bp.transactionComplete(writer.tid);
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * A snapshot sees only committed record changes of transactions sharing
+     * a page under record locking
+     */
+    @Test public void snapshotWithRecordLocking() throws Exception {
+        bp.setRecordLocking(true);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.deleteTuple(t1, stored.get(0));
+        bp.deleteTuple(t2, stored.get(1));
+
+        TransactionId before = snapshot();
+        bp.transactionComplete(t1);
+        TransactionId after = snapshot();
+        assertEquals(600, count(before));
+        assertEquals(599, count(after));
+
+        bp.transactionComplete(t2, false);
+        assertEquals(599, count(after));
+        bp.transactionComplete(before);
+        bp.transactionComplete(after);
+    }
+
+    /**
+     * A snapshot cannot write
+     */
+    @Test public void snapshotIsReadOnly() throws Exception {
+        TransactionId reader = snapshot();
+        try {
+            bp.getPage(reader, p0, Permissions.READ_WRITE);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * Snapshots need multi-version reads on
+     */
+    @Test(expected = IllegalStateException.class)
+    public void snapshotNeedsMultiVersion() {
+        bp.setMultiVersion(false);
+        snapshot();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SnapshotReadTest.class);
+    }
+}
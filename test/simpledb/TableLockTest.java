@@ -0,0 +1,250 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class TableLockTest extends SimpleDbTestBase {
+
+    /** Time to wait for a blocked request to stay blocked, in ms */
+    private static final int TIMEOUT = 100;
+
+    private HeapFile f;
+    private PageId p0;
+    private PageId p1;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        f = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        p0 = new HeapPageId(f.getId(), 0);
+        p1 = new HeapPageId(f.getId(), 1);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** Locks the whole table in a thread of its own */
+    private static class TableLockGrabber extends Thread {
+        final TransactionId tid;
+        final int tableId;
+        final Permissions perm;
+        volatile boolean acquired = false;
+
+        TableLockGrabber(TransactionId tid, int tableId, Permissions perm) {
+            this.tid = tid;
+            this.tableId = tableId;
+            this.perm = perm;
+        }
+
+        public void run() {
+            try {
+                Database.getBufferPool().lockTable(tid, tableId, perm);
+                acquired = true;
+            } catch (Exception e) {
+                Database.getBufferPool().transactionComplete(tid, false);
+            }
+        }
+    }
+
+    private TestUtil.LockGrabber startGrabber(TransactionId tid, PageId pid, Permissions perm) throws Exception {
+        TestUtil.LockGrabber grabber = new TestUtil.LockGrabber(tid, pid, perm);
+        grabber.start();
+        Thread.sleep(TIMEOUT);
+        return grabber;
+    }
+
+    private void scan(TransactionId tid) throws Exception {
+        SeqScan scan = new SeqScan(tid, f.getId());
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.close();
+    }
+
+    /**
+     * A scan locks the table shared: other readers of its pages go ahead,
+     * writers wait until the scanning transaction completes
+     */
+    @Test public void scanLocksTable() throws Exception {
+        TransactionId scanner = new TransactionId();
+        scan(scanner);
+        assertTrue(bp.holdsLock(scanner, p0));
+        assertTrue(bp.holdsLock(scanner, p1));
+
+        TransactionId reader = new TransactionId();
+        bp.getPage(reader, p1, Permissions.READ_ONLY);
+        TestUtil.LockGrabber writer = startGrabber(new TransactionId(), p0, Permissions.READ_WRITE);
+        assertFalse(writer.acquired());
+
+        bp.transactionComplete(scanner);
+        writer.join(10 * TIMEOUT);
+        assertTrue(writer.acquired());
+        bp.transactionComplete(reader);
+        bp.transactionComplete(writer.tid);
+    }
+
+    /**
+     * Writers of different pages share the table through their intention
+     * locks, and a table lock waits for all of them
+     */
+    @Test public void intentionLocksShareTable() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.getPage(t1, p0, Permissions.READ_WRITE);
+        bp.getPage(t2, p1, Permissions.READ_WRITE);
+
+        TableLockGrabber table = new TableLockGrabber(new TransactionId(), f.getId(), Permissions.READ_ONLY);
+        table.start();
+        Thread.sleep(TIMEOUT);
+        assertFalse(table.acquired);
+        bp.transactionComplete(t1);
+        Thread.sleep(TIMEOUT);
+        assertFalse(table.acquired);
+        bp.transactionComplete(t2);
+        table.join(10 * TIMEOUT);
+        assertTrue(table.acquired);
+        bp.transactionComplete(table.tid);
+    }
+
+    /**
+     * A transaction that scanned a table can then write some of its pages;
+     * others can still read pages of the table but not write them
+     */
+    @Test public void scanThenWrite() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        scan(t1);
+        bp.getPage(t1, p0, Permissions.READ_WRITE);
+        bp.getPage(t2, p1, Permissions.READ_ONLY);
+        TestUtil.LockGrabber writer = startGrabber(t2, p1, Permissions.READ_WRITE);
+        assertFalse(writer.acquired());
+
+        bp.transactionComplete(t1);
+        writer.join(10 * TIMEOUT);
+        assertTrue(writer.acquired());
+        bp.transactionComplete(t2);
+    }
+
+    /**
+     * An exclusive table lock covers writes to every page and keeps readers
+     * of any page out
+     */
+    @Test public void exclusiveTableLock() throws Exception {
+        TransactionId t1 = new TransactionId();
+        bp.lockTable(t1, f.getId(), Permissions.READ_WRITE);
+        bp.getPage(t1, p0, Permissions.READ_WRITE);
+        bp.getPage(t1, p1, Permissions.READ_WRITE);
+        TestUtil.LockGrabber reader = startGrabber(new TransactionId(), p1, Permissions.READ_ONLY);
+        assertFalse(reader.acquired());
+
+        bp.transactionComplete(t1);
+        reader.join(10 * TIMEOUT);
+        assertTrue(reader.acquired());
+        bp.transactionComplete(reader.tid);
+    }
+
+    /**
+     * Reading as many pages as the escalation threshold locks the table
+     * shared, which keeps writers of other pages out
+     */
+    @Test public void escalatesToShared() throws Exception {
+        bp.setLockEscalationThreshold(2);
+        TransactionId t1 = new TransactionId();
+        bp.getPage(t1, p0, Permissions.READ_ONLY);
+        bp.getPage(t1, p1, Permissions.READ_ONLY);
+
+        PageId p2 = new HeapPageId(f.getId(), 2);
+        TransactionId reader = new TransactionId();
+        bp.getPage(reader, p2, Permissions.READ_ONLY);
+        TestUtil.LockGrabber writer = startGrabber(new TransactionId(), p2, Permissions.READ_WRITE);
+        assertFalse(writer.acquired());
+
+        bp.transactionComplete(reader);
+        Thread.sleep(TIMEOUT);
+        assertFalse(writer.acquired());
+        bp.transactionComplete(t1);
+        writer.join(10 * TIMEOUT);
+        assertTrue(writer.acquired());
+        bp.transactionComplete(writer.tid);
+    }
+
+    /**
+     * Writing as many pages as the escalation threshold locks the table
+     * exclusive, which keeps readers of other pages out
+     */
+    @Test public void escalatesToExclusive() throws Exception {
+        bp.setLockEscalationThreshold(2);
+        TransactionId t1 = new TransactionId();
+        bp.getPage(t1, p0, Permissions.READ_ONLY);
+        bp.getPage(t1, p1, Permissions.READ_WRITE);
+        assertTrue(bp.holdsLock(t1, new HeapPageId(f.getId(), 2)));
+
+        TestUtil.LockGrabber reader = startGrabber(new TransactionId(), new HeapPageId(f.getId(), 2),
+                Permissions.READ_ONLY);
+        assertFalse(reader.acquired());
+        bp.transactionComplete(t1);
+        reader.join(10 * TIMEOUT);
+        assertTrue(reader.acquired());
+        bp.transactionComplete(reader.tid);
+    }
+
+    /**
+     * A transaction keeps its page locks when another one uses the table,
+     * and neither waits for the other
+     */
+    @Test public void noEscalationWhileTableInUse() throws Exception {
+        bp.setLockEscalationThreshold(2);
+        PageId p2 = new HeapPageId(f.getId(), 2);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.getPage(t2, p2, Permissions.READ_WRITE);
+        bp.getPage(t1, p0, Permissions.READ_WRITE);
+        bp.getPage(t1, p1, Permissions.READ_WRITE);
+        assertFalse(bp.holdsLock(t1, p2));
+        bp.transactionComplete(t1);
+        bp.transactionComplete(t2);
+    }
+
+    /**
+     * A lock that is tried and not granted leaves the intention lock on the
+     * table as it was, so that a table lock it would conflict with is not
+     * kept waiting
+     */
+    @Test public void failedTryKeepsTableMode() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.getPage(t1, p0, Permissions.READ_ONLY);
+        bp.getPage(t2, p1, Permissions.READ_ONLY);
+        // needs an exclusive intention lock on p1, which t2 reads
+        assertFalse(bp.tryLockRecord(t1, new RecordId(p1, 0)));
+
+        TableLockGrabber table = new TableLockGrabber(new TransactionId(), f.getId(), Permissions.READ_ONLY);
+        table.start();
+        table.join(10 * TIMEOUT);
+        assertTrue(table.acquired);
+        bp.transactionComplete(t1);
+        bp.transactionComplete(t2);
+        bp.transactionComplete(table.tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TableLockTest.class);
+    }
+}
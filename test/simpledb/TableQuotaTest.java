@@ -0,0 +1,117 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class TableQuotaTest extends SimpleDbTestBase {
+
+    private HeapFile big;
+    private HeapFile small;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        big = SystemTestUtil.createRandomHeapFile(2, 504 * 8, null, null);
+        small = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        tid = new TransactionId();
+    }
+
+    private void fetch(BufferPool bp, HeapFile f, int pgNo) throws Exception {
+        bp.getPage(tid, new HeapPageId(f.getId(), pgNo), Permissions.READ_ONLY);
+    }
+
+    /**
+     * A scan of a big table does not take a table below its minimum share
+     */
+    @Test public void minimumShareIsKept() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        bp.setTableQuota(small.getId(), 2, 4);
+        fetch(bp, small, 0);
+        fetch(bp, small, 1);
+        for (int i = 0; i < 8; i++) {
+            fetch(bp, big, i);
+        }
+        assertEquals(2, bp.getResidentPages(small.getId()));
+        assertEquals(2, bp.getResidentPages(big.getId()));
+
+        long misses = bp.getStats().getTotal().getMisses();
+        fetch(bp, small, 0);
+        fetch(bp, small, 1);
+        assertEquals(misses, bp.getStats().getTotal().getMisses());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A table at its maximum share replaces its own pages, even if the pool
+     * has room
+     */
+    @Test public void maximumShareIsKept() throws Exception {
+        BufferPool bp = Database.resetBufferPool(6);
+        bp.setTableQuota(big.getId(), 0, 2);
+        fetch(bp, small, 0);
+        for (int i = 0; i < 8; i++) {
+            fetch(bp, big, i);
+        }
+        assertEquals(2, bp.getResidentPages(big.getId()));
+        assertEquals(1, bp.getResidentPages(small.getId()));
+        assertEquals(6, bp.getStats().getTotal().getEvictions());
+
+        bp.clearTableQuota(big.getId());
+        for (int i = 0; i < 4; i++) {
+            fetch(bp, big, i);
+        }
+        assertTrue(bp.getResidentPages(big.getId()) >= 5);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Quotas are overridden rather than failing a lookup
+     */
+    @Test public void quotaDoesNotFailLookups() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        bp.setTableQuota(small.getId(), 2, 2);
+        fetch(bp, small, 0);
+        fetch(bp, small, 1);
+        fetch(bp, big, 0);
+        assertEquals(1, bp.getResidentPages(big.getId()));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Minimum shares must fit into the pool
+     */
+    @Test public void minimumsMustFit() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        bp.setTableQuota(small.getId(), 2, 4);
+        bp.setTableQuota(small.getId(), 3, 4); // replaces the old quota
+        try {
+            bp.setTableQuota(big.getId(), 2, 4);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // 3 + 2 > 4
+        }
+        try {
+            bp.setTableQuota(big.getId(), 1, 0);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // min > max
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TableQuotaTest.class);
+    }
+}
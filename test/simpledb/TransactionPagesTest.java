@@ -0,0 +1,126 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class TransactionPagesTest extends SimpleDbTestBase {
+
+    private HeapFile f;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        f = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        bp = Database.resetBufferPool(10);
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(f.getId(), pgNo);
+    }
+
+    private HeapPage fetch(TransactionId tid, int pgNo) throws Exception {
+        return (HeapPage) bp.getPage(tid, pid(pgNo), Permissions.READ_WRITE);
+    }
+
+    /** Delete the first tuple of page pgNo on behalf of tid */
+    private void deleteFrom(TransactionId tid, int pgNo) throws Exception {
+        bp.deleteTuple(tid, fetch(tid, pgNo).iterator().next());
+    }
+
+    private int emptySlotsInPool(int pgNo) throws Exception {
+        TransactionId tid = new TransactionId();
+        int empty = ((HeapPage) bp.getPage(tid, pid(pgNo), Permissions.READ_ONLY)).getNumEmptySlots();
+        bp.transactionComplete(tid);
+        return empty;
+    }
+
+    private int emptySlotsOnDisk(int pgNo) {
+        return ((HeapPage) f.readPage(pid(pgNo))).getNumEmptySlots();
+    }
+
+    /**
+     * Completing a transaction leaves the pages of other transactions alone
+     */
+    @Test public void completesOnlyOwnPages() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        deleteFrom(t1, 0);
+        deleteFrom(t2, 1);
+
+        bp.transactionComplete(t2, true);
+        assertEquals(1, emptySlotsOnDisk(1));
+        assertEquals(0, emptySlotsOnDisk(0));
+        assertEquals(t1, fetch(t1, 0).isDirty());
+
+        bp.transactionComplete(t1, false);
+        assertEquals(0, emptySlotsInPool(0));
+        assertEquals(1, emptySlotsInPool(1));
+    }
+
+    /**
+     * Abort undoes changes made to a page fetched READ_WRITE even if the
+     * page was never marked dirty
+     */
+    @Test public void abortRestoresUnmarkedPage() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage page = fetch(tid, 2);
+        page.deleteTuple(page.iterator().next());
+        bp.transactionComplete(tid, false);
+
+        assertEquals(0, emptySlotsInPool(2));
+    }
+
+    /**
+     * Abort restores the version of the last commit, without reading the
+     * page from its file
+     */
+    @Test public void abortRestoresLastCommit() throws Exception {
+        TransactionId t1 = new TransactionId();
+        deleteFrom(t1, 0);
+        bp.transactionComplete(t1, true);
+
+        TransactionId t2 = new TransactionId();
+        deleteFrom(t2, 0);
+        deleteFrom(t2, 0);
+        long misses = bp.getReplacementPolicy().getStats().getMisses();
+        bp.transactionComplete(t2, false);
+
+        assertEquals(1, emptySlotsInPool(0));
+        assertEquals(misses, bp.getReplacementPolicy().getStats().getMisses());
+    }
+
+    /**
+     * flushPages writes the pages of one transaction only
+     */
+    @Test public void flushesOwnPages() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        deleteFrom(t1, 0);
+        deleteFrom(t2, 1);
+
+        bp.flushPages(t1);
+        assertEquals(1, emptySlotsOnDisk(0));
+        assertEquals(0, emptySlotsOnDisk(1));
+
+        bp.transactionComplete(t1, true);
+        bp.transactionComplete(t2, false);
+        assertEquals(0, emptySlotsOnDisk(1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TransactionPagesTest.class);
+    }
+}
@@ -0,0 +1,125 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class WarmRestartTest extends SimpleDbTestBase {
+
+    private HeapFile f;
+    private File hot;
+
+    @Before public void setUp() throws Exception {
+        f = SystemTestUtil.createRandomHeapFile(2, 504 * 6, null, null);
+        hot = File.createTempFile("simpledb", ".hot");
+        hot.deleteOnExit();
+    }
+
+    private void fetch(BufferPool bp, TransactionId tid, int pgNo) throws Exception {
+        bp.getPage(tid, new HeapPageId(f.getId(), pgNo), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Pages saved from one pool are loaded into a fresh one, which then
+     * serves them without reading the file
+     */
+    @Test public void reloadSavedPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        TransactionId tid = new TransactionId();
+        for (int pgNo : new int[] { 5, 1, 3 }) {
+            fetch(bp, tid, pgNo);
+        }
+        bp.transactionComplete(tid);
+        assertEquals(3, bp.saveHotPages(hot));
+
+        bp = Database.resetBufferPool(4);
+        bp.warmUp(hot).join();
+        assertEquals(3, bp.getStats().getTotal().getPagesRead());
+
+        tid = new TransactionId();
+        for (int pgNo : new int[] { 5, 1, 3 }) {
+            fetch(bp, tid, pgNo);
+        }
+        bp.transactionComplete(tid);
+        assertEquals(0, bp.getStats().getTotal().getMisses());
+    }
+
+    /**
+     * A smaller pool is warmed with the hottest pages only
+     */
+    @Test public void hottestPagesFirst() throws Exception {
+        BufferPool bp = Database.resetBufferPool(new BufferPool(4, new LruReplacer()));
+        TransactionId tid = new TransactionId();
+        for (int pgNo : new int[] { 0, 1, 2, 3, 0 }) {
+            fetch(bp, tid, pgNo);
+        }
+        bp.transactionComplete(tid);
+        bp.saveHotPages(hot);
+
+        bp = Database.resetBufferPool(2);
+        bp.warmUp(hot).join();
+        tid = new TransactionId();
+        fetch(bp, tid, 0);
+        fetch(bp, tid, 3);
+        bp.transactionComplete(tid);
+        assertEquals(2, bp.getStats().getTotal().getHits());
+        assertEquals(0, bp.getStats().getTotal().getMisses());
+    }
+
+    /**
+     * A missing file, or pages of tables no longer in the catalog, load
+     * nothing
+     */
+    @Test public void nothingToLoad() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        TransactionId tid = new TransactionId();
+        fetch(bp, tid, 0);
+        bp.transactionComplete(tid);
+        bp.saveHotPages(hot);
+
+        Database.getCatalog().clear();
+        bp = Database.resetBufferPool(4);
+        bp.warmUp(hot).join();
+        bp.warmUp(new File(hot.getPath() + ".missing")).join();
+        assertEquals(0, bp.getStats().getTotal().getPagesRead());
+    }
+
+    /**
+     * A checkpoint saves the page list next to the log
+     */
+    @Test public void checkpointSavesPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        TransactionId tid = new TransactionId();
+        fetch(bp, tid, 2);
+        bp.transactionComplete(tid);
+
+        File saved = Database.getLogFile().getHotPagesFile();
+        saved.delete();
+        Database.getLogFile().logCheckpoint();
+        assertTrue(saved.exists());
+
+        bp = Database.resetBufferPool(4);
+        bp.warmUp(saved).join();
+        assertEquals(1, bp.getStats().getTotal().getPagesRead());
+        saved.delete();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(WarmRestartTest.class);
+    }
+}
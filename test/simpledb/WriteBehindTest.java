@@ -0,0 +1,124 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class WriteBehindTest extends SimpleDbTestBase {
+
+    private HeapFile f;
+    private BufferPool bp;
+
+    /**
+     * A three page table, a pool with room for two pages, and a flusher that
+     * only runs when a test wakes it
+     */
+    @Before public void setUp() throws Exception {
+        f = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        bp = Database.resetBufferPool(2);
+        bp.startWriteBehind(1.0, Long.MAX_VALUE);
+    }
+
+    @After public void tearDown() throws Exception {
+        bp.stopWriteBehind();
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(f.getId(), pgNo);
+    }
+
+    /** Delete the first tuple of page pgNo on behalf of tid */
+    private void deleteFrom(TransactionId tid, int pgNo) throws Exception {
+        HeapPage page = (HeapPage) bp.getPage(tid, pid(pgNo), Permissions.READ_WRITE);
+        bp.deleteTuple(tid, page.iterator().next());
+    }
+
+    private int emptySlotsOnDisk(int pgNo) {
+        return ((HeapPage) f.readPage(pid(pgNo))).getNumEmptySlots();
+    }
+
+    /**
+     * Commit leaves the page in the pool; stopping write-behind writes it out
+     */
+    @Test public void commitDefersWrite() throws Exception {
+        TransactionId tid = new TransactionId();
+        deleteFrom(tid, 0);
+        bp.transactionComplete(tid, true);
+
+        assertTrue(bp.committedDirtyRatio() > 0);
+        assertEquals(0, emptySlotsOnDisk(0));
+
+        bp.stopWriteBehind();
+        assertEquals(0.0, bp.committedDirtyRatio(), 0);
+        assertEquals(1, emptySlotsOnDisk(0));
+    }
+
+    /**
+     * Aborting a transaction restores the last committed version of a page,
+     * not the older version on disk
+     */
+    @Test public void abortKeepsCommittedChanges() throws Exception {
+        TransactionId t1 = new TransactionId();
+        deleteFrom(t1, 0);
+        bp.transactionComplete(t1, true);
+
+        TransactionId t2 = new TransactionId();
+        deleteFrom(t2, 0);
+        bp.transactionComplete(t2, false);
+
+        TransactionId t3 = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(t3, pid(0), Permissions.READ_ONLY);
+        assertEquals(1, page.getNumEmptySlots());
+        assertEquals(t1, page.isDirty());
+        bp.transactionComplete(t3);
+    }
+
+    /**
+     * A pool full of committed pages makes room by writing some of them
+     */
+    @Test public void evictionFlushesCommittedPages() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            TransactionId tid = new TransactionId();
+            deleteFrom(tid, i);
+            bp.transactionComplete(tid, true);
+        }
+
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+        assertEquals(1, emptySlotsOnDisk(0));
+    }
+
+    /**
+     * Replacing the pool stops its flusher and writes out its committed
+     * pages
+     */
+    @Test public void resetStopsFlusher() throws Exception {
+        TransactionId tid = new TransactionId();
+        deleteFrom(tid, 0);
+        bp.transactionComplete(tid, true);
+        assertEquals(0, emptySlotsOnDisk(0));
+
+        Database.resetBufferPool(2);
+        assertFalse(bp.isWriteBehind());
+        assertEquals(1, emptySlotsOnDisk(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(WriteBehindTest.class);
+    }
+}
@@ -0,0 +1,52 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.Random;
+
+/**
+ * Measures the cost of aborting short update transactions, as a workload
+ * with many deadlock retries would. Each transaction deletes a tuple from
+ * some random pages of a table that fits in the pool and aborts; the next
+ * transaction to use those pages then reads the restored versions.
+ * <p>
+ * Run with: ant runbench -Dbench=AbortCostBenchmark
+ */
+public class AbortCostBenchmark {
+
+    private static final int TABLE_PAGES = 1000;
+    private static final int[] PAGES_PER_TRANSACTION = { 1, 8 };
+    private static final int TRANSACTIONS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        // 2 int columns -> 504 tuples per page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        BufferPool bp = Database.resetBufferPool(TABLE_PAGES);
+
+        System.out.printf("%-12s %12s %14s%n", "pages/txn", "us/abort", "aborts/sec");
+        for (int perTxn : PAGES_PER_TRANSACTION) {
+            Random rand = new Random(0);
+            long start = System.nanoTime();
+            for (int i = 0; i < TRANSACTIONS; i++) {
+                TransactionId tid = new TransactionId();
+                for (int j = 0; j < perTxn; j++) {
+                    HeapPageId pid = new HeapPageId(f.getId(), rand.nextInt(TABLE_PAGES));
+                    HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+                    bp.deleteTuple(tid, page.iterator().next());
+                }
+                bp.transactionComplete(tid, false);
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%-12d %12.1f %14.0f%n", perTxn, elapsed / 1e3 / TRANSACTIONS,
+                    TRANSACTIONS / (elapsed / 1e9));
+        }
+        Database.reset();
+    }
+}
@@ -0,0 +1,103 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures BufferPool.getPage() throughput when every request is a cache
+ * hit. A heap file is loaded completely into a pool large enough to hold it,
+ * then 1, 4, 16 and 64 threads fetch random pages READ_ONLY for a fixed
+ * interval. The run is repeated for a single-shard page table and for the
+ * default shard count so the effect of striping is visible.
+ * <p>
+ * Run with: ant runbench -Dbench=BufferPoolHitBenchmark
+ */
+public class BufferPoolHitBenchmark {
+
+    private static final int TABLE_PAGES = 256;
+    private static final int[] THREADS = { 1, 4, 16, 64 };
+    private static final long WARMUP_MS = 500;
+    private static final long MEASURE_MS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        // 2 int columns -> 504 tuples per page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+
+        System.out.printf("%-8s %8s %16s%n", "shards", "threads", "hits/sec");
+        for (int shards : new int[] { 1, BufferPool.DEFAULT_SHARDS }) {
+            for (int threads : THREADS) {
+                BufferPool bp = new BufferPool(TABLE_PAGES * 2, shards);
+                warm(bp, f);
+                double rate = run(bp, f, threads);
+                System.out.printf("%-8d %8d %16.0f%n", shards, threads, rate);
+            }
+        }
+        Database.reset();
+    }
+
+    private static void warm(BufferPool bp, HeapFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < f.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+    }
+
+    private static double run(BufferPool bp, HeapFile f, int numThreads) throws Exception {
+        final int tableId = f.getId();
+        final int numPages = f.numPages();
+        final PageId[] pids = new PageId[numPages];
+        for (int i = 0; i < numPages; i++) {
+            pids[i] = new HeapPageId(tableId, i);
+        }
+
+        final AtomicBoolean measuring = new AtomicBoolean(false);
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final LongAdder hits = new LongAdder();
+        final CountDownLatch finished = new CountDownLatch(numThreads);
+
+        for (int t = 0; t < numThreads; t++) {
+            Thread worker = new Thread(() -> {
+                TransactionId tid = new TransactionId();
+                ThreadLocalRandom rand = ThreadLocalRandom.current();
+                try {
+                    while (!done.get()) {
+                        bp.getPage(tid, pids[rand.nextInt(numPages)], Permissions.READ_ONLY);
+                        if (measuring.get()) {
+                            hits.increment();
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    bp.transactionComplete(tid);
+                    finished.countDown();
+                }
+            });
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        Thread.sleep(WARMUP_MS);
+        measuring.set(true);
+        long start = System.nanoTime();
+        Thread.sleep(MEASURE_MS);
+        measuring.set(false);
+        long elapsed = System.nanoTime() - start;
+        done.set(true);
+        finished.await();
+
+        return hits.sum() / (elapsed / 1e9);
+    }
+}
@@ -0,0 +1,57 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.TransactionId;
+
+import java.util.Random;
+
+/**
+ * Measures the cost of completing a short transaction as a function of the
+ * pool size. The pool is filled with clean pages, then each transaction
+ * dirties one page and commits or aborts. The pages come from a
+ * {@link MemoryFile}, so writing and re-reading them is free and the numbers
+ * show only the pool's own bookkeeping; it should not grow with the pool.
+ * <p>
+ * Run with: ant runbench -Dbench=CommitCostBenchmark
+ */
+public class CommitCostBenchmark {
+
+    private static final int[] POOL_PAGES = { 1024, 16 * 1024, 64 * 1024 };
+    private static final int TRANSACTIONS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%-8s %14s %14s%n", "pages", "commit ns", "abort ns");
+        for (int poolPages : POOL_PAGES) {
+            MemoryFile f = new MemoryFile(poolPages);
+            Database.getCatalog().addTable(f);
+            BufferPool bp = new BufferPool(poolPages);
+
+            TransactionId warm = new TransactionId();
+            for (int i = 0; i < poolPages; i++) {
+                bp.getPage(warm, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+            }
+            bp.transactionComplete(warm);
+
+            System.out.printf("%-8d %14.0f %14.0f%n", poolPages,
+                    run(bp, f, poolPages, true), run(bp, f, poolPages, false));
+        }
+        Database.reset();
+    }
+
+    /** Return the average ns per transaction. */
+    private static double run(BufferPool bp, MemoryFile f, int poolPages, boolean commit)
+            throws Exception {
+        Random rand = new Random(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            TransactionId tid = new TransactionId();
+            HeapPageId pid = new HeapPageId(f.getId(), rand.nextInt(poolPages));
+            bp.getPage(tid, pid, Permissions.READ_WRITE).markDirty(true, tid);
+            bp.transactionComplete(tid, commit);
+        }
+        return (double) (System.nanoTime() - start) / TRANSACTIONS;
+    }
+}
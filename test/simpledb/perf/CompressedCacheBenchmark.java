@@ -0,0 +1,100 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.CompressedPageCache;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+/**
+ * Compares a small BufferPool that reads every miss from the file with the
+ * same pool backed by a {@link CompressedPageCache} of evicted pages. For
+ * each configuration the table is read once, then random pages are
+ * fetched; the benchmark reports the cost of a fetch, the file reads and
+ * how well the cached page images compressed. It runs on a table of random
+ * ints, whose pages compress poorly, and on a table with a short string
+ * column, whose zero padding compresses well.
+ * <p>
+ * Run with: ant runbench -Dbench=CompressedCacheBenchmark
+ */
+public class CompressedCacheBenchmark {
+
+    private static final int TABLE_PAGES = 2000;
+    private static final int SMALL_POOL = 50;
+    private static final int FETCHES = 100000;
+
+    public static void main(String[] args) throws Exception {
+        // 2 int columns -> 504 tuples per page
+        HeapFile ints = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        HeapFile strings = createStringHeapFile();
+
+        System.out.printf("%-24s %12s %12s %10s %10s%n", "config", "ns/fetch", "file reads", "cache MB",
+                "ratio");
+        for (HeapFile f : new HeapFile[] { ints, strings }) {
+            String table = f == ints ? "ints" : "strings";
+            run(table + "/no-cache", f, null);
+            run(table + "/compressed", f, new CompressedPageCache(64L << 20));
+        }
+        Database.reset();
+    }
+
+    /** Create a table of an int and a string of 5 to 24 letters, TABLE_PAGES pages long. */
+    private static HeapFile createStringHeapFile() throws IOException {
+        Type[] types = { Type.INT_TYPE, Type.STRING_TYPE };
+        TupleDesc td = new TupleDesc(types);
+        int perPage = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        File text = File.createTempFile("strings", ".txt");
+        text.deleteOnExit();
+        Random rand = new Random(0);
+        try (PrintWriter out = new PrintWriter(new FileWriter(text))) {
+            for (int i = 0; i < perPage * TABLE_PAGES; i++) {
+                StringBuilder sb = new StringBuilder();
+                for (int k = 5 + rand.nextInt(20); k > 0; k--) {
+                    sb.append((char) ('a' + rand.nextInt(26)));
+                }
+                out.println(i + "," + sb);
+            }
+        }
+        File data = File.createTempFile("strings", ".dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 2, types);
+        HeapFile f = new HeapFile(data, td);
+        Database.getCatalog().addTable(f, "strings");
+        return f;
+    }
+
+    private static void run(String name, HeapFile f, CompressedPageCache cache) throws Exception {
+        BufferPool bp = Database.resetBufferPool(SMALL_POOL);
+        bp.setCompressedCache(cache);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < f.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.getStats().reset();
+
+        Random rand = new Random(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < FETCHES; i++) {
+            bp.getPage(tid, new HeapPageId(f.getId(), rand.nextInt(TABLE_PAGES)), Permissions.READ_ONLY);
+        }
+        long elapsed = System.nanoTime() - start;
+        bp.transactionComplete(tid);
+
+        System.out.printf("%-24s %12.0f %12d %10.1f %10.2f%n", name, (double) elapsed / FETCHES,
+                bp.getStats().getTotal().getPagesRead(),
+                cache == null ? 0 : cache.getBytes() / (double) (1 << 20),
+                cache == null ? 0 : cache.getRawBytes() / (double) cache.getBytes());
+    }
+}
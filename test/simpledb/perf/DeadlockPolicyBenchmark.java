@@ -0,0 +1,113 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LockManager.DeadlockPolicy;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the deadlock policies of the LockManager on two workloads that
+ * deadlock often. In the first, as in DeadlockTest, each transaction reads
+ * two pages of a small hot set and then writes one of them, so two readers
+ * of a page deadlock when both upgrade. In the second, as in
+ * BTreeDeadlockTest, each transaction inserts a few random keys into a
+ * B+ tree. Aborted transactions are retried with the same TransactionId,
+ * so they keep their age under the timestamp policies.
+ * <p>
+ * Run with: ant runbench -Dbench=DeadlockPolicyBenchmark
+ */
+public class DeadlockPolicyBenchmark {
+
+    private static final int HOT_PAGES = 8;
+    private static final int THREADS = 4;
+    private static final int UPGRADE_TRANSACTIONS = 20000;
+    private static final int INSERT_TRANSACTIONS = 2000;
+    private static final int INSERTS_PER_TRANSACTION = 4;
+
+    private interface Workload {
+        void run(TransactionId tid, Random rand) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        // 2 int columns -> 504 tuples per page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * HOT_PAGES, null, null);
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 10000, null, null, 0);
+        BufferPool bp = Database.resetBufferPool(1000);
+
+        Workload upgrade = (tid, rand) -> {
+            HeapPageId first = new HeapPageId(f.getId(), rand.nextInt(HOT_PAGES));
+            HeapPageId second = new HeapPageId(f.getId(), rand.nextInt(HOT_PAGES));
+            bp.getPage(tid, first, Permissions.READ_ONLY);
+            bp.getPage(tid, second, Permissions.READ_ONLY);
+            bp.getPage(tid, first, Permissions.READ_WRITE);
+        };
+        Workload insert = (tid, rand) -> {
+            for (int i = 0; i < INSERTS_PER_TRANSACTION; i++) {
+                bp.insertTuple(tid, bf.getId(),
+                        BTreeUtility.getBTreeTuple(rand.nextInt(BTreeUtility.MAX_RAND_VALUE), 2));
+            }
+        };
+
+        System.out.printf("%-12s %-10s %12s %10s%n", "workload", "policy", "txns/sec", "aborts");
+        for (DeadlockPolicy policy : DeadlockPolicy.values()) {
+            bp.setDeadlockPolicy(policy);
+            run("upgrade", policy, bp, upgrade, UPGRADE_TRANSACTIONS);
+        }
+        for (DeadlockPolicy policy : DeadlockPolicy.values()) {
+            bp.setDeadlockPolicy(policy);
+            run("btree", policy, bp, insert, INSERT_TRANSACTIONS);
+        }
+        Database.reset();
+    }
+
+    private static void run(String name, DeadlockPolicy policy, BufferPool bp, Workload workload,
+                            int transactions) throws Exception {
+        AtomicLong aborts = new AtomicLong();
+        Thread[] workers = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            Random rand = new Random(t);
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < transactions / THREADS; i++) {
+                    TransactionId tid = new TransactionId();
+                    while (!runTransaction(bp, tid, workload, rand)) {
+                        aborts.incrementAndGet();
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-12s %-10s %12.0f %10d%n", name, policy, transactions / (elapsed / 1e9),
+                aborts.get());
+    }
+
+    /* Return false if the transaction was aborted */
+    private static boolean runTransaction(BufferPool bp, TransactionId tid, Workload workload, Random rand) {
+        try {
+            workload.run(tid, rand);
+            bp.transactionComplete(tid);
+            return true;
+        } catch (TransactionAbortedException e) {
+            bp.transactionComplete(tid, false);
+            return false;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
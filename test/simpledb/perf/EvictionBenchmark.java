@@ -0,0 +1,81 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.storage.ReplacementStats;
+import simpledb.transaction.TransactionId;
+
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Measures the cost of a BufferPool miss that has to evict, on a pool with
+ * 16k frames. Before the misses start, a fraction of the resident frames is
+ * dirtied by a transaction that never completes, so under NO STEAL those
+ * frames can never be chosen as victims. A replacement policy that scans
+ * from a fixed position pays for every dirty frame on every miss; a clock
+ * hand should not.
+ * <p>
+ * Pages come from a {@link MemoryFile}, so a miss costs no I/O and the
+ * numbers reflect the pool's own bookkeeping. The clean-pool row is the
+ * baseline cost of a miss without any eviction search. Every replacement
+ * policy is run, and the frames it examined per eviction are reported from
+ * its counters.
+ * <p>
+ * Run with: ant runbench -Dbench=EvictionBenchmark
+ */
+public class EvictionBenchmark {
+
+    private static final int FRAMES = 16 * 1024;
+    private static final int MISSES = 20000;
+    private static final double[] DIRTY_FRACTIONS = { 0.0, 0.5, 0.9, 0.99 };
+
+    public static void main(String[] args) throws Exception {
+        MemoryFile f = new MemoryFile(FRAMES + MISSES);
+        Database.getCatalog().addTable(f);
+
+        System.out.printf("%-8s %-8s %8s %14s %14s %16s%n",
+                "policy", "frames", "dirty", "ns/miss", "misses/sec", "scanned/evict");
+        for (Map.Entry<String, IntFunction<ReplacementPolicy>> policy : Policies.all().entrySet()) {
+            for (double dirty : DIRTY_FRACTIONS) {
+                run(f, policy.getKey(), policy.getValue().apply(FRAMES), dirty);
+            }
+        }
+        Database.reset();
+    }
+
+    private static void run(MemoryFile f, String name, ReplacementPolicy policy, double dirty)
+            throws Exception {
+        BufferPool bp = new BufferPool(FRAMES, policy);
+
+        // fill the pool; dirty frames are loaded first
+        TransactionId writer = new TransactionId();
+        int numDirty = (int) (FRAMES * dirty);
+        for (int i = 0; i < FRAMES; i++) {
+            HeapPageId pid = new HeapPageId(f.getId(), i);
+            if (i < numDirty) {
+                bp.getPage(writer, pid, Permissions.READ_WRITE).markDirty(true, writer);
+            } else {
+                bp.getPage(writer, pid, Permissions.READ_ONLY);
+            }
+        }
+        ReplacementStats stats = policy.getStats();
+        stats.reset();
+
+        // every page past FRAMES is read for the first time, so each access misses
+        TransactionId reader = new TransactionId();
+        long start = System.nanoTime();
+        for (int i = FRAMES; i < FRAMES + MISSES; i++) {
+            bp.getPage(reader, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%-8s %-8d %7.0f%% %14.0f %14.0f %16.1f%n", name, FRAMES, dirty * 100,
+                (double) elapsed / MISSES, MISSES / (elapsed / 1e9),
+                (double) stats.getFramesScanned() / Math.max(1, stats.getEvictionScans()));
+        bp.transactionComplete(reader);
+    }
+}
@@ -0,0 +1,69 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.Random;
+
+/**
+ * Measures the cost of writing out many dirty pages at once, as a
+ * checkpoint (flushAllPages) or a large commit does. Each round dirties
+ * the given number of pages of a table that fits in the pool, either a
+ * contiguous range or pages at random, and flushes them.
+ * <p>
+ * Run with: ant runbench -Dbench=FlushBenchmark
+ */
+public class FlushBenchmark {
+
+    private static final int TABLE_PAGES = 2000;
+    private static final int[] DIRTY_PAGES = { 10, 100, 500 };
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) throws Exception {
+        // 2 int columns -> 504 tuples per page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        BufferPool bp = Database.resetBufferPool(TABLE_PAGES);
+
+        System.out.printf("%-8s %-12s %12s %12s%n", "pages", "layout", "flush ms", "commit ms");
+        for (int dirty : DIRTY_PAGES) {
+            for (boolean contiguous : new boolean[] { true, false }) {
+                Random rand = new Random(0);
+                long flushNs = 0;
+                long commitNs = 0;
+                for (int r = 0; r < ROUNDS; r++) {
+                    TransactionId tid = dirty(bp, f, dirty, contiguous, rand);
+                    long start = System.nanoTime();
+                    bp.flushAllPages();
+                    flushNs += System.nanoTime() - start;
+                    bp.transactionComplete(tid, true);
+
+                    tid = dirty(bp, f, dirty, contiguous, rand);
+                    start = System.nanoTime();
+                    bp.transactionComplete(tid, true);
+                    commitNs += System.nanoTime() - start;
+                }
+                System.out.printf("%-8d %-12s %12.2f %12.2f%n", dirty,
+                        contiguous ? "contiguous" : "random",
+                        flushNs / 1e6 / ROUNDS, commitNs / 1e6 / ROUNDS);
+            }
+        }
+        Database.reset();
+    }
+
+    /** Dirty n pages in a new transaction. */
+    private static TransactionId dirty(BufferPool bp, HeapFile f, int n, boolean contiguous,
+            Random rand) throws Exception {
+        TransactionId tid = new TransactionId();
+        int first = rand.nextInt(TABLE_PAGES - n);
+        for (int i = 0; i < n; i++) {
+            int pgNo = contiguous ? first + i : rand.nextInt(TABLE_PAGES);
+            bp.getPage(tid, new HeapPageId(f.getId(), pgNo), Permissions.READ_WRITE).markDirty(true, tid);
+        }
+        return tid;
+    }
+}
@@ -0,0 +1,70 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.FrameArena;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.TwoQueueReplacer;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.Random;
+
+/**
+ * Compares a BufferPool that caches a whole table as decoded pages on the
+ * heap with one that keeps only a few decoded pages and holds the table's
+ * page images in an off-heap {@link FrameArena}. For each configuration the
+ * table is read once, then random pages are fetched; the benchmark reports
+ * the Java heap retained by the pool and the cost of a fetch.
+ * <p>
+ * Run with: ant runbench -Dbench=FrameArenaBenchmark
+ */
+public class FrameArenaBenchmark {
+
+    private static final int TABLE_PAGES = 2000;
+    private static final int SMALL_POOL = 50;
+    private static final int FETCHES = 200000;
+
+    public static void main(String[] args) throws Exception {
+        // 2 int columns -> 504 tuples per page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+
+        System.out.printf("%-16s %12s %12s %14s%n", "config", "heap MB", "ns/fetch", "file reads");
+        run("heap-pool", f, TABLE_PAGES, false);
+        run("arena+" + SMALL_POOL, f, SMALL_POOL, true);
+        run("no-arena+" + SMALL_POOL, f, SMALL_POOL, false);
+        Database.reset();
+    }
+
+    private static void run(String name, HeapFile f, int poolPages, boolean withArena) throws Exception {
+        long before = SystemTestUtil.getMemoryFootprint();
+        FrameArena arena = withArena ? new FrameArena(TABLE_PAGES) : null;
+        BufferPool bp = new BufferPool(poolPages, BufferPool.DEFAULT_SHARDS,
+                new TwoQueueReplacer(poolPages), arena);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < f.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        }
+        long retained = SystemTestUtil.getMemoryFootprint() - before;
+        bp.getReplacementPolicy().getStats().reset();
+        if (arena != null) {
+            arena.getStats().reset();
+        }
+
+        Random rand = new Random(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < FETCHES; i++) {
+            bp.getPage(tid, new HeapPageId(f.getId(), rand.nextInt(TABLE_PAGES)), Permissions.READ_ONLY);
+        }
+        long elapsed = System.nanoTime() - start;
+        bp.transactionComplete(tid);
+
+        // misses of the decoded pool go to the file unless the arena serves them
+        long fileReads = arena != null ? arena.getStats().getMisses()
+                : bp.getReplacementPolicy().getStats().getMisses();
+        System.out.printf("%-16s %12.1f %12.0f %14d%n", name, retained / (double) (1 << 20),
+                (double) elapsed / FETCHES, fileReads);
+    }
+}
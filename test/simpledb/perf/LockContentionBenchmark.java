@@ -0,0 +1,109 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the LockManager under concurrent transactions. Each thread runs
+ * short transactions that read a few random pages of a table that fits in
+ * the pool and write one page of a small hot set; transactions aborted by
+ * deadlock detection are retried. A second run passes an exclusive lock on
+ * one page back and forth between two threads to measure how long a
+ * waiter takes to get a released lock.
+ * <p>
+ * Run with: ant runbench -Dbench=LockContentionBenchmark
+ */
+public class LockContentionBenchmark {
+
+    private static final int TABLE_PAGES = 1000;
+    private static final int HOT_PAGES = 16;
+    private static final int READS_PER_TRANSACTION = 4;
+    private static final int[] THREADS = { 1, 2, 4, 8 };
+    private static final int TRANSACTIONS = 40000;
+    private static final int HANDOFFS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        // 2 int columns -> 504 tuples per page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        BufferPool bp = Database.resetBufferPool(TABLE_PAGES);
+
+        System.out.printf("%-8s %12s %10s%n", "threads", "txns/sec", "aborts");
+        for (int threads : THREADS) {
+            AtomicLong aborts = new AtomicLong();
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                Random rand = new Random(t);
+                workers[t] = new Thread(() -> {
+                    for (int i = 0; i < TRANSACTIONS / threads; i++) {
+                        while (!runTransaction(bp, f, rand)) {
+                            aborts.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%-8d %12.0f %10d%n", threads, TRANSACTIONS / (elapsed / 1e9), aborts.get());
+        }
+
+        HeapPageId hot = new HeapPageId(f.getId(), 0);
+        Thread[] players = new Thread[2];
+        for (int t = 0; t < 2; t++) {
+            players[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < HANDOFFS / 2; i++) {
+                        TransactionId tid = new TransactionId();
+                        bp.getPage(tid, hot, Permissions.READ_WRITE);
+                        bp.transactionComplete(tid);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread player : players) {
+            player.start();
+        }
+        for (Thread player : players) {
+            player.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("exclusive lock on one page, 2 threads: %.1f us/transaction%n",
+                elapsed / 1e3 / HANDOFFS);
+        Database.reset();
+    }
+
+    /* Return false if the transaction was aborted */
+    private static boolean runTransaction(BufferPool bp, HeapFile f, Random rand) {
+        TransactionId tid = new TransactionId();
+        try {
+            for (int j = 0; j < READS_PER_TRANSACTION; j++) {
+                bp.getPage(tid, new HeapPageId(f.getId(), rand.nextInt(TABLE_PAGES)), Permissions.READ_ONLY);
+            }
+            bp.getPage(tid, new HeapPageId(f.getId(), rand.nextInt(HOT_PAGES)), Permissions.READ_WRITE);
+            bp.transactionComplete(tid);
+            return true;
+        } catch (TransactionAbortedException e) {
+            bp.transactionComplete(tid, false);
+            return false;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
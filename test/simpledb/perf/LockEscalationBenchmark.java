@@ -0,0 +1,65 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures bulk transactions that fetch every page of a table that fits in
+ * the pool one by one, as a large Delete or Insert does, with and without
+ * lock escalation. Reports the time to lock the pages and the time
+ * transactionComplete takes to release the locks; for READ_WRITE the
+ * commit also writes the pages, which dominates.
+ * <p>
+ * Run with: ant runbench -Dbench=LockEscalationBenchmark
+ */
+public class LockEscalationBenchmark {
+
+    private static final int TABLE_PAGES = 4000;
+    private static final int[] THRESHOLDS = { 0, 1000, 100 };
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) throws Exception {
+        // 2 int columns -> 504 tuples per page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        BufferPool bp = Database.resetBufferPool(TABLE_PAGES);
+        TransactionId warmUp = new TransactionId();
+        for (int i = 0; i < TABLE_PAGES; i++) {
+            bp.getPage(warmUp, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(warmUp);
+
+        System.out.printf("%-10s %-10s %14s %14s%n", "perm", "threshold", "us/lock", "us/commit");
+        for (Permissions perm : new Permissions[] { Permissions.READ_ONLY, Permissions.READ_WRITE }) {
+            for (int threshold : THRESHOLDS) {
+                run(bp, f, perm, threshold);
+            }
+        }
+        Database.reset();
+    }
+
+    private static void run(BufferPool bp, HeapFile f, Permissions perm, int threshold) throws Exception {
+        bp.setLockEscalationThreshold(threshold);
+        long locking = 0;
+        long releasing = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            for (int i = 0; i < TABLE_PAGES; i++) {
+                bp.getPage(tid, new HeapPageId(f.getId(), i), perm);
+            }
+            long locked = System.nanoTime();
+            // nothing changed, so the commit only releases locks
+            bp.transactionComplete(tid);
+            long done = System.nanoTime();
+            locking += locked - start;
+            releasing += done - locked;
+        }
+        System.out.printf("%-10s %-10d %14.3f %14.1f%n", perm, threshold,
+                locking / 1e3 / ROUNDS / TABLE_PAGES, releasing / 1e3 / ROUNDS);
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb.perf;
+
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A DbFile of a fixed number of empty pages that never touches disk.
+ * Benchmarks use it to measure BufferPool bookkeeping without I/O and
+ * page-parsing costs: readPage returns a trivial page, writePage is a no-op.
+ * The number of readPage calls is counted, which is the number of misses the
+ * pool took on this file.
+ */
+public class MemoryFile implements DbFile {
+
+    private static int nextId = 0x7e000000;
+
+    private final int id;
+    private final int numPages;
+    private final TupleDesc td = Utility.getTupleDesc(2);
+    private final AtomicLong reads = new AtomicLong(0);
+
+    public MemoryFile(int numPages) {
+        synchronized (MemoryFile.class) {
+            this.id = nextId++;
+        }
+        this.numPages = numPages;
+    }
+
+    public int numPages() {
+        return numPages;
+    }
+
+    /** Return the number of pages read since construction or the last reset. */
+    public long reads() {
+        return reads.get();
+    }
+
+    public void resetReads() {
+        reads.set(0);
+    }
+
+    public Page readPage(PageId pid) {
+        if (pid.getPageNumber() >= numPages) {
+            throw new IllegalArgumentException("Page number out of bounds");
+        }
+        reads.incrementAndGet();
+        return new MemoryPage(pid);
+    }
+
+    public void writePage(Page p) {
+    }
+
+    public List<Page> insertTuple(TransactionId tid, Tuple t) {
+        throw new UnsupportedOperationException("MemoryFile is read only");
+    }
+
+    public List<Page> deleteTuple(TransactionId tid, Tuple t) {
+        throw new UnsupportedOperationException("MemoryFile is read only");
+    }
+
+    public DbFileIterator iterator(TransactionId tid) {
+        throw new UnsupportedOperationException("MemoryFile has no tuples");
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** A page with no contents, only an id and a dirty flag. */
+    public static class MemoryPage implements Page {
+        private final PageId pid;
+        private volatile TransactionId dirtier;
+
+        public MemoryPage(PageId pid) {
+            this.pid = pid;
+        }
+
+        public PageId getId() {
+            return pid;
+        }
+
+        public TransactionId isDirty() {
+            return dirtier;
+        }
+
+        public void markDirty(boolean dirty, TransactionId tid) {
+            dirtier = dirty ? tid : null;
+        }
+
+        public byte[] getPageData() {
+            return new byte[BufferPool.getPageSize()];
+        }
+
+        public Page getBeforeImage() {
+            return new MemoryPage(pid);
+        }
+
+        public void setBeforeImage() {
+        }
+    }
+}
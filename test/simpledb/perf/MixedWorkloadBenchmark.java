@@ -0,0 +1,89 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.storage.ReplacementStats;
+import simpledb.transaction.TransactionId;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+/**
+ * Measures how well the BufferPool keeps a small, hot working set resident
+ * while a large sequential scan runs. The hot set stands in for B+ tree
+ * internal pages and small dimension tables hit by point lookups; the scanned
+ * table is many times larger than the pool.
+ * <p>
+ * The hot set fits in the pool, but a hot page is re-referenced only after
+ * more scan pages have gone by than the pool holds, so a pure LRU policy
+ * loses the whole working set to the scan. The benchmark reports, for each
+ * replacement policy, the hit ratio of the point lookups and the policy's
+ * own counters over all accesses.
+ * <p>
+ * Run with: ant runbench -Dbench=MixedWorkloadBenchmark
+ */
+public class MixedWorkloadBenchmark {
+
+    private static final int POOL_PAGES = BufferPool.DEFAULT_PAGES;
+    private static final int HOT_PAGES = 30;
+    private static final int SCAN_PAGES = 20000;
+    /** A point lookup is issued after every SCAN_STRIDE scanned pages. */
+    private static final int SCAN_STRIDE = 2;
+
+    public static void main(String[] args) throws Exception {
+        MemoryFile hot = new MemoryFile(HOT_PAGES);
+        MemoryFile scanned = new MemoryFile(SCAN_PAGES);
+        Database.getCatalog().addTable(hot);
+        Database.getCatalog().addTable(scanned);
+
+        System.out.printf("pool=%d hot=%d scanned=%d%n", POOL_PAGES, HOT_PAGES, SCAN_PAGES);
+        System.out.printf("%-8s %12s %12s %16s%n", "policy", "lookup hit%", "overall hit%", "scanned/evict");
+        for (Map.Entry<String, IntFunction<ReplacementPolicy>> policy : Policies.all().entrySet()) {
+            BufferPool bp = new BufferPool(POOL_PAGES, policy.getValue().apply(POOL_PAGES));
+            hot.resetReads();
+            long lookups = run(bp, hot, scanned);
+
+            ReplacementStats stats = bp.getReplacementPolicy().getStats();
+            System.out.printf("%-8s %12.1f %12.1f %16.1f%n", policy.getKey(),
+                    100.0 * (lookups - hot.reads()) / lookups,
+                    100.0 * stats.getHitRatio(),
+                    (double) stats.getFramesScanned() / stats.getEvictionScans());
+        }
+        Database.reset();
+    }
+
+    /** Warm the hot set, then interleave lookups with the scan; return the number of lookups. */
+    private static long run(BufferPool bp, MemoryFile hot, MemoryFile scanned) throws Exception {
+        Random rand = new Random(0);
+
+        // warm the hot set with a few rounds of lookups
+        TransactionId warm = new TransactionId();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < HOT_PAGES; i++) {
+                bp.getPage(warm, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+            }
+        }
+        bp.transactionComplete(warm);
+        hot.resetReads();
+        bp.getReplacementPolicy().getStats().reset();
+
+        TransactionId scan = new TransactionId();
+        long lookups = 0;
+        for (int i = 0; i < SCAN_PAGES; i++) {
+            bp.getPage(scan, new HeapPageId(scanned.getId(), i), Permissions.READ_ONLY);
+            if (i % SCAN_STRIDE == 0) {
+                TransactionId lookup = new TransactionId();
+                bp.getPage(lookup, new HeapPageId(hot.getId(), rand.nextInt(HOT_PAGES)),
+                        Permissions.READ_ONLY);
+                bp.transactionComplete(lookup);
+                lookups++;
+            }
+        }
+        bp.transactionComplete(scan);
+        return lookups;
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares locking with optimistic transactions on a low-conflict workload:
+ * each transaction reads a few random pages of a large table and deletes a
+ * random tuple of the last one. Aborted transactions are retried.
+ * <p>
+ * Run with: ant runbench -Dbench=OptimisticBenchmark
+ */
+public class OptimisticBenchmark {
+
+    private static final int TABLE_PAGES = 500;
+    private static final int THREADS = 4;
+    private static final int TRANSACTIONS = 4000;
+    private static final int READS_PER_TRANSACTION = 8;
+
+    public static void main(String[] args) throws Exception {
+        // 2 int columns -> 504 tuples per page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        BufferPool bp = Database.resetBufferPool(2 * TABLE_PAGES);
+
+        System.out.printf("%-12s %12s %10s%n", "mode", "txns/sec", "aborts");
+        for (boolean optimistic : new boolean[] { false, true }) {
+            AtomicLong aborts = new AtomicLong();
+            Thread[] workers = new Thread[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                Random rand = new Random(t);
+                workers[t] = new Thread(() -> {
+                    for (int i = 0; i < TRANSACTIONS / THREADS; i++) {
+                        while (!runTransaction(bp, f, optimistic, rand)) {
+                            aborts.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%-12s %12.0f %10d%n", optimistic ? "optimistic" : "locking",
+                    TRANSACTIONS / (elapsed / 1e9), aborts.get());
+        }
+        Database.reset();
+    }
+
+    /* Return false if the transaction was aborted */
+    private static boolean runTransaction(BufferPool bp, HeapFile f, boolean optimistic, Random rand) {
+        TransactionId tid = new TransactionId();
+        if (optimistic) {
+            bp.beginOptimistic(tid);
+        }
+        try {
+            HeapPage page = null;
+            for (int j = 0; j < READS_PER_TRANSACTION; j++) {
+                page = (HeapPage) bp.getPage(tid, new HeapPageId(f.getId(), rand.nextInt(TABLE_PAGES)),
+                        Permissions.READ_ONLY);
+            }
+            List<Tuple> tuples = new ArrayList<>();
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                tuples.add(it.next());
+            }
+            if (!tuples.isEmpty()) {
+                bp.deleteTuple(tid, tuples.get(rand.nextInt(tuples.size())));
+            }
+            if (optimistic) {
+                bp.commitOptimistic(tid);
+            } else {
+                bp.transactionComplete(tid);
+            }
+            return true;
+        } catch (TransactionAbortedException | DbException e) {
+            bp.transactionComplete(tid, false);
+            return false;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package simpledb.perf;
+
+import simpledb.storage.ClockReplacer;
+import simpledb.storage.LruReplacer;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.storage.TwoQueueReplacer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * The replacement policies the benchmarks compare, by name. Each entry
+ * creates a fresh policy for a pool of the given capacity.
+ */
+public class Policies {
+
+    public static Map<String, IntFunction<ReplacementPolicy>> all() {
+        Map<String, IntFunction<ReplacementPolicy>> policies = new LinkedHashMap<>();
+        policies.put("lru", capacity -> new LruReplacer());
+        policies.put("clock", capacity -> new ClockReplacer());
+        policies.put("2q", TwoQueueReplacer::new);
+        return policies;
+    }
+}
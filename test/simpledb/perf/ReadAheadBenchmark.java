@@ -0,0 +1,76 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.PageId;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures a full heap file scan from a cold pool with and without
+ * read-ahead. The file is served from the OS page cache, so every page read
+ * is delayed by a fixed latency to stand in for a device; without read-ahead
+ * a scan pays that latency once per page, with it the latency overlaps with
+ * the scan.
+ * <p>
+ * Run with: ant runbench -Dbench=ReadAheadBenchmark
+ */
+public class ReadAheadBenchmark {
+
+    private static final int TABLE_PAGES = 2000;
+    private static final int POOL_PAGES = 256;
+    private static final long[] LATENCIES_US = { 0, 100, 500 };
+
+    /** A HeapFile whose page reads take at least latencyNs. */
+    static class SlowHeapFile extends HeapFile {
+        volatile long latencyNs;
+
+        SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        public byte[] readPageData(PageId pid) {
+            LockSupport.parkNanos(latencyNs);
+            return super.readPageData(pid);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        // 2 int columns -> 504 tuples per page
+        HeapFile template = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        SlowHeapFile f = new SlowHeapFile(template.getFile(), template.getTupleDesc());
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+
+        System.out.printf("%-12s %-12s %12s %14s%n", "latency us", "read-ahead", "scan ms", "pages/sec");
+        for (long latency : LATENCIES_US) {
+            f.latencyNs = latency * 1000;
+            for (boolean enabled : new boolean[] { false, true }) {
+                BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+                bp.setReadAhead(enabled);
+                long start = System.nanoTime();
+                scan(f);
+                long elapsed = System.nanoTime() - start;
+                System.out.printf("%-12d %-12s %12.1f %14.0f%n", latency, enabled ? "on" : "off",
+                        elapsed / 1e6, TABLE_PAGES / (elapsed / 1e9));
+            }
+        }
+        Database.reset();
+    }
+
+    private static void scan(HeapFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
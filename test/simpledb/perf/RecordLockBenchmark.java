@@ -0,0 +1,103 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares page locking with record locking on a small hot table. Each
+ * transaction deletes a few random tuples and inserts them again, so that
+ * the table keeps its size. Transactions aborted by the deadlock detector,
+ * or that lost the tuple they picked to another transaction, are retried. With page locking, transactions on the same page wait for
+ * each other; with record locking they only wait on the same tuple.
+ * <p>
+ * Run with: ant runbench -Dbench=RecordLockBenchmark
+ */
+public class RecordLockBenchmark {
+
+    private static final int HOT_PAGES = 4;
+    private static final int THREADS = 4;
+    private static final int TRANSACTIONS = 4000;
+    private static final int TUPLES_PER_TRANSACTION = 2;
+
+    public static void main(String[] args) throws Exception {
+        // 2 int columns -> 504 tuples per page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * HOT_PAGES - 100, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        System.out.printf("%-10s %12s %10s%n", "locking", "txns/sec", "retries");
+        for (boolean records : new boolean[] { false, true }) {
+            bp.setRecordLocking(records);
+            AtomicLong retries = new AtomicLong();
+            Thread[] workers = new Thread[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                Random rand = new Random(t);
+                workers[t] = new Thread(() -> {
+                    for (int i = 0; i < TRANSACTIONS / THREADS; i++) {
+                        while (!runTransaction(bp, f, rand)) {
+                            retries.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%-10s %12.0f %10d%n", records ? "record" : "page",
+                    TRANSACTIONS / (elapsed / 1e9), retries.get());
+        }
+        Database.reset();
+    }
+
+    /* Return false if the transaction was aborted, or its tuple was gone */
+    private static boolean runTransaction(BufferPool bp, HeapFile f, Random rand) {
+        TransactionId tid = new TransactionId();
+        try {
+            for (int j = 0; j < TUPLES_PER_TRANSACTION; j++) {
+                Tuple victim = pick(f, rand);
+                if (victim == null) {
+                    continue;
+                }
+                bp.deleteTuple(tid, victim);
+                bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(rand.nextInt(), 2));
+            }
+            bp.transactionComplete(tid);
+            return true;
+        } catch (TransactionAbortedException | DbException e) {
+            bp.transactionComplete(tid, false);
+            return false;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /* A random committed tuple of a random page, read without locks as an index lookup would find it */
+    private static Tuple pick(HeapFile f, Random rand) {
+        HeapPageId pid = new HeapPageId(f.getId(), rand.nextInt(HOT_PAGES));
+        List<Tuple> tuples = new ArrayList<>();
+        Iterator<Tuple> it = ((HeapPage) f.readPage(pid)).iterator();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        return tuples.isEmpty() ? null : tuples.get(rand.nextInt(tuples.size()));
+    }
+}
@@ -0,0 +1,137 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a reporting thread that scans a whole table over and over, one scan
+ * per transaction, next to writer threads that each delete a random tuple
+ * and insert another, for a fixed time. With locking scans the scan's
+ * shared table lock keeps writers out until it commits; with snapshot
+ * scans nobody waits. Reports the scans and writer transactions completed
+ * per second, the longest a writer transaction took, and the most page
+ * versions kept at once. On few CPUs the scan and the writers compete for
+ * them, so the longest write shows the difference best.
+ * <p>
+ * Run with: ant runbench -Dbench=SnapshotReadBenchmark
+ */
+public class SnapshotReadBenchmark {
+
+    private static final int TABLE_PAGES = 200;
+    private static final int WRITERS = 3;
+    private static final long RUN_MS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        // 2 int columns -> 504 tuples per page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES - 1000, null, null);
+        BufferPool bp = Database.resetBufferPool(2 * TABLE_PAGES);
+
+        System.out.printf("%-10s %10s %12s %14s %10s%n", "scans", "scans/sec", "writes/sec", "max write ms",
+                "versions");
+        for (boolean snapshots : new boolean[] { false, true }) {
+            bp.setMultiVersion(snapshots);
+            AtomicLong scans = new AtomicLong();
+            AtomicLong writes = new AtomicLong();
+            AtomicLong slowest = new AtomicLong();
+            AtomicLong versions = new AtomicLong();
+            long end = System.currentTimeMillis() + RUN_MS;
+            List<Thread> threads = new ArrayList<>();
+            threads.add(new Thread(() -> {
+                while (System.currentTimeMillis() < end) {
+                    scan(bp, f, snapshots);
+                    scans.incrementAndGet();
+                    versions.accumulateAndGet(bp.getVersionCount(), Math::max);
+                }
+            }));
+            for (int t = 0; t < WRITERS; t++) {
+                Random rand = new Random(t);
+                threads.add(new Thread(() -> {
+                    while (System.currentTimeMillis() < end) {
+                        long begin = System.nanoTime();
+                        if (write(bp, f, rand)) {
+                            writes.incrementAndGet();
+                            slowest.accumulateAndGet(System.nanoTime() - begin, Math::max);
+                        }
+                    }
+                }));
+            }
+            long start = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-10s %10.1f %12.0f %14.1f %10d%n", snapshots ? "snapshot" : "locking",
+                    scans.get() / seconds, writes.get() / seconds, slowest.get() / 1e6, versions.get());
+        }
+        Database.reset();
+    }
+
+    private static void scan(BufferPool bp, HeapFile f, boolean snapshot) {
+        TransactionId tid = new TransactionId();
+        if (snapshot) {
+            bp.beginSnapshot(tid);
+        }
+        try {
+            SeqScan scan = new SeqScan(tid, f.getId());
+            scan.open();
+            while (scan.hasNext()) {
+                scan.next();
+            }
+            scan.close();
+            bp.transactionComplete(tid);
+        } catch (TransactionAbortedException e) {
+            bp.transactionComplete(tid, false);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /* Return false if the transaction was aborted, or its tuple was gone */
+    private static boolean write(BufferPool bp, HeapFile f, Random rand) {
+        TransactionId tid = new TransactionId();
+        try {
+            Tuple victim = pick(f, rand);
+            if (victim != null) {
+                bp.deleteTuple(tid, victim);
+                bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(rand.nextInt(), 2));
+            }
+            bp.transactionComplete(tid);
+            return true;
+        } catch (TransactionAbortedException | DbException e) {
+            bp.transactionComplete(tid, false);
+            return false;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /* A random committed tuple of a random page, read without locks as an index lookup would find it */
+    private static Tuple pick(HeapFile f, Random rand) {
+        HeapPageId pid = new HeapPageId(f.getId(), rand.nextInt(f.numPages()));
+        List<Tuple> tuples = new ArrayList<>();
+        Iterator<Tuple> it = ((HeapPage) f.readPage(pid)).iterator();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        return tuples.isEmpty() ? null : tuples.get(rand.nextInt(tuples.size()));
+    }
+}
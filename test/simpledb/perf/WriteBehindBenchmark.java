@@ -0,0 +1,60 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+
+import java.util.Random;
+
+/**
+ * Measures the cost of committing short update transactions with the pool
+ * forcing pages at commit and in write-behind mode. Each transaction dirties
+ * one random page of a table that fits in the pool and commits, which
+ * writes a commit record and forces the log in both modes.
+ * <p>
+ * Run with: ant runbench -Dbench=WriteBehindBenchmark
+ */
+public class WriteBehindBenchmark {
+
+    private static final int TABLE_PAGES = 1000;
+    private static final int TRANSACTIONS = 5000;
+    private static final double HIGH_WATER = 0.25;
+
+    public static void main(String[] args) throws Exception {
+        // 2 int columns -> 504 tuples per page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+
+        System.out.printf("%-14s %12s %14s%n", "mode", "us/commit", "commits/sec");
+        run("force", f, false);
+        run("write-behind", f, true);
+        Database.reset();
+    }
+
+    private static void run(String name, HeapFile f, boolean writeBehind) throws Exception {
+        BufferPool bp = Database.resetBufferPool(TABLE_PAGES);
+        if (writeBehind) {
+            bp.startWriteBehind(HIGH_WATER);
+        }
+        Random rand = new Random(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            HeapPageId pid = new HeapPageId(f.getId(), rand.nextInt(TABLE_PAGES));
+            Page page = bp.getPage(t.getId(), pid, Permissions.READ_WRITE);
+            page.markDirty(true, t.getId());
+            t.commit();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (writeBehind) {
+            bp.stopWriteBehind();
+        }
+        System.out.printf("%-14s %12.1f %14.0f%n", name, elapsed / 1e3 / TRANSACTIONS,
+                TRANSACTIONS / (elapsed / 1e9));
+    }
+}